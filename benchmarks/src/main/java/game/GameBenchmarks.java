@@ -0,0 +1,412 @@
+package game;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the hot paths of <code>Game</code>. JMH needs a named package, so the build copies the game's
+ * sources into package <code>game</code> next to the benchmarks, which also lets them call package-private steps of
+ * the game. Every benchmark is parameterised by the width and the height
+ * of the board. The state a benchmark changes is restored outside of the measured region: by a setup of every
+ * invocation where restoring costs as much as the operation and inside it only where restoring takes a few cells.
+ * Run them with the GC profiler for allocation rates and export the results as JSON:
+ * <pre>
+ * java -jar target/benchmarks.jar -prof gc -rf json -rff results.json
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBenchmarks {
+
+    /**
+     * Board size shared by most benchmarks, the smallest default fits 1000 bees and the deepest cascade.
+     */
+    @State(Scope.Thread)
+    public static class Size {
+        @Param({"64", "1024"})
+        public int width;
+
+        @Param({"64", "1024"})
+        public int height;
+
+        @Param({"false"})
+        public boolean metrics;
+
+        @Setup(Level.Trial)
+        public void enableMetrics() {
+            Metrics.setEnabled(metrics);
+        }
+
+        Game emptyGame() {
+            Game game = new Game(width, height, 0);
+            clear(game.getBoard());
+            return game;
+        }
+    }
+
+    /**
+     * Game playing random steps, the board is restored once two thirds of it are occupied.
+     */
+    private static class Stepping {
+        Game game;
+        Board start;
+        Random random;
+        long limit;
+
+        void start(Game game) {
+            this.game = game;
+            start = copy(game.getBoard());
+            random = new Random(2);
+            limit = game.getBoard().size() * 2 / 3;
+        }
+
+        void step() {
+            if (game.getBoard().getOccupied() >= limit) {
+                game.getBoard().copyFrom(start);
+            }
+            game.chooseSlot(PlacementPolicy.RANDOM.choose(game, random));
+            game.makeStep();
+        }
+    }
+
+    /**
+     * Steps of a game.
+     */
+    @State(Scope.Thread)
+    public static class Steps extends Stepping {
+        @Setup(Level.Trial)
+        public void setUp(Size size) {
+            start(new Game(size.width, size.height, 1));
+        }
+    }
+
+    /**
+     * Steps of a game recording into a journal.
+     */
+    @State(Scope.Thread)
+    public static class JournalSteps extends Stepping {
+        private Path path;
+        private Journal journal;
+
+        @Setup(Level.Trial)
+        public void setUp(Size size) throws IOException {
+            start(new Game(size.width, size.height, 1));
+            path = Files.createTempFile("benchmark", ".3xj");
+            journal = new Journal(path, size.width, size.height, 1, ItemGenerator.ALIAS);
+            game.setJournal(journal);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            journal.close();
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Empty board with a scoring cluster of three slots in its centre.
+     */
+    @State(Scope.Thread)
+    public static class SmallCluster {
+        Game game;
+        Board board;
+        long center;
+
+        @Setup(Level.Trial)
+        public void setUp(Size size) {
+            game = size.emptyGame();
+            board = game.getBoard();
+            center = board.index(size.width / 2, size.height / 2);
+        }
+    }
+
+    /**
+     * Board filled with one value except for the first slot, placing the value there merges the whole board. The
+     * board is filled again before every invocation.
+     */
+    @State(Scope.Thread)
+    public static class BoardCluster {
+        Game game;
+        Board board;
+        Board filled;
+
+        @Setup(Level.Trial)
+        public void setUp(Size size) {
+            game = size.emptyGame();
+            board = game.getBoard();
+            filled = copy(board);
+            for (long i = 1; i < filled.size(); i++) {
+                filled.set(i, Game.Values.LVL1);
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void fill() {
+            board.copyFrom(filled);
+            game.chooseSlot(0);
+            board.set(0, Game.Values.LVL1);
+        }
+    }
+
+    /**
+     * Empty board with pairs of four levels around its centre, a single placement merges all of them.
+     */
+    @State(Scope.Thread)
+    public static class Cascade {
+        Game game;
+        Board board;
+        long center;
+        int width;
+
+        @Setup(Level.Trial)
+        public void setUp(Size size) {
+            game = size.emptyGame();
+            board = game.getBoard();
+            center = board.index(size.width / 2, size.height / 2);
+            width = size.width;
+        }
+    }
+
+    /**
+     * Empty board with a number of bees placed at random.
+     */
+    @State(Scope.Thread)
+    public static class Swarm {
+        @Param({"1", "10", "1000"})
+        public int bees;
+
+        Game game;
+
+        @Setup(Level.Trial)
+        public void setUp(Size size) {
+            if ((long) bees * 4 > (long) size.width * size.height) {
+                throw new IllegalArgumentException("Board too small for " + bees + " bees");
+            }
+            game = size.emptyGame();
+            Random random = new Random(3);
+            for (int i = 0; i < bees; i++) {
+                game.placeDanger(PlacementPolicy.RANDOM.choose(game, random));
+            }
+        }
+    }
+
+    /**
+     * Game drawing values by one of the item generators.
+     */
+    @State(Scope.Thread)
+    public static class Draws {
+        @Param({"ALIAS", "THRESHOLDS"})
+        public String generator;
+
+        Game game;
+
+        @Setup(Level.Trial)
+        public void setUp(Size size) {
+            ItemGenerator items = generator.equals("ALIAS") ? ItemGenerator.ALIAS : ItemGenerator.THRESHOLDS;
+            game = new Game(size.width, size.height, new GameRandom(4), items);
+        }
+    }
+
+    /**
+     * Size of played out games, smaller than the default boards as a playout fills the whole board.
+     */
+    @State(Scope.Thread)
+    public static class Playout {
+        @Param({"8", "64"})
+        public int width;
+
+        @Param({"8", "64"})
+        public int height;
+
+        Random random;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            random = new Random(5);
+        }
+    }
+
+    /**
+     * Leaderboards kept in memory and in a write-ahead log.
+     */
+    @State(Scope.Thread)
+    public static class Scores {
+        Leaderboard memory;
+        Leaderboard logged;
+        Random random;
+        private Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp(Size size) throws IOException {
+            random = new Random(6);
+            memory = new Leaderboard(100);
+            directory = Files.createTempDirectory("benchmark");
+            logged = new Leaderboard(directory, 100);
+            for (int i = 0; i < 10_000; i++) {
+                logged.submit(random.nextInt(10_000), size.width, size.height, 100, 60);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            logged.close();
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Empty board cleared before every invocation.
+     */
+    @State(Scope.Thread)
+    public static class StartingBoard {
+        Game game;
+        Board empty;
+
+        @Setup(Level.Trial)
+        public void setUp(Size size) {
+            game = size.emptyGame();
+            empty = copy(game.getBoard());
+        }
+
+        @Setup(Level.Invocation)
+        public void clearBoard() {
+            game.getBoard().copyFrom(empty);
+        }
+    }
+
+    @Benchmark
+    public long makeStep(Steps steps) {
+        steps.step();
+        return steps.game.getBoard().getOccupied();
+    }
+
+    @Benchmark
+    public long makeStepJournal(JournalSteps steps) {
+        steps.step();
+        return steps.game.getBoard().getOccupied();
+    }
+
+    /**
+     * Merges three slots, restoring the two emptied ones takes constant time and is measured with the merge.
+     */
+    @Benchmark
+    public boolean checkAdjacencySmall(SmallCluster state) {
+        Board board = state.board;
+        long center = state.center;
+        board.set(center - 1, Game.Values.LVL1);
+        board.set(center + 1, Game.Values.LVL1);
+        board.set(center, Game.Values.EMPTY);
+        state.game.chooseSlot(center);
+        board.set(center, Game.Values.LVL1);
+        return state.game.checkAdjacency();
+    }
+
+    @Benchmark
+    public boolean checkAdjacencyBoard(BoardCluster state) {
+        return state.game.checkAdjacency();
+    }
+
+    /**
+     * Merges four levels one after another, restoring the eight emptied slots takes constant time and is measured
+     * with the merges.
+     */
+    @Benchmark
+    public boolean checkAdjacencyCascade(Cascade state) {
+        Board board = state.board;
+        long c = state.center;
+        int width = state.width;
+        board.set(c - 1, Game.Values.LVL1);
+        board.set(c - 2, Game.Values.LVL1);
+        board.set(c - width, Game.Values.LVL2);
+        board.set(c - 2 * width, Game.Values.LVL2);
+        board.set(c + 1, Game.Values.LVL3);
+        board.set(c + 2, Game.Values.LVL3);
+        board.set(c + width, Game.Values.LVL4);
+        board.set(c + 2 * width, Game.Values.LVL4);
+        board.set(c, Game.Values.EMPTY);
+        state.game.chooseSlot(c);
+        board.set(c, Game.Values.LVL1);
+        return state.game.checkAdjacency();
+    }
+
+    @Benchmark
+    public long updateDangerSlots(Swarm swarm) {
+        swarm.game.updateDangerSlots(false);
+        return swarm.game.getBees().get(0);
+    }
+
+    @Benchmark
+    public long generateStartingBoard(StartingBoard state) {
+        state.game.generateStartingBoard();
+        return state.game.getBoard().getOccupied();
+    }
+
+    @Benchmark
+    public Game.Values getRandomValue(Draws draws) {
+        return draws.game.getRandomValue();
+    }
+
+    @Benchmark
+    public int playout(Playout playout) {
+        Game game = new Game(playout.width, playout.height, playout.random.nextLong());
+        while (!game.isOver()) {
+            game.chooseSlot(PlacementPolicy.RANDOM.choose(game, playout.random));
+            game.makeStep();
+            game.checkAdjacency();
+        }
+        return game.getScore();
+    }
+
+    @Benchmark
+    public void leaderboardSubmit(Scores scores, Size size) {
+        scores.memory.submit(scores.random.nextInt(10_000), size.width, size.height, 100, 60);
+    }
+
+    @Benchmark
+    public void leaderboardSubmitLogged(Scores scores, Size size) {
+        scores.logged.submit(scores.random.nextInt(10_000), size.width, size.height, 100, 60);
+    }
+
+    @Benchmark
+    public double leaderboardRank(Scores scores, Size size) {
+        return scores.logged.getPercentileRank(scores.random.nextInt(10_000), size.width, size.height);
+    }
+
+    private static void clear(Board board) {
+        for (long i = 0; i < board.size(); i++) {
+            board.set(i, Game.Values.EMPTY);
+        }
+    }
+
+    private static Board copy(Board board) {
+        Board copy = new Board(board.getWidth(), board.getHeight());
+        copy.copyFrom(board);
+        return copy;
+    }
+}
@@ -0,0 +1,603 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recommends the next move of a game -- the slot for the current or the saved item, or saving the current item.
+ * <p>
+ * Moves are searched by iterative-deepening expectimax within a time budget. After every placement the search averages
+ * over a few deterministic samples of bee moves and over every value <code>getRandomValue</code> can draw next,
+ * weighted by its probability. Every thread plays the moves on its own copy of the game and undoes them afterwards.
+ * Positions are keyed by Zobrist hashes of the board, the current and the saved item and the tier of the item
+ * generator; keys of (slot, value) pairs are computed by hashing instead of being stored, so big boards cost no key
+ * table, and the board keeps its key up to date with every change.
+ * Values of searched positions are kept in a fixed-size lock-free transposition table shared by all threads.
+ * Root moves are searched in parallel on a fork-join pool. When the budget runs out the result of the last finished
+ * depth is used, on big boards where not even the first depth finishes in time the best of the moves searched so
+ * far is used.
+ */
+public class Advisor {
+    private static final double OVER_PENALTY = 1000;
+    private static final double FREE_WEIGHT = 1;
+    private static final int BEE_SAMPLES = 2;
+    private static final int MAX_MOVES = 24;
+    private static final int MAX_SCAN = 4096;
+    private static final int MAX_DEPTH = 16;
+    private static final int MAX_PLY = 2 * MAX_DEPTH + 2;
+    private static final int CHECK_INTERVAL = 8;
+    private static final int BUDGET_RESERVE = 5;
+    private static final Game.Values[] values = Game.Values.values();
+
+    private final ForkJoinPool pool;
+    private final Table table;
+    private final ThreadLocal<Search> searches = new ThreadLocal<>();
+    private final LongAdder totalNodes = new LongAdder();
+    private volatile double nodesPerSecond = 0;
+
+    /**
+     * Recommended move.
+     */
+    public static class Advice {
+        private final long index;
+        private final boolean useSaved;
+        private final boolean saveFirst;
+        private final double expectedGain;
+        private final int depth;
+        private final long nodes;
+        private final long nanos;
+
+        private Advice(long index, boolean useSaved, boolean saveFirst, double expectedGain, int depth, long nodes,
+                       long nanos) {
+            this.index = index;
+            this.useSaved = useSaved;
+            this.saveFirst = saveFirst;
+            this.expectedGain = expectedGain;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Gets the recommended slot.
+         * @return linear index of the slot, -1 if the current item should be saved first
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        /**
+         * Checks if the saved item should be placed instead of the current one.
+         * @return true if the saved item should be picked
+         */
+        public boolean isSavedPicked() {
+            return useSaved;
+        }
+
+        /**
+         * Checks if the current item should be saved, the game should be advised again afterwards.
+         * @return true if <code>saveItem</code> is recommended
+         */
+        public boolean isSaveFirst() {
+            return saveFirst;
+        }
+
+        /**
+         * Gets the expected gain of the move -- points and free slots it leads to.
+         * @return expected gain
+         */
+        public double getExpectedGain() {
+            return expectedGain;
+        }
+
+        /**
+         * Gets the number of placements the search looked ahead.
+         * @return depth of the last finished iteration, 0 if not even the first one finished
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Gets the number of searched positions.
+         * @return number of nodes
+         */
+        public long getNodes() {
+            return nodes;
+        }
+
+        /**
+         * Gets the time the search took.
+         * @return nanoseconds spent searching
+         */
+        public long getNanos() {
+            return nanos;
+        }
+    }
+
+    /**
+     * Class constructor specifying the size of the transposition table and the pool searching root moves.
+     * @param tableBits the table has <code>2^tableBits</code> entries of 16 bytes
+     * @param pool pool searching root moves in parallel
+     */
+    public Advisor(int tableBits, ForkJoinPool pool) {
+        this.table = new Table(tableBits);
+        this.pool = pool;
+    }
+
+    /**
+     * Class constructor of an advisor with a table of 2^20 entries searching on the common pool.
+     */
+    public Advisor() {
+        this(20, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Gets the number of positions searched per second by the last search.
+     * @return nodes per second
+     */
+    public double getNodesPerSecond() {
+        return nodesPerSecond;
+    }
+
+    /**
+     * Gets the number of positions searched by this advisor so far.
+     * @return number of nodes
+     */
+    public long getTotalNodes() {
+        return totalNodes.sum();
+    }
+
+    /**
+     * Recommends the next move, the game isn't changed.
+     * @param game advised game
+     * @param budgetNanos time the search may take
+     * @return recommended move, null if the game is over or no move can be tried
+     */
+    public Advice advise(Game game, long budgetNanos) {
+        if (game.isOver()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Run run = new Run(start + budgetNanos - budgetNanos / BUDGET_RESERVE);
+
+        Search rootSearch = search(game);
+        int n = rootSearch.candidates(game, 0);
+        boolean hasSaved = game.hasSaved();
+        boolean danger = game.getCurrentItem().getValue() == Game.Values.DANGER;
+        List<RootMove> moves = new ArrayList<>();
+        for (int k = 0; k < n; k++) {
+            moves.add(new RootMove(game, run, rootSearch.moves[0][k], false));
+            if (hasSaved && !danger) {
+                moves.add(new RootMove(game, run, rootSearch.moves[0][k], true));
+            }
+        }
+        if (!hasSaved && !danger) {
+            moves.add(new RootMove(game, run, -1, false));
+        }
+        if (moves.isEmpty()) {
+            return null;
+        }
+
+        RootMove best = null;
+        int bestDepth = 0;
+        for (int depth = 1; depth <= MAX_DEPTH && !run.stop; depth++) {
+            for (RootMove move : moves) {
+                move.depth = depth;
+                move.finished = false;
+                move.reinitialize();
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(moves);
+                }
+            });
+
+            RootMove iterationBest = null;
+            boolean finished = true;
+            for (RootMove move : moves) {
+                if (!move.finished) {
+                    finished = false;
+                }
+                else if (iterationBest == null || move.value > iterationBest.value) {
+                    iterationBest = move;
+                }
+            }
+            if (finished) {
+                best = iterationBest;
+                bestDepth = depth;
+                for (RootMove move : moves) {
+                    move.finalValue = move.value;
+                }
+            }
+            else {
+                if (best == null) {
+                    best = iterationBest;
+                }
+                break;
+            }
+        }
+
+        long nanos = System.nanoTime() - start;
+        long nodes = run.nodes.sum();
+        totalNodes.add(nodes);
+        nodesPerSecond = nodes * 1e9 / Math.max(1, nanos);
+        if (best == null) {
+            best = moves.get(0);
+        }
+        double gain = bestDepth > 0 ? best.finalValue : best.value;
+        if (Double.isInfinite(gain)) {
+            gain = 0;
+        }
+        return new Advice(best.index, best.useSaved, best.index < 0, gain, bestDepth, nodes, nanos);
+    }
+
+    /**
+     * Recommends the next move like <code>advise</code>, the search runs on the pool of this advisor and the calling
+     * thread doesn't wait for it.
+     * @param game advised game, it must not change until the advice is complete
+     * @param budgetNanos time the search may take
+     * @return completed with the recommended move, or null if the game is over or no move can be tried
+     */
+    public CompletableFuture<Advice> adviseAsync(Game game, long budgetNanos) {
+        return CompletableFuture.supplyAsync(() -> advise(game, budgetNanos), pool);
+    }
+
+    /**
+     * Makes a placement policy playing by the advice of this advisor, it places into a random free slot when there is
+     * no advice.
+     * @param budgetNanos time each move may take
+     * @return policy following advice
+     */
+    public PlacementPolicy asPolicy(long budgetNanos) {
+        return (game, random) -> {
+            Advice advice = advise(game, budgetNanos);
+            if (advice != null && advice.isSaveFirst()) {
+                game.saveItem();
+                advice = advise(game, budgetNanos);
+            }
+            if (advice == null) {
+                game.pickCurrentItem();
+                return PlacementPolicy.RANDOM.choose(game, random);
+            }
+            if (advice.isSavedPicked()) {
+                game.pickSavedItem();
+            }
+            else {
+                game.pickCurrentItem();
+            }
+            return advice.getIndex();
+        };
+    }
+
+    private Search search(Game game) {
+        Search search = searches.get();
+        if (search == null || search.width != game.getWidth() || search.height != game.getHeight()
+                || search.sparse != game.getBoard().isSparse()) {
+            search = new Search(game.getWidth(), game.getHeight(), game.getBoard().isSparse());
+            searches.set(search);
+        }
+        return search;
+    }
+
+    /**
+     * State of a single search shared by all threads.
+     */
+    private static class Run {
+        private final long deadline;
+        private final LongAdder nodes = new LongAdder();
+        private volatile boolean stop = false;
+
+        private Run(long deadline) {
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Thrown to unwind a search when its time is up.
+     */
+    private static class Abort extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private static final Abort instance = new Abort();
+
+        private Abort() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Searches one root move to the depth of the current iteration.
+     */
+    private class RootMove extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Game game;
+        private final Run run;
+        private final long index;
+        private final boolean useSaved;
+        private int depth;
+        private boolean finished;
+        private double value = Double.NEGATIVE_INFINITY;
+        private double finalValue = Double.NEGATIVE_INFINITY;
+
+        private RootMove(Game game, Run run, long index, boolean useSaved) {
+            this.game = game;
+            this.run = run;
+            this.index = index;
+            this.useSaved = useSaved;
+        }
+
+        @Override
+        protected void compute() {
+            if (run.stop) {
+                return;
+            }
+            Search search = search(game);
+            search.start(run);
+            try {
+                Game node = search.load(game);
+                value = index < 0 ? search.save(node, depth, 0) : search.place(node, index, useSaved, depth, 0);
+                finished = true;
+            }
+            catch (Abort e) {
+                run.stop = true;
+            }
+            finally {
+                search.flush();
+            }
+        }
+    }
+
+    /**
+     * Position, checkpoints and move lists of a search on one thread, reused by every search of the thread.
+     */
+    private class Search {
+        private final int width;
+        private final int height;
+        private final boolean sparse;
+        private final Game.Checkpoint[][] checkpoints = new Game.Checkpoint[MAX_PLY][2];
+        private final long[][] moves = new long[MAX_PLY][MAX_MOVES];
+        private final int[] priorities = new int[MAX_MOVES];
+        private Game node;
+        private Run run;
+        private long count;
+
+        private Search(int width, int height, boolean sparse) {
+            this.width = width;
+            this.height = height;
+            this.sparse = sparse;
+        }
+
+        private void start(Run run) {
+            this.run = run;
+            this.count = 0;
+        }
+
+        private void flush() {
+            run.nodes.add(count);
+            count = 0;
+        }
+
+        /**
+         * Copies a searched game into the position of this thread.
+         * @return position moves are played on
+         */
+        private Game load(Game source) {
+            if (node == null) {
+                node = new Game(source);
+            }
+            else {
+                node.copyFrom(source);
+            }
+            return node;
+        }
+
+        private Game.Checkpoint checkpoint(Game game, int ply, int kind) {
+            Game.Checkpoint checkpoint = checkpoints[ply][kind];
+            if (checkpoint == null) {
+                checkpoint = new Game.Checkpoint();
+                checkpoints[ply][kind] = checkpoint;
+            }
+            game.checkpoint(checkpoint);
+            return checkpoint;
+        }
+
+        private void countNode() {
+            if (count++ % CHECK_INTERVAL == 0 && (run.stop || System.nanoTime() > run.deadline)) {
+                run.stop = true;
+                throw Abort.instance;
+            }
+        }
+
+        private double decide(Game game, int depth, int ply) {
+            if (game.isOver()) {
+                return -OVER_PENALTY;
+            }
+            if (depth == 0 || ply + 2 >= MAX_PLY) {
+                return FREE_WEIGHT * game.getBoard().getFreeCount();
+            }
+
+            long key = hash(game);
+            double cached = table.probe(key, depth);
+            if (!Double.isNaN(cached)) {
+                return cached;
+            }
+
+            Game.Values current = game.getCurrentItem().getValue();
+            boolean danger = current == Game.Values.DANGER;
+            double best = Double.NEGATIVE_INFINITY;
+            int n = candidates(game, ply);
+            for (int k = 0; k < n; k++) {
+                long index = moves[ply][k];
+                best = Math.max(best, place(game, index, false, depth, ply));
+                if (game.hasSaved() && !danger) {
+                    best = Math.max(best, place(game, index, true, depth, ply));
+                }
+            }
+            if (!game.hasSaved() && !danger) {
+                best = Math.max(best, save(game, depth, ply));
+            }
+
+            table.store(key, depth, best);
+            return best;
+        }
+
+        /**
+         * Plays a placement and the moves after it on a game and undoes them.
+         */
+        private double place(Game game, long index, boolean useSaved, int depth, int ply) {
+            countNode();
+            Game.Checkpoint before = checkpoint(game, ply, 0);
+            if (useSaved) {
+                game.pickSavedItem();
+            }
+            else {
+                game.pickCurrentItem();
+            }
+            game.chooseSlot(index);
+            int scoreBefore = game.getScore();
+            Game.Values value = game.placeChosenItem();
+            boolean placedDanger = value == Game.Values.DANGER;
+
+            int samples = game.getBees().size() > (placedDanger ? 1 : 0) ? BEE_SAMPLES : 1;
+            long seed = hash(game);
+            Game.Checkpoint placed = samples > 1 ? checkpoint(game, ply, 1) : null;
+            double total = 0;
+            try {
+                for (int s = 0; s < samples; s++) {
+                    if (s > 0) {
+                        game.undo(placed);
+                    }
+                    game.reseed(seed + s);
+                    game.updateDangerSlots(placedDanger);
+                    game.checkAdjacency();
+                    total += game.getScore() - scoreBefore + chance(game, scoreBefore, depth - 1, ply + 1);
+                }
+            }
+            finally {
+                game.undo(before);
+            }
+            return total / samples;
+        }
+
+        private double save(Game game, int depth, int ply) {
+            Game.Checkpoint before = checkpoint(game, ply, 0);
+            try {
+                game.saveItem();
+                return chance(game, game.getScore(), depth, ply + 1);
+            }
+            finally {
+                game.undo(before);
+            }
+        }
+
+        /**
+         * Averages positions over every value drawn as the next current item.
+         */
+        private double chance(Game game, int score, int depth, int ply) {
+            double expected = 0;
+            for (Game.Values value : values) {
+                double p = game.chanceOf(value, score);
+                if (p > 0) {
+                    game.getCurrentItem().setValue(value);
+                    expected += p * decide(game, depth, ply);
+                }
+            }
+            return expected;
+        }
+
+        /**
+         * Collects free slots worth trying, on big boards only the ones touching most slots with the current or the
+         * saved value. On a sparse board only free slots touching occupied ones are tried.
+         * @return number of collected slots
+         */
+        private int candidates(Game game, int ply) {
+            Board board = game.getBoard();
+            int freeCount = board.getCandidateCount();
+            long[] out = moves[ply];
+            if (freeCount <= MAX_MOVES) {
+                for (int k = 0; k < freeCount; k++) {
+                    out[k] = board.getCandidate(k);
+                }
+                return freeCount;
+            }
+
+            Game.Values current = game.getCurrentItem().getValue();
+            Game.Values saved = game.getSavedItem().getValue();
+            int scan = Math.min(freeCount, MAX_SCAN);
+            int offset = (int) Long.remainderUnsigned(hash(game), freeCount);
+            int n = 0;
+            for (int k = 0; k < scan; k++) {
+                int j = (offset + k) % freeCount;
+                long index = board.getCandidate(j);
+                int priority = board.countNeighbours(index, current);
+                if (saved != Game.Values.EMPTY) {
+                    priority = Math.max(priority, board.countNeighbours(index, saved));
+                }
+                if (n == MAX_MOVES && priority <= priorities[n - 1]) {
+                    continue;
+                }
+                int position = n < MAX_MOVES ? n++ : n - 1;
+                while (position > 0 && priorities[position - 1] < priority) {
+                    priorities[position] = priorities[position - 1];
+                    out[position] = out[position - 1];
+                    position--;
+                }
+                priorities[position] = priority;
+                out[position] = index;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Computes the Zobrist hash of a position: slots, current and saved item, the item generator and its tier at the
+     * score, which decide the chances of every value drawn next. Slots are hashed by the key the board keeps, so
+     * hashing takes constant time.
+     * @param game hashed position
+     * @return 64-bit key
+     */
+    static long hash(Game game) {
+        ItemGenerator items = game.getItemGenerator();
+        return game.getBoard().getKey() ^ Game.mix(game.getCurrentItem().getValue().ordinal() + 0x100L)
+                ^ Game.mix(game.getSavedItem().getValue().ordinal() + 0x200L)
+                ^ Game.mix(((long) items.getName().hashCode() << 32) + 0x300L)
+                ^ Game.mix(items.tier(game.getScore()) + 0x400L);
+    }
+
+    /**
+     * Transposition table of fixed size. Every entry takes two longs, the key xor-ed with the data and the data, both
+     * are written without locks; a torn entry fails the key check and reads as a miss.
+     */
+    private static class Table {
+        private final AtomicLongArray entries;
+        private final int mask;
+
+        private Table(int bits) {
+            entries = new AtomicLongArray(2 << bits);
+            mask = (1 << bits) - 1;
+        }
+
+        private double probe(long key, int depth) {
+            int i = (int) (key & mask) << 1;
+            long check = entries.getOpaque(i);
+            long data = entries.getOpaque(i + 1);
+            if ((check ^ data) != key || (int) (data >>> 32) < depth) {
+                return Double.NaN;
+            }
+            return Float.intBitsToFloat((int) data);
+        }
+
+        private void store(long key, int depth, double value) {
+            int i = (int) (key & mask) << 1;
+            long data = (long) depth << 32 | (Float.floatToRawIntBits((float) value) & 0xffffffffL);
+            entries.setOpaque(i, key ^ data);
+            entries.setOpaque(i + 1, data);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Item generator drawing from precompiled alias tables, one table per tier of the score. A table of n values has n
+ * columns, each holding a value, a cutoff and an alias; a single 32-bit draw multiplied by n gives the column in its
+ * high half and a coin in its low half, and the coin picks the value below the cutoff and the alias above it. So a
+ * draw costs one step of the random generator, a multiplication and a comparison whatever the distribution is.
+ * <p>
+ * Tables are built by Vose's method when the generator is created and never change, so a generator can be shared by
+ * any number of games and threads.
+ */
+public class AliasGenerator implements ItemGenerator {
+    static final int DANGER_SCORE = 400;
+
+    private static final Game.Values[] values = Game.Values.values();
+    private static final long ONE = 1L << 32;
+
+    private final String name;
+    private final int[] scores;
+    private final Table[] tables;
+
+    private static final class Table {
+        private final int columns;
+        private final long[] cutoffs;
+        private final Game.Values[] values;
+        private final Game.Values[] aliases;
+        private final double[] chances;
+
+        private Table(int columns, double[] chances) {
+            this.columns = columns;
+            this.cutoffs = new long[columns];
+            this.values = new Game.Values[columns];
+            this.aliases = new Game.Values[columns];
+            this.chances = chances;
+        }
+    }
+
+    /**
+     * Class constructor specifying the tiers. Tier 0 is used up to the first score, tier <code>i</code> once the
+     * score is above <code>scores[i - 1]</code>.
+     * @param name name of the generator recorded in journals
+     * @param scores ascending scores at which the next tier starts
+     * @param weights weights of values of every tier indexed by <code>Values.ordinal()</code>, they don't have to sum
+     *                to one
+     * @throws IllegalArgumentException if the tiers don't match the scores, a weight is negative, <code>EMPTY</code>
+     *                                  has a weight or a tier has none
+     */
+    public AliasGenerator(String name, int[] scores, double[][] weights) {
+        if (weights.length != scores.length + 1) {
+            throw new IllegalArgumentException(weights.length + " tiers for " + scores.length + " scores");
+        }
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] <= scores[i - 1]) {
+                throw new IllegalArgumentException("Scores of tiers are not ascending " + Arrays.toString(scores));
+            }
+        }
+        this.name = name;
+        this.scores = scores.clone();
+        tables = new Table[weights.length];
+        for (int t = 0; t < weights.length; t++) {
+            tables[t] = build(weights[t]);
+        }
+    }
+
+    /**
+     * Creates the generator of the standard game: a value of level one with probability 0.5, of level two with 0.2
+     * and of each higher level with 0.1; after a score of 400 a danger value takes 0.1 from level one.
+     * @param name name of the generator recorded in journals
+     * @return new generator
+     */
+    static AliasGenerator standard(String name) {
+        // EMPTY, DANGER, LVL1, LVL2, LVL3, LVL4, LVL5
+        return new AliasGenerator(name, new int[]{DANGER_SCORE}, new double[][]{
+                {0, 0, 0.5, 0.2, 0.1, 0.1, 0.1},
+                {0, 0.1, 0.4, 0.2, 0.1, 0.1, 0.1}});
+    }
+
+    private static Table build(double[] weights) {
+        if (weights.length != values.length) {
+            throw new IllegalArgumentException(weights.length + " weights for " + values.length + " values");
+        }
+        if (weights[Game.Values.EMPTY.ordinal()] != 0) {
+            throw new IllegalArgumentException("Empty value can't be drawn");
+        }
+        double sum = 0;
+        int columns = 0;
+        for (double weight : weights) {
+            if (!(weight >= 0) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("Invalid weight " + weight);
+            }
+            sum += weight;
+            if (weight > 0) {
+                columns++;
+            }
+        }
+        if (columns == 0) {
+            throw new IllegalArgumentException("Tier has no weights");
+        }
+
+        double[] chances = new double[values.length];
+        Table table = new Table(columns, chances);
+        double[] scaled = new double[columns];
+        int c = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (weights[i] > 0) {
+                chances[i] = weights[i] / sum;
+                table.values[c] = values[i];
+                table.aliases[c] = values[i];
+                scaled[c++] = chances[i] * columns;
+            }
+        }
+
+        int[] small = new int[columns];
+        int[] large = new int[columns];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < columns; i++) {
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            }
+            else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int s = small[--smallCount];
+            int l = large[--largeCount];
+            table.cutoffs[s] = Math.round(scaled[s] * ONE);
+            table.aliases[s] = table.values[l];
+            scaled[l] += scaled[s] - 1;
+            if (scaled[l] < 1) {
+                small[smallCount++] = l;
+            }
+            else {
+                large[largeCount++] = l;
+            }
+        }
+        // what is left is one up to rounding errors
+        while (largeCount > 0) {
+            table.cutoffs[large[--largeCount]] = ONE;
+        }
+        while (smallCount > 0) {
+            table.cutoffs[small[--smallCount]] = ONE;
+        }
+        return table;
+    }
+
+    private Table table(int score) {
+        return tables[tier(score)];
+    }
+
+    @Override
+    public Game.Values next(int score, Random random) {
+        Table table = table(score);
+        long scaled = (random.nextInt() & 0xFFFFFFFFL) * table.columns;
+        int column = (int) (scaled >>> 32);
+        return (scaled & 0xFFFFFFFFL) < table.cutoffs[column] ? table.values[column] : table.aliases[column];
+    }
+
+    @Override
+    public double chanceOf(Game.Values value, int score) {
+        return table(score).chances[value.ordinal()];
+    }
+
+    @Override
+    public int tier(int score) {
+        int t = 0;
+        while (t < scores.length && score > scores[t]) {
+            t++;
+        }
+        return t;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,165 @@
+import javafx.scene.image.Image;
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaPlayer;
+import javafx.scene.text.Font;
+import javafx.util.Duration;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fonts, images and sounds of the game loaded in parallel on background threads. Every file is a separate task, so
+ * the window waits only for the slowest file it needs, not for all of them in turn; short sounds are decoded into a
+ * <code>SoundMixer</code> and played as soon as it is ready, background music is not opened until it is started, it
+ * is then streamed by the media player.
+ */
+public class Assets implements Closeable {
+    private static final String fontPath = "fonts/prstartk.TTF";
+
+    private final ExecutorService loader = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "assets");
+                t.setDaemon(true);
+                return t;
+            });
+    private final Map<Game.Values, CompletableFuture<Image>> images = new EnumMap<>(Game.Values.class);
+    private final CompletableFuture<SoundMixer> mixer;
+    private final CompletableFuture<byte[]> font;
+    private volatile MediaPlayer musicPlayer = null;
+
+    //credit: https://mixkit.co/free-sound-effects/arcade/
+    /**
+     * Short sounds of the game.
+     */
+    public enum Sound {
+        SCORE("music/score.wav"),
+        CLICK("music/click.wav"),
+        NEW_GAME("music/newgame.wav");
+
+        private final String path;
+
+        Sound(String path) {
+            this.path = path;
+        }
+
+        /**
+         * Gets the file of the sound.
+         * @return path relative to the working directory
+         */
+        String getPath() {
+            return path;
+        }
+    }
+
+    /**
+     * Class constructor, it starts loading all fonts, images and sounds.
+     */
+    public Assets() {
+        font = CompletableFuture.supplyAsync(() -> {
+            try {
+                return Files.readAllBytes(Paths.get(fontPath));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, loader);
+        //credit: Pixel flowers stages of blooming by Brysiaa, Deviantart
+        //credit: pixel bee by jxy25, Pixilart
+        //modified and edited by me
+        image(Game.Values.LVL1, "file:images\\lvl1.png");
+        image(Game.Values.LVL2, "file:images\\lvl2.png");
+        image(Game.Values.LVL3, "file:images\\lvl3.png");
+        image(Game.Values.LVL4, "file:images\\lvl4.png");
+        image(Game.Values.LVL5, "file:images\\lvl5.png");
+        image(Game.Values.EMPTY, "file:images\\empty.png");
+        image(Game.Values.DANGER, "file:images\\danger.png");
+        mixer = CompletableFuture.supplyAsync(SoundMixer::new, loader);
+    }
+
+    private void image(Game.Values value, String url) {
+        images.put(value, CompletableFuture.supplyAsync(() -> new Image(url), loader));
+    }
+
+    /**
+     * Gets fonts and images needed to show the board.
+     * @return completed when all fonts and images are loaded, exceptionally if the font can't be read
+     */
+    public CompletableFuture<Void> boardReady() {
+        CompletableFuture<?>[] needed = new CompletableFuture<?>[images.size() + 1];
+        int i = 0;
+        for (CompletableFuture<Image> image : images.values()) {
+            needed[i++] = image;
+        }
+        needed[i] = font;
+        return CompletableFuture.allOf(needed);
+    }
+
+    /**
+     * Gets the image of every value, it must be called after <code>boardReady</code> completed.
+     * @return map from values to their images
+     */
+    public Map<Game.Values, Image> getImages() {
+        Map<Game.Values, Image> loaded = new EnumMap<>(Game.Values.class);
+        images.forEach((value, image) -> loaded.put(value, image.join()));
+        return loaded;
+    }
+
+    /**
+     * Creates the font of the game in a size, it must be called after <code>boardReady</code> completed.
+     * @param size size of the font in points
+     * @return loaded font
+     */
+    public Font getFont(double size) {
+        return Font.loadFont(new ByteArrayInputStream(font.join()), size);
+    }
+
+    /**
+     * Plays a sound without waiting for it, sounds triggered while the mixer is loading are played when it is loaded.
+     * @param sound played sound
+     */
+    public void play(Sound sound) {
+        SoundMixer loaded = mixer.getNow(null);
+        if (loaded != null) {
+            loaded.play(sound);
+        }
+        else {
+            mixer.thenAccept(m -> m.play(sound));
+        }
+    }
+
+    //credit: Kevin MacLeod - Pixelland ♫ NO COPYRIGHT 8-bit Music
+    /**
+     * Opens the background music on a loader thread and plays it in a loop, it is called once. The player is kept in
+     * a field, so it is not collected while playing.
+     */
+    public void startMusic() {
+        loader.execute(() -> {
+            MediaPlayer player = new MediaPlayer(new Media(new File("music\\music.mp3").toURI().toString()));
+            player.setOnEndOfMedia(() -> player.seek(Duration.ZERO));
+            player.play();
+            musicPlayer = player;
+        });
+    }
+
+    /**
+     * Stops the background music and closes the mixer.
+     */
+    @Override
+    public void close() {
+        MediaPlayer player = musicPlayer;
+        if (player != null) {
+            player.dispose();
+        }
+        mixer.thenAccept(SoundMixer::close);
+    }
+}
@@ -0,0 +1,102 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Saves a game in the background. The calling thread only takes a snapshot, which copies the chunks of the board
+ * changed since the last save, and a single daemon thread writes it into a <code>SaveFile</code>. When saves come
+ * faster than they are written, only the newest waiting one is written.
+ */
+public class Autosave implements Closeable {
+    private final Game game;
+    private final Path path;
+    private final Board.Changes changes;
+    private Snapshot last = null;
+    private final AtomicReference<Pending> pending = new AtomicReference<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "autosave");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * State of the game waiting to be written.
+     */
+    private static class Pending {
+        private final Snapshot snapshot;
+        private final long randomState;
+
+        private Pending(Snapshot snapshot, long randomState) {
+            this.snapshot = snapshot;
+            this.randomState = randomState;
+        }
+    }
+
+    /**
+     * Class constructor specifying the saved game and its file.
+     * @param game saved game, it is used only by the thread calling <code>save</code>
+     * @param path written file
+     */
+    public Autosave(Game game, Path path) {
+        this.game = game;
+        this.path = path;
+        this.changes = game.getBoard().trackChanges();
+    }
+
+    /**
+     * Takes a snapshot of the game and lets the background thread write it.
+     */
+    public void save() {
+        last = Snapshot.of(game, changes, last);
+        if (pending.getAndSet(new Pending(last, SaveFile.randomStateOf(game))) == null) {
+            writer.execute(this::writePending);
+        }
+    }
+
+    private void writePending() {
+        Pending state = pending.getAndSet(null);
+        if (state == null) {
+            return;
+        }
+        try {
+            SaveFile.write(state.snapshot, state.randomState, path);
+        }
+        catch (IOException e) {
+            System.err.println("Autosave failed: " + e);
+        }
+    }
+
+    /**
+     * Deletes the saved game after saves waiting to be written, used when the game is over.
+     */
+    public void delete() {
+        pending.set(null);
+        writer.execute(() -> {
+            try {
+                Files.deleteIfExists(path);
+            }
+            catch (IOException e) {
+                System.err.println("Autosave can't be deleted: " + e);
+            }
+        });
+    }
+
+    /**
+     * Writes the waiting save and stops the background thread.
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Keeps track of danger values (bees) on a board and moves them. Positions are kept in a primitive array and every bee
+ * picks its move from the board's free neighbour mask, so a step allocates nothing.
+ * <p>
+ * Bees move either one after another, which is how the game always moved them, or in horizontal stripes of the board
+ * processed in parallel. Even stripes move first and odd ones after them; stripes are at least eight rows high, so two
+ * stripes moving at the same time never touch the same cells or masks. Inside a stripe bees move in the order they were
+ * placed and a bee finding its neighbour taken by an earlier one picks from the rest, which resolves conflicts the same
+ * way in every run.
+ */
+public class Bees {
+    private static final int STRIPE_ROWS = 8;
+    private static final byte EMPTY = (byte) Game.Values.EMPTY.ordinal();
+    private static final byte DANGER = (byte) Game.Values.DANGER.ordinal();
+
+    private final Board board;
+    private long[] positions = new long[8];
+    private int count = 0;
+
+    private int stripes = 0;
+    private int[] order = new int[0];
+    private long[] origins = new long[0];
+    private int[] stripeStart = new int[0];
+    private Stripe[] tasks = new Stripe[0];
+    private long stepSeed;
+
+    /**
+     * Class constructor specifying the board bees move on.
+     * @param board board of the game
+     */
+    public Bees(Board board) {
+        this.board = board;
+    }
+
+    /**
+     * Gets the number of bees.
+     * @return number of bees
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets the position of a bee.
+     * @param bee index of the bee, bees are numbered from 0
+     * @return linear index of the bee's cell
+     */
+    public long get(int bee) {
+        return positions[bee];
+    }
+
+    /**
+     * Adds a bee, the cell must already hold the danger value.
+     * @param index linear index of the bee's cell
+     */
+    public void add(long index) {
+        if (count == positions.length) {
+            long[] grown = new long[count * 2];
+            System.arraycopy(positions, 0, grown, 0, count);
+            positions = grown;
+        }
+        positions[count++] = index;
+    }
+
+    /**
+     * Makes positions of bees the same as positions of bees on another board.
+     * @param other copied bees
+     */
+    public void copyFrom(Bees other) {
+        if (positions.length < other.count) {
+            positions = new long[other.positions.length];
+        }
+        System.arraycopy(other.positions, 0, positions, 0, other.count);
+        count = other.count;
+    }
+
+    /**
+     * Copies positions of all bees.
+     * @return new array of linear indexes in the order bees move
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * Replaces all bees, their cells must already hold the danger value.
+     * @param bees linear indexes of bees' cells in the order they move
+     */
+    public void setAll(long[] bees) {
+        if (positions.length < bees.length) {
+            positions = new long[Math.max(8, Integer.highestOneBit(bees.length) * 2)];
+        }
+        System.arraycopy(bees, 0, positions, 0, bees.length);
+        count = bees.length;
+    }
+
+    /**
+     * Moves every bee one step to a random free neighbour if it has any, one bee after another.
+     * @param random random generator of the game
+     * @param lastPlaced true if the last added bee was placed in this step, it stays still and moves first next time
+     */
+    public void move(Random random, boolean lastPlaced) {
+        int first = startMove(lastPlaced);
+        for (int i = first; i < count; i++) {
+            int free = board.freeNeighbours(positions[i]);
+            if (free != 0) {
+                moveBee(i, free, random.nextInt(Integer.bitCount(free)), true);
+            }
+        }
+    }
+
+    /**
+     * Moves every bee one step to a random free neighbour if it has any, stripes of the board are processed in
+     * parallel.
+     * Stripes depend only on the board and draws of each bee only on the seed and the bee, so the result doesn't depend
+     * on the pool.
+     * @param seed seed of this step
+     * @param lastPlaced true if the last added bee was placed in this step, it stays still and moves first next time
+     * @param pool pool running the stripes
+     */
+    public void moveInStripes(long seed, boolean lastPlaced, ForkJoinPool pool) {
+        int first = startMove(lastPlaced);
+        prepareStripes(Math.max(1, board.getHeight() / STRIPE_ROWS));
+        stepSeed = seed;
+
+        board.freeNeighbours(0);
+        int[] counts = stripeStart;
+        Arrays.fill(counts, 0);
+        for (int i = first; i < count; i++) {
+            counts[stripeOf(positions[i]) + 1]++;
+        }
+        for (int s = 0; s < stripes; s++) {
+            counts[s + 1] += counts[s];
+        }
+        for (int i = first; i < count; i++) {
+            order[counts[stripeOf(positions[i])]++] = i;
+        }
+        for (int s = stripes; s > 0; s--) {
+            counts[s] = counts[s - 1];
+        }
+        counts[0] = 0;
+
+        System.arraycopy(positions, 0, origins, 0, count);
+        for (int phase = 0; phase < 2; phase++) {
+            Stripe root = tasks[stripes + phase];
+            root.reinitialize();
+            pool.invoke(root);
+        }
+        for (int i = first; i < count; i++) {
+            board.markChanged(origins[i]);
+            board.markChanged(positions[i]);
+        }
+        GameEvents events = board.getEvents();
+        // a bee may enter a cell another bee left in the same step, so all cells are left before any is entered
+        for (int i = first; i < count; i++) {
+            if (origins[i] != positions[i]) {
+                board.record(origins[i], DANGER, EMPTY);
+                if (events != null) {
+                    events.cell(origins[i], DANGER, EMPTY);
+                }
+            }
+        }
+        for (int i = first; i < count; i++) {
+            if (origins[i] != positions[i]) {
+                board.record(positions[i], EMPTY, DANGER);
+                if (events != null) {
+                    events.cell(positions[i], EMPTY, DANGER);
+                    events.beeMoved(origins[i], positions[i]);
+                }
+            }
+        }
+    }
+
+    private int startMove(boolean lastPlaced) {
+        if (!lastPlaced || count == 0) {
+            return 0;
+        }
+        long placed = positions[count - 1];
+        System.arraycopy(positions, 0, positions, 1, count - 1);
+        positions[0] = placed;
+        return 1;
+    }
+
+    private void moveBee(int bee, int free, int choice, boolean tracked) {
+        for (int k = 0; k < choice; k++) {
+            free &= free - 1;
+        }
+        long from = positions[bee];
+        long to = board.neighbour(from, Integer.lowestOneBit(free));
+        if (tracked) {
+            board.move(from, to);
+            if (board.getEvents() != null) {
+                board.getEvents().beeMoved(from, to);
+            }
+        }
+        else {
+            board.moveUntracked(from, to);
+        }
+        positions[bee] = to;
+    }
+
+    private int stripeOf(long index) {
+        return (int) ((long) board.getY(index) * stripes / board.getHeight());
+    }
+
+    private void prepareStripes(int stripes) {
+        if (order.length < count) {
+            order = new int[positions.length];
+            origins = new long[positions.length];
+        }
+        if (this.stripes == stripes) {
+            return;
+        }
+        this.stripes = stripes;
+        stripeStart = new int[stripes + 1];
+        tasks = new Stripe[stripes + 2];
+        for (int s = 0; s < stripes; s++) {
+            tasks[s] = new Stripe(s, null);
+        }
+        for (int phase = 0; phase < 2; phase++) {
+            Stripe[] group = new Stripe[(stripes - phase + 1) / 2];
+            for (int k = 0; k < group.length; k++) {
+                group[k] = tasks[phase + 2 * k];
+            }
+            tasks[stripes + phase] = new Stripe(-1, group);
+        }
+    }
+
+    /**
+     * Moves bees of a single stripe, or forks a group of stripes moving at the same time.
+     */
+    private class Stripe extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int stripe;
+        private final Stripe[] group;
+
+        private Stripe(int stripe, Stripe[] group) {
+            this.stripe = stripe;
+            this.group = group;
+        }
+
+        @Override
+        protected void compute() {
+            if (group != null) {
+                for (Stripe task : group) {
+                    task.reinitialize();
+                }
+                invokeAll(group);
+                return;
+            }
+            for (int k = stripeStart[stripe]; k < stripeStart[stripe + 1]; k++) {
+                int bee = order[k];
+                int free = board.freeNeighbours(positions[bee]);
+                if (free != 0) {
+                    long draw = Game.mix(stepSeed + bee * 0x9e3779b97f4a7c15L);
+                    moveBee(bee, free, (int) ((draw >>> 33) % Integer.bitCount(free)), false);
+                }
+            }
+        }
+    }
+}
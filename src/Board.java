@@ -0,0 +1,1203 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Packed storage of a game's grid. Every cell takes a single byte holding the ordinal of its <code>Values</code>,
+ * cells are addressed by long linear index <code>y * width + x</code>. Free cells are kept in a dense array together
+ * with the position of every cell in it, so a free cell can be sampled, added or removed in constant time.
+ * <p>
+ * A sparse board keeps only square tiles of <code>1 << TILE_BITS</code> cells per side which hold an occupied cell, in
+ * a <code>LongMap</code> keyed by the number of the tile; a tile is allocated by its first occupied cell and released
+ * when its last one is emptied, so memory follows the occupied area instead of the size of the board. A sparse board
+ * doesn't list its free cells, its candidates for a placement are only the free cells of its frontier (see
+ * <code>getCandidate</code>); it samples free cells by rejection, computes free neighbour masks on the fly and stamps
+ * cells visited by a flood fill in the tiles. Its cells can't be moved from more threads at once. A dense board
+ * holds at most <code>Integer.MAX_VALUE</code> cells, which keeps its lists and scratch arrays int-indexed, a sparse
+ * one up to <code>MAX_CELLS</code>.
+ */
+public class Board {
+    private static final Game.Values[] values = Game.Values.values();
+    private static final byte EMPTY = (byte) Game.Values.EMPTY.ordinal();
+
+    /**
+     * Bits of free neighbour masks, one per side of a cell.
+     */
+    public static final int UP = 1;
+    public static final int DOWN = 2;
+    public static final int LEFT = 4;
+    public static final int RIGHT = 8;
+
+    /**
+     * Cells are grouped into chunks of <code>1 << CHUNK_BITS</code> consecutive linear indexes to track changes.
+     */
+    public static final int CHUNK_BITS = 6;
+
+    /**
+     * Boards with more cells are created sparse by <code>create</code>.
+     */
+    public static final int SPARSE_CELLS = 1 << 24;
+
+    /**
+     * Largest number of cells of a sparse board, chunk numbers stay int.
+     */
+    public static final long MAX_CELLS = (long) Integer.MAX_VALUE << CHUNK_BITS;
+
+    /**
+     * Sparse boards are stored in tiles of <code>1 << TILE_BITS</code> by <code>1 << TILE_BITS</code> cells.
+     */
+    public static final int TILE_BITS = 6;
+    private static final int TILE = 1 << TILE_BITS;
+    private static final int SAMPLES = 64;
+
+    private final int width;
+    private final int height;
+    private final long size;
+    private final byte[] cells;
+    private final int[] free;
+    private final int[] freePositions;
+    private final LongMap<Tile> tiles;
+    private final int tileColumns;
+    private long freeCount;
+
+    private byte[] freeMasks;
+
+    private long[] cluster;
+    private long[] frontier = null;
+    private long key = 0;
+    private long[] log = null;
+    private int logCount = 0;
+    private long[] visited;
+    private int epoch = 0;
+
+    private Changes[] trackers = new Changes[0];
+    private Components components = null;
+    private GameEvents events = null;
+
+    /**
+     * Tile of a sparse board.
+     */
+    private static final class Tile {
+        private final byte[] cells = new byte[TILE * TILE];
+        private int occupied = 0;
+        private int[] visited = null;
+    }
+
+    /**
+     * Chunks changed since their consumer last cleared them, in the order they were first changed. Every consumer of
+     * changes (see <code>Snapshot</code>) gets its own, so consumers don't clear changes for each other. Bits of
+     * changed chunks are kept in pages allocated by the first change in them and the list of changed chunks grows
+     * with it, so changes of a sparse board cost memory only where it changed.
+     */
+    public static final class Changes {
+        private static final int PAGE_BITS = 12;
+
+        private final int chunkCount;
+        private final long[][] pages;
+        private int[] chunks = new int[64];
+        private int count = 0;
+
+        private Changes(int chunkCount) {
+            this.chunkCount = chunkCount;
+            pages = new long[(int) (((long) chunkCount + (64 << PAGE_BITS) - 1) >>> (6 + PAGE_BITS))][];
+        }
+
+        private void mark(int chunk) {
+            long[] page = pages[chunk >>> (6 + PAGE_BITS)];
+            if (page == null) {
+                page = new long[1 << PAGE_BITS];
+                pages[chunk >>> (6 + PAGE_BITS)] = page;
+            }
+            int word = (chunk >>> 6) & ((1 << PAGE_BITS) - 1);
+            long bit = 1L << chunk;
+            if ((page[word] & bit) == 0) {
+                page[word] |= bit;
+                if (count == chunks.length) {
+                    chunks = Arrays.copyOf(chunks, count * 2);
+                }
+                chunks[count++] = chunk;
+            }
+        }
+
+        /**
+         * Marks every chunk as changed.
+         */
+        public void markAll() {
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                mark(chunk);
+            }
+        }
+
+        /**
+         * Gets the number of changed chunks.
+         * @return number of changed chunks
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Gets changed chunks, only the first <code>size</code> entries are valid.
+         * @return shared array of chunk numbers
+         */
+        public int[] getChunks() {
+            return chunks;
+        }
+
+        /**
+         * Forgets all changed chunks.
+         */
+        public void clear() {
+            for (int i = 0; i < count; i++) {
+                pages[chunks[i] >>> (6 + PAGE_BITS)][(chunks[i] >>> 6) & ((1 << PAGE_BITS) - 1)] = 0;
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * Class constructor specifying number of columns and rows, all cells are empty.
+     * @param width number of columns
+     * @param height number of rows
+     */
+    public Board(int width, int height) {
+        this(width, height, null, false);
+    }
+
+    /**
+     * Class constructor specifying number of columns and rows and codes of all cells, free cells are indexed in a
+     * single pass without clearing the board first.
+     * @param width number of columns
+     * @param height number of rows
+     * @param codes one byte per cell in the order of linear indexes, null for an empty board
+     * @param sparse true to store the board in tiles, it has to be empty
+     */
+    private Board(int width, int height, ByteBuffer codes, boolean sparse) {
+        long total = (long) width * height;
+        if (width <= 0 || height <= 0 || total > (sparse ? MAX_CELLS : Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException("Unsupported board size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.size = total;
+        this.tileColumns = (width + TILE - 1) >>> TILE_BITS;
+        if (sparse) {
+            cells = null;
+            free = null;
+            freePositions = null;
+            tiles = new LongMap<>();
+            freeCount = size;
+            return;
+        }
+        this.tiles = null;
+        this.cells = new byte[(int) size];
+        this.free = new int[cells.length];
+        this.freePositions = new int[cells.length];
+        if (codes == null) {
+            for (int i = 0; i < cells.length; i++) {
+                free[i] = i;
+                freePositions[i] = i;
+            }
+            freeCount = cells.length;
+            return;
+        }
+
+        codes.get(cells);
+        int count = 0;
+        int invalid = 0;
+        for (int i = 0; i < cells.length; i++) {
+            int code = cells[i];
+            invalid |= code | (values.length - 1 - code);
+            boolean empty = code == EMPTY;
+            free[count] = i;
+            freePositions[i] = empty ? count : -1;
+            count += empty ? 1 : 0;
+        }
+        freeCount = count;
+        if (invalid < 0) {
+            throw new IllegalArgumentException("Unknown values of cells");
+        }
+        for (int i = 0; i < cells.length; i++) {
+            key ^= cellKey(i, cells[i]);
+        }
+    }
+
+    /**
+     * Creates a board from codes written by <code>writeCells</code>.
+     * @param width number of columns
+     * @param height number of rows
+     * @param in buffer with at least <code>width * height</code> bytes remaining
+     * @return new board
+     */
+    public static Board readCells(int width, int height, ByteBuffer in) {
+        return new Board(width, height, in, false);
+    }
+
+    /**
+     * Creates an empty board stored in tiles, whatever its size is.
+     * @param width number of columns
+     * @param height number of rows
+     * @return new sparse board
+     */
+    public static Board sparse(int width, int height) {
+        return new Board(width, height, null, true);
+    }
+
+    /**
+     * Creates an empty board, sparse if it has more than <code>SPARSE_CELLS</code> cells.
+     * @param width number of columns
+     * @param height number of rows
+     * @return new board
+     */
+    public static Board create(int width, int height) {
+        return (long) width * height > SPARSE_CELLS ? sparse(width, height) : new Board(width, height);
+    }
+
+    /**
+     * Checks if this board is stored in tiles.
+     * @return true if the board is sparse
+     */
+    public boolean isSparse() {
+        return tiles != null;
+    }
+
+    /**
+     * Gets the number of columns.
+     * @return number of columns
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the number of rows.
+     * @return number of rows
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the total number of cells.
+     * @return number of cells
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of cells holding a value other than <code>Values.EMPTY</code>.
+     * @return number of occupied cells
+     */
+    public long getOccupied() {
+        return size - freeCount;
+    }
+
+    /**
+     * Converts coordinates to a linear index.
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return linear index of the cell
+     */
+    public long index(int x, int y) {
+        return (long) y * width + x;
+    }
+
+    /**
+     * Gets the x coordinate of a cell.
+     * @param index linear index of the cell
+     * @return x coordinate
+     */
+    public int getX(long index) {
+        return (int) (index % width);
+    }
+
+    /**
+     * Gets the y coordinate of a cell.
+     * @param index linear index of the cell
+     * @return y coordinate
+     */
+    public int getY(long index) {
+        return (int) (index / width);
+    }
+
+    /**
+     * Checks if coordinates lie on this board.
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return true if the cell exists
+     */
+    public boolean contains(int x, int y) {
+        return 0 <= x && 0 <= y && x < width && y < height;
+    }
+
+    /**
+     * Gets the raw code (<code>Values</code> ordinal) of a cell.
+     * @param index linear index of the cell
+     * @return code of the cell's value
+     */
+    public byte code(long index) {
+        if (cells != null) {
+            return cells[(int) index];
+        }
+        int x = (int) (index % width);
+        int y = (int) (index / width);
+        Tile tile = tiles.get(tileKey(x, y));
+        return tile == null ? EMPTY : tile.cells[offset(x, y)];
+    }
+
+    private long tileKey(int x, int y) {
+        return (long) (y >>> TILE_BITS) * tileColumns + (x >>> TILE_BITS);
+    }
+
+    private static int offset(int x, int y) {
+        return (y & (TILE - 1)) << TILE_BITS | (x & (TILE - 1));
+    }
+
+    /**
+     * Gets the value of a cell.
+     * @param index linear index of the cell
+     * @return value of the cell
+     */
+    public Game.Values get(long index) {
+        return values[code(index)];
+    }
+
+    /**
+     * Checks if a cell holds a value other than <code>Values.EMPTY</code>.
+     * @param index linear index of the cell
+     * @return true if the cell is occupied
+     */
+    public boolean isOccupied(long index) {
+        return code(index) != EMPTY;
+    }
+
+    /**
+     * Sets the value of a cell and adjusts the number of occupied cells accordingly, null is treated as
+     * <code>Values.EMPTY</code>.
+     * @param index linear index of the cell
+     * @param value newly assigned value
+     */
+    public void set(long index, Game.Values value) {
+        byte code = value == null ? EMPTY : (byte) value.ordinal();
+        if (tiles != null) {
+            byte old = store(index, code);
+            if (old != code) {
+                record(index, old, code);
+                markChanged(index);
+                if (components != null) {
+                    components.changed(index, old, code);
+                }
+                if (events != null) {
+                    events.cell(index, old, code);
+                }
+            }
+            return;
+        }
+        int i = (int) index;
+        byte old = cells[i];
+        if (old == code) {
+            return;
+        }
+        if (old == EMPTY) {
+            removeFree(i);
+            updateNeighbourMasks(i, false);
+        }
+        else if (code == EMPTY) {
+            addFree(i);
+            updateNeighbourMasks(i, true);
+        }
+        cells[i] = code;
+        record(index, old, code);
+        markChanged(index);
+        if (components != null) {
+            components.changed(i, old, code);
+        }
+        if (events != null) {
+            events.cell(index, old, code);
+        }
+    }
+
+    /**
+     * Writes the code of a cell of a sparse board, allocating or releasing its tile.
+     * @return previous code of the cell
+     */
+    private byte store(long index, byte code) {
+        int x = (int) (index % width);
+        int y = (int) (index / width);
+        long key = tileKey(x, y);
+        Tile tile = tiles.get(key);
+        int offset = offset(x, y);
+        byte old = tile == null ? EMPTY : tile.cells[offset];
+        if (old == code) {
+            return old;
+        }
+        if (tile == null) {
+            tile = new Tile();
+            tiles.put(key, tile);
+        }
+        tile.cells[offset] = code;
+        frontier = null;
+        if (old == EMPTY) {
+            tile.occupied++;
+            freeCount--;
+        }
+        else if (code == EMPTY) {
+            freeCount++;
+            if (--tile.occupied == 0) {
+                tiles.remove(key);
+            }
+        }
+        return old;
+    }
+
+    /**
+     * Gets the number of free cells.
+     * @return number of cells holding <code>Values.EMPTY</code>
+     */
+    public long getFreeCount() {
+        return freeCount;
+    }
+
+    /**
+     * Gets the number of candidates for a placement. They are all free cells of a dense board and the free cells
+     * touching an occupied one on a sparse board, the rest of which is too vast to list and where nothing can merge.
+     * @return number of candidates, 0 for a sparse board with no occupied cell
+     */
+    public int getCandidateCount() {
+        return free != null ? (int) freeCount : frontier().length;
+    }
+
+    /**
+     * Gets a candidate for a placement, candidates are in no particular order which changes with the board.
+     * @param k number of the candidate, less than <code>getCandidateCount()</code>
+     * @return linear index of a free cell
+     */
+    public long getCandidate(int k) {
+        return free != null ? free[k] : frontier()[k];
+    }
+
+    /**
+     * Gets the frontier of a sparse board, computed once for every state of the board.
+     */
+    private long[] frontier() {
+        if (frontier == null) {
+            frontier = getFrontier();
+        }
+        return frontier;
+    }
+
+    /**
+     * Picks a free cell, every free cell has the same chance of being picked. It takes a single draw, a sparse board
+     * draws cells of the whole board until one is free; when too many were occupied it draws the rank of the picked
+     * cell among all free cells and counts free cells through its occupied chunks, every other chunk is all free.
+     * @param random random generator used for the draws
+     * @return linear index of the picked cell, -1 if the board is full
+     */
+    public long randomFree(Random random) {
+        if (freeCount == 0) {
+            return -1;
+        }
+        if (free != null) {
+            return free[random.nextInt((int) freeCount)];
+        }
+        for (int k = 0; k < SAMPLES; k++) {
+            long index = size <= Integer.MAX_VALUE ? random.nextInt((int) size) : random.nextLong(size);
+            if (!isOccupied(index)) {
+                return index;
+            }
+        }
+        long rank = random.nextLong(freeCount);
+        long unscanned = 0;
+        byte[] codes = new byte[1 << CHUNK_BITS];
+        for (int chunk : getOccupiedChunks()) {
+            long from = (long) chunk << CHUNK_BITS;
+            if (rank < from - unscanned) {
+                return unscanned + rank;
+            }
+            rank -= from - unscanned;
+            readChunk(chunk, codes);
+            int n = (int) Math.min(1 << CHUNK_BITS, size - from);
+            for (int k = 0; k < n; k++) {
+                if (codes[k] == EMPTY && rank-- == 0) {
+                    return from + k;
+                }
+            }
+            unscanned = from + n;
+        }
+        return unscanned + rank;
+    }
+
+    /**
+     * Gets free cells touching an occupied cell, the only free cells where a placement can merge. The board is
+     * scanned once, a sparse board only in its tiles.
+     * @return new array of linear indexes in increasing order
+     */
+    public long[] getFrontier() {
+        long[] found = new long[64];
+        int n = 0;
+        if (tiles == null) {
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] == EMPTY && touchesOccupied(i)) {
+                    if (n == found.length) {
+                        found = Arrays.copyOf(found, n * 2);
+                    }
+                    found[n++] = i;
+                }
+            }
+            return Arrays.copyOf(found, n);
+        }
+        for (int slot = 0; slot < tiles.capacity(); slot++) {
+            Tile tile = tiles.valueAt(slot);
+            if (tile == null) {
+                continue;
+            }
+            long key = tiles.keyAt(slot);
+            int left = (int) (key % tileColumns) << TILE_BITS;
+            int top = (int) (key / tileColumns) << TILE_BITS;
+            for (int offset = 0; offset < tile.cells.length; offset++) {
+                if (tile.cells[offset] == EMPTY) {
+                    continue;
+                }
+                int x = left + (offset & (TILE - 1));
+                int y = top + (offset >>> TILE_BITS);
+                long index = (long) y * width + x;
+                long[] around = {y > 0 ? index - width : -1, y < height - 1 ? index + width : -1,
+                        x > 0 ? index - 1 : -1, x < width - 1 ? index + 1 : -1};
+                for (long neighbour : around) {
+                    if (neighbour >= 0 && !isOccupied(neighbour)) {
+                        if (n == found.length) {
+                            found = Arrays.copyOf(found, n * 2);
+                        }
+                        found[n++] = neighbour;
+                    }
+                }
+            }
+        }
+        Arrays.sort(found, 0, n);
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique == 0 || found[unique - 1] != found[i]) {
+                found[unique++] = found[i];
+            }
+        }
+        return Arrays.copyOf(found, unique);
+    }
+
+    private boolean touchesOccupied(int index) {
+        int x = index % width;
+        return index >= width && isOccupied(index - width) || index + width < cells.length && isOccupied(index + width)
+                || x > 0 && isOccupied(index - 1) || x < width - 1 && isOccupied(index + 1);
+    }
+
+    private void removeFree(int index) {
+        int position = freePositions[index];
+        int last = free[(int) --freeCount];
+        free[position] = last;
+        freePositions[last] = position;
+        freePositions[index] = -1;
+    }
+
+    private void addFree(int index) {
+        free[(int) freeCount] = index;
+        freePositions[index] = (int) freeCount++;
+    }
+
+    /**
+     * Moves the value of an occupied cell to a free cell, the origin becomes empty. The origin takes the place of the
+     * target in the free cells.
+     * @param from linear index of an occupied cell
+     * @param to linear index of a free cell
+     */
+    public void move(long from, long to) {
+        moveUntracked(from, to);
+        record(from, code(to), EMPTY);
+        record(to, EMPTY, code(to));
+        markChanged(from);
+        markChanged(to);
+        if (events != null) {
+            events.cell(from, code(to), EMPTY);
+            events.cell(to, EMPTY, code(to));
+        }
+    }
+
+    /**
+     * Makes every change of a cell written into an event stream.
+     * @param events stream of the game, null to stop writing
+     */
+    void setEvents(GameEvents events) {
+        this.events = events;
+    }
+
+    /**
+     * Gets the event stream changes of cells are written into.
+     * @return stream of the game, null if changes are not written
+     */
+    GameEvents getEvents() {
+        return events;
+    }
+
+    /**
+     * Moves a value like <code>move</code> but leaves changed chunks unmarked, so moves of cells far enough apart can
+     * run on different threads (see <code>Bees</code>). The caller marks both cells with <code>markChanged</code>,
+     * passes them to <code>record</code> and writes their events afterwards.
+     * @param from linear index of an occupied cell
+     * @param to linear index of a free cell
+     */
+    void moveUntracked(long from, long to) {
+        if (tiles != null) {
+            byte code = store(from, EMPTY);
+            store(to, code);
+            if (components != null && code != (byte) Game.Values.DANGER.ordinal()) {
+                components.changed(from, code, EMPTY);
+                components.changed(to, EMPTY, code);
+            }
+            return;
+        }
+        int origin = (int) from;
+        int target = (int) to;
+        int position = freePositions[target];
+        free[position] = origin;
+        freePositions[origin] = position;
+        freePositions[target] = -1;
+        byte code = cells[origin];
+        cells[target] = code;
+        cells[origin] = EMPTY;
+        updateNeighbourMasks(target, false);
+        updateNeighbourMasks(origin, true);
+        if (components != null && code != (byte) Game.Values.DANGER.ordinal()) {
+            components.changed(origin, code, EMPTY);
+            components.changed(target, EMPTY, code);
+        }
+    }
+
+    /**
+     * Gets the mask of free neighbours of a cell, made of <code>UP</code>, <code>DOWN</code>, <code>LEFT</code> and
+     * <code>RIGHT</code> bits. Masks are built on the first call and then kept up to date by every change of the board.
+     * @param index linear index of the cell
+     * @return mask of free neighbours
+     */
+    public int freeNeighbours(long index) {
+        if (tiles != null) {
+            int x = (int) (index % width);
+            return (index >= width && !isOccupied(index - width) ? UP : 0)
+                    | (index + width < size && !isOccupied(index + width) ? DOWN : 0)
+                    | (x > 0 && !isOccupied(index - 1) ? LEFT : 0)
+                    | (x < width - 1 && !isOccupied(index + 1) ? RIGHT : 0);
+        }
+        if (freeMasks == null) {
+            freeMasks = new byte[cells.length];
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] == EMPTY) {
+                    updateNeighbourMasks(i, true);
+                }
+            }
+        }
+        return freeMasks[(int) index];
+    }
+
+    /**
+     * Gets the neighbour of a cell in the direction of a mask bit.
+     * @param index linear index of the cell
+     * @param side one of <code>UP</code>, <code>DOWN</code>, <code>LEFT</code> and <code>RIGHT</code>
+     * @return linear index of the neighbour
+     */
+    public long neighbour(long index, int side) {
+        switch (side) {
+            case UP:
+                return index - width;
+            case DOWN:
+                return index + width;
+            case LEFT:
+                return index - 1;
+            default:
+                return index + 1;
+        }
+    }
+
+    /**
+     * Counts neighbours of a cell holding the given value.
+     * @param index linear index of the cell
+     * @param value counted value
+     * @return number of neighbours with the value, at most 4
+     */
+    public int countNeighbours(long index, Game.Values value) {
+        byte code = (byte) value.ordinal();
+        int x = (int) (index % width);
+        int count = 0;
+        if (index >= width && code(index - width) == code) {
+            count++;
+        }
+        if (index + width < size && code(index + width) == code) {
+            count++;
+        }
+        if (x > 0 && code(index - 1) == code) {
+            count++;
+        }
+        if (x < width - 1 && code(index + 1) == code) {
+            count++;
+        }
+        return count;
+    }
+
+    private void updateNeighbourMasks(int index, boolean free) {
+        if (freeMasks == null) {
+            return;
+        }
+        int x = index % width;
+        if (index >= width) {
+            updateMask(index - width, DOWN, free);
+        }
+        if (index + width < cells.length) {
+            updateMask(index + width, UP, free);
+        }
+        if (x > 0) {
+            updateMask(index - 1, RIGHT, free);
+        }
+        if (x < width - 1) {
+            updateMask(index + 1, LEFT, free);
+        }
+    }
+
+    private void updateMask(int index, int side, boolean free) {
+        freeMasks[index] = (byte) (free ? freeMasks[index] | side : freeMasks[index] & ~side);
+    }
+
+    /**
+     * Copies all cells of another board of the same size into this one, a board stored differently is copied cell by
+     * cell.
+     * @param other copied board
+     */
+    public void copyFrom(Board other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("Boards differ in size");
+        }
+        if (events != null && isSparse() == other.isSparse()) {
+            writeCopyEvents(other);
+        }
+        if (isSparse() != other.isSparse()) {
+            for (long i = 0; i < size; i++) {
+                if (code(i) != other.code(i)) {
+                    set(i, other.get(i));
+                }
+            }
+            logCount = 0;
+            return;
+        }
+        if (tiles != null) {
+            markOccupiedChunks();
+            tiles.clear();
+            for (int slot = 0; slot < other.tiles.capacity(); slot++) {
+                Tile tile = other.tiles.valueAt(slot);
+                if (tile != null) {
+                    Tile copy = new Tile();
+                    System.arraycopy(tile.cells, 0, copy.cells, 0, copy.cells.length);
+                    copy.occupied = tile.occupied;
+                    tiles.put(other.tiles.keyAt(slot), copy);
+                }
+            }
+            freeCount = other.freeCount;
+            key = other.key;
+            logCount = 0;
+            frontier = null;
+            markOccupiedChunks();
+            if (components != null) {
+                components.rebuild();
+            }
+            return;
+        }
+        System.arraycopy(other.cells, 0, cells, 0, cells.length);
+        System.arraycopy(other.free, 0, free, 0, (int) other.freeCount);
+        System.arraycopy(other.freePositions, 0, freePositions, 0, cells.length);
+        freeCount = other.freeCount;
+        key = other.key;
+        logCount = 0;
+        if (other.freeMasks == null) {
+            freeMasks = null;
+        }
+        else {
+            if (freeMasks == null) {
+                freeMasks = new byte[cells.length];
+            }
+            System.arraycopy(other.freeMasks, 0, freeMasks, 0, cells.length);
+        }
+        for (Changes changes : trackers) {
+            changes.markAll();
+        }
+        if (components != null) {
+            components.rebuild();
+        }
+    }
+
+    /**
+     * Writes events of the cells another board stored the same way holds differently, sparse boards compare only the
+     * chunks occupied on either board.
+     */
+    private void writeCopyEvents(Board other) {
+        if (tiles == null) {
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] != other.cells[i]) {
+                    events.cell(i, cells[i], other.cells[i]);
+                }
+            }
+            return;
+        }
+        int[] mine = getOccupiedChunks();
+        int[] theirs = other.getOccupiedChunks();
+        byte[] before = new byte[1 << CHUNK_BITS];
+        byte[] after = new byte[1 << CHUNK_BITS];
+        for (int i = 0, j = 0; i < mine.length || j < theirs.length; ) {
+            int chunk = j == theirs.length || i < mine.length && mine[i] < theirs[j] ? mine[i] : theirs[j];
+            if (i < mine.length && mine[i] == chunk) {
+                i++;
+            }
+            if (j < theirs.length && theirs[j] == chunk) {
+                j++;
+            }
+            readChunk(chunk, before);
+            other.readChunk(chunk, after);
+            for (int k = 0; k < before.length; k++) {
+                if (before[k] != after[k]) {
+                    events.cell(((long) chunk << CHUNK_BITS) + k, before[k], after[k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts tracking changed chunks for a new consumer. Every change of a cell marks its chunk until the consumer
+     * clears them, which lets snapshots copy only the chunks a move touched.
+     * @return changes seen by the consumer
+     */
+    public Changes trackChanges() {
+        Changes changes = new Changes(getChunkCount());
+        trackers = Arrays.copyOf(trackers, trackers.length + 1);
+        trackers[trackers.length - 1] = changes;
+        return changes;
+    }
+
+    private void markOccupiedChunks() {
+        if (trackers.length > 0) {
+            for (int chunk : getOccupiedChunks()) {
+                markChanged((long) chunk << CHUNK_BITS);
+            }
+        }
+    }
+
+    /**
+     * Gets the chunks which may hold an occupied cell, every other chunk is empty. A dense board checks every chunk,
+     * a sparse one lists the chunks crossing its tiles.
+     * @return new array of chunk numbers in increasing order
+     */
+    public int[] getOccupiedChunks() {
+        int[] found = new int[64];
+        int n = 0;
+        if (tiles == null) {
+            byte[] chunk = new byte[1 << CHUNK_BITS];
+            for (int c = 0; c < getChunkCount(); c++) {
+                readChunk(c, chunk);
+                boolean empty = true;
+                for (byte code : chunk) {
+                    empty &= code == EMPTY;
+                }
+                if (!empty) {
+                    if (n == found.length) {
+                        found = Arrays.copyOf(found, n * 2);
+                    }
+                    found[n++] = c;
+                }
+            }
+            return Arrays.copyOf(found, n);
+        }
+        for (int slot = 0; slot < tiles.capacity(); slot++) {
+            if (tiles.valueAt(slot) == null) {
+                continue;
+            }
+            long key = tiles.keyAt(slot);
+            int left = (int) (key % tileColumns) << TILE_BITS;
+            int top = (int) (key / tileColumns) << TILE_BITS;
+            int right = Math.min(width, left + TILE) - 1;
+            for (int y = top; y < Math.min(height, top + TILE); y++) {
+                long row = (long) y * width;
+                for (int c = (int) ((row + left) >>> CHUNK_BITS); c <= (int) ((row + right) >>> CHUNK_BITS); c++) {
+                    if (n == found.length) {
+                        found = Arrays.copyOf(found, n * 2);
+                    }
+                    found[n++] = c;
+                }
+            }
+        }
+        Arrays.sort(found, 0, n);
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique == 0 || found[unique - 1] != found[i]) {
+                found[unique++] = found[i];
+            }
+        }
+        return Arrays.copyOf(found, unique);
+    }
+
+    /**
+     * Gets the Zobrist key of all cells, kept up to date by every change of the board. Every occupied cell xors in a
+     * key of its index and code, so two boards holding the same cells have the same key.
+     * @return 64-bit key
+     */
+    long getKey() {
+        return key;
+    }
+
+    private static long cellKey(long index, byte code) {
+        return code == EMPTY ? 0 : Game.mix((index << 3 | code) + 0x1000L);
+    }
+
+    /**
+     * Applies a change of a cell to the key and logs it for <code>undo</code>, moves which left it out are recorded
+     * by their caller.
+     * @param index linear index of the cell
+     * @param old previous code of the cell
+     * @param code new code of the cell
+     */
+    void record(long index, byte old, byte code) {
+        key ^= cellKey(index, old) ^ cellKey(index, code);
+        if (log != null) {
+            if (logCount == log.length) {
+                log = Arrays.copyOf(log, logCount * 2);
+            }
+            log[logCount++] = index << 8 | old;
+        }
+    }
+
+    /**
+     * Marks the current state of the board to return to by <code>undo</code>, the first call starts logging every
+     * change of a cell. Copying another board clears the log.
+     * @return mark of the current state
+     */
+    int mark() {
+        if (log == null) {
+            log = new long[64];
+            logCount = 0;
+        }
+        return logCount;
+    }
+
+    /**
+     * Returns the board to a marked state by setting the logged cells back in reverse order, changes after the mark
+     * are dropped from the log. Free cells may be listed in another order than they were at the mark.
+     * @param mark mark taken by <code>mark</code> since the board was last copied
+     */
+    void undo(int mark) {
+        long[] changes = log;
+        log = null;
+        while (logCount > mark) {
+            long change = changes[--logCount];
+            set(change >>> 8, values[(int) (change & 0xFF)]);
+        }
+        log = changes;
+    }
+
+    /**
+     * Gets the index of components of this board, it is built on the first call and then kept up to date by every
+     * change of the board.
+     * @return components of this board
+     */
+    public Components indexComponents() {
+        if (components == null) {
+            components = new Components(this);
+        }
+        return components;
+    }
+
+    /**
+     * Gets the number of chunks, the last one may be shorter.
+     * @return number of chunks
+     */
+    public int getChunkCount() {
+        return (int) ((size + (1 << CHUNK_BITS) - 1) >>> CHUNK_BITS);
+    }
+
+    /**
+     * Marks the chunk of a cell as changed for every consumer of changes.
+     * @param index linear index of the changed cell
+     */
+    void markChanged(long index) {
+        for (Changes changes : trackers) {
+            changes.mark((int) (index >>> CHUNK_BITS));
+        }
+    }
+
+    /**
+     * Writes codes of all cells, one byte per cell in the order of linear indexes. A sparse board is written chunk by
+     * chunk.
+     * @param out buffer with at least <code>size</code> bytes remaining
+     */
+    public void writeCells(ByteBuffer out) {
+        if (cells != null) {
+            out.put(cells);
+            return;
+        }
+        byte[] codes = new byte[1 << CHUNK_BITS];
+        for (int chunk = 0; chunk < getChunkCount(); chunk++) {
+            readChunk(chunk, codes);
+            out.put(codes, 0, (int) Math.min(codes.length, size - ((long) chunk << CHUNK_BITS)));
+        }
+    }
+
+    /**
+     * Copies codes of a chunk's cells, cells past the end of the board are copied as empty.
+     * @param chunk number of the chunk
+     * @param out array of at least <code>1 << CHUNK_BITS</code> codes
+     */
+    public void readChunk(int chunk, byte[] out) {
+        long from = (long) chunk << CHUNK_BITS;
+        int n = (int) Math.min(1 << CHUNK_BITS, size - from);
+        if (cells != null) {
+            System.arraycopy(cells, (int) from, out, 0, n);
+        }
+        else {
+            // a chunk may cross a row and a tile, every run of it inside one row of a tile is copied at once
+            for (int k = 0; k < n; ) {
+                int x = (int) ((from + k) % width);
+                int y = (int) ((from + k) / width);
+                int run = Math.min(n - k, Math.min(TILE - (x & (TILE - 1)), width - x));
+                Tile tile = tiles.get(tileKey(x, y));
+                if (tile == null) {
+                    Arrays.fill(out, k, k + run, EMPTY);
+                }
+                else {
+                    System.arraycopy(tile.cells, offset(x, y), out, k, run);
+                }
+                k += run;
+            }
+        }
+        Arrays.fill(out, n, 1 << CHUNK_BITS, EMPTY);
+    }
+
+    /**
+     * Collects the cluster of the cell -- all cells with the same value connected to it through their sides. The
+     * cells are stored in breadth-first order starting with the given cell and can be read by <code>getCluster</code>
+     * until the next call. Visited cells are marked in a bitset of one bit per cell, the cells collected are exactly
+     * the marked ones, so their bits are cleared again before returning; the collected cells are kept in an array
+     * growing with the biggest cluster.
+     * @param start linear index of the first cell
+     * @return number of cells in the cluster
+     */
+    public int collectCluster(long start) {
+        if (tiles != null) {
+            return collectSparseCluster(start);
+        }
+        if (cluster == null) {
+            cluster = new long[64];
+            visited = new long[(cells.length + 63) >>> 6];
+        }
+
+        byte code = cells[(int) start];
+        int size = 0;
+        cluster[size++] = start;
+        visited[(int) (start >>> 6)] |= 1L << start;
+
+        for (int i = 0; i < size; i++) {
+            int c = (int) cluster[i];
+            int x = c % width;
+            if (c >= width) {
+                size = visit(c - width, code, size);
+            }
+            if (c + width < cells.length) {
+                size = visit(c + width, code, size);
+            }
+            if (x > 0) {
+                size = visit(c - 1, code, size);
+            }
+            if (x < width - 1) {
+                size = visit(c + 1, code, size);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            visited[(int) (cluster[i] >>> 6)] = 0;
+        }
+        return size;
+    }
+
+    private int visit(int index, byte code, int size) {
+        if (cells[index] == code && (visited[index >>> 6] & 1L << index) == 0) {
+            visited[index >>> 6] |= 1L << index;
+            if (size == cluster.length) {
+                cluster = Arrays.copyOf(cluster, size * 2);
+            }
+            cluster[size++] = index;
+        }
+        return size;
+    }
+
+    /**
+     * Collects a cluster of a sparse board like <code>collectCluster</code>, the visited stamps are kept in tiles and
+     * the collected cells in an array growing with the biggest cluster.
+     */
+    private int collectSparseCluster(long start) {
+        byte code = code(start);
+        if (code == EMPTY) {
+            throw new IllegalArgumentException("Free cells of a sparse board form no cluster");
+        }
+        if (cluster == null) {
+            cluster = new long[64];
+        }
+        if (++epoch == 0) {
+            for (int slot = 0; slot < tiles.capacity(); slot++) {
+                Tile tile = tiles.valueAt(slot);
+                if (tile != null && tile.visited != null) {
+                    Arrays.fill(tile.visited, 0);
+                }
+            }
+            epoch = 1;
+        }
+
+        int size = visitSparse(start, code, 0);
+        for (int i = 0; i < size; i++) {
+            long c = cluster[i];
+            int x = (int) (c % width);
+            if (c >= width) {
+                size = visitSparse(c - width, code, size);
+            }
+            if (c + width < this.size) {
+                size = visitSparse(c + width, code, size);
+            }
+            if (x > 0) {
+                size = visitSparse(c - 1, code, size);
+            }
+            if (x < width - 1) {
+                size = visitSparse(c + 1, code, size);
+            }
+        }
+        return size;
+    }
+
+    private int visitSparse(long index, byte code, int size) {
+        int x = (int) (index % width);
+        int y = (int) (index / width);
+        Tile tile = tiles.get(tileKey(x, y));
+        int offset = offset(x, y);
+        if (tile == null || tile.cells[offset] != code) {
+            return size;
+        }
+        if (tile.visited == null) {
+            tile.visited = new int[TILE * TILE];
+        }
+        if (tile.visited[offset] == epoch) {
+            return size;
+        }
+        tile.visited[offset] = epoch;
+        if (size == cluster.length) {
+            cluster = Arrays.copyOf(cluster, size * 2);
+        }
+        cluster[size++] = index;
+        return size;
+    }
+
+    /**
+     * Gets cells collected by the last <code>collectCluster</code> call, only the first returned number of entries is
+     * valid.
+     * @return shared array of linear indexes
+     */
+    public long[] getCluster() {
+        return cluster;
+    }
+}
@@ -0,0 +1,380 @@
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+/**
+ * Draws snapshots of a board on a single canvas which only covers the visible part of it, so the number of nodes
+ * doesn't depend on the size of the board. The viewport is dragged with the mouse and zoomed with the wheel, a click
+ * is mapped to the clicked slot. Only cells in chunks a new snapshot doesn't share with the drawn one are drawn again,
+ * the whole viewport is drawn only after it moved. When cells get smaller than <code>DETAIL_CELL</code> pixels, the
+ * board is drawn from an overview image with one pixel per cell in the average colour of the cell's image. A sparse
+ * board gets no overview image, the visible part of it is sampled into an image of at most one pixel per pixel of the
+ * canvas whenever it is drawn. Free cells of a snapshot with a preview of placements are tinted by their points, in
+ * detail only.
+ * <p>
+ * Snapshots are drawn when they are given, once per frame; moving the viewport is coalesced into at most one pass per
+ * frame by a task of the frame scheduler, which a paint in the same frame drops.
+ */
+public class BoardCanvas extends Pane {
+    private static final double MIN_CELL = 0.25;
+    private static final double MAX_CELL = 128;
+    private static final double DETAIL_CELL = 8;
+    private static final double DRAG_THRESHOLD = 4;
+    private static final Color hintColor = Color.YELLOW;
+    private static final Color heatColor = Color.ORANGERED;
+    private static final Game.Values[] values = Game.Values.values();
+
+    private final int width;
+    private final int height;
+    private final Map<Game.Values, Image> images;
+    private final LongConsumer onChoose;
+    private final FrameScheduler scheduler;
+    private final Canvas canvas = new Canvas();
+    private final BitSet changed = new BitSet();
+    private final byte[] chunk = new byte[1 << Board.CHUNK_BITS];
+    private final WritableImage overview;
+    private WritableImage sampled = null;
+    private int[] samples = new int[0];
+    private final int[] colors = new int[values.length];
+    private Snapshot snapshot;
+
+    private double cell;
+    private double originX = 0;
+    private double originY = 0;
+    private boolean full = true;
+    private long hint = -1;
+    private int drawn = 0;
+
+    private double pressX;
+    private double pressY;
+    private boolean dragged;
+
+    /**
+     * Class constructor specifying the first drawn state.
+     * @param snapshot first drawn state of the board
+     * @param images image of every value, all of the same size
+     * @param onChoose called with the linear index of a clicked slot
+     * @param scheduler scheduler of the window drawing moves of the viewport
+     */
+    public BoardCanvas(Snapshot snapshot, Map<Game.Values, Image> images, LongConsumer onChoose,
+                       FrameScheduler scheduler) {
+        this.snapshot = snapshot;
+        this.scheduler = scheduler;
+        this.width = snapshot.getWidth();
+        this.height = snapshot.getHeight();
+        this.images = images;
+        this.onChoose = onChoose;
+
+        Image empty = images.get(Game.Values.EMPTY);
+        cell = empty != null && empty.getWidth() > 0 ? empty.getWidth() : 32;
+        for (Game.Values value : values) {
+            colors[value.ordinal()] = averageColor(images.get(value), value);
+        }
+        if (snapshot.isSparse()) {
+            overview = null;
+        }
+        else {
+            overview = new WritableImage(width, height);
+            int[] pixels = new int[(int) snapshot.size()];
+            for (int first = 0; first < pixels.length; first += chunk.length) {
+                snapshot.readChunk(first >>> Board.CHUNK_BITS, chunk);
+                for (int k = 0; k < chunk.length && first + k < pixels.length; k++) {
+                    pixels[first + k] = colors[chunk[k]];
+                }
+            }
+            overview.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0,
+                    width);
+        }
+
+        getChildren().add(canvas);
+        setPrefSize(Math.min(width * cell, 800), Math.min(height * cell, 800));
+        if (snapshot.isSparse()) {
+            // a sparse game starts in the centre of its board
+            originX = (width * cell - getPrefWidth()) / 2;
+            originY = (height * cell - getPrefHeight()) / 2;
+        }
+        setStyle("-fx-background-color: black;");
+        installHandlers();
+    }
+
+    private static int averageColor(Image image, Game.Values value) {
+        PixelReader reader = image == null ? null : image.getPixelReader();
+        if (reader == null) {
+            return switch (value) {
+                case EMPTY -> 0xff202020;
+                case DANGER -> 0xffe0c020;
+                default -> 0xff20a040 + 0x200000 * value.ordinal();
+            };
+        }
+        long r = 0;
+        long g = 0;
+        long b = 0;
+        int n = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int argb = reader.getArgb(x, y);
+                int alpha = argb >>> 24;
+                r += ((argb >> 16) & 0xff) * alpha;
+                g += ((argb >> 8) & 0xff) * alpha;
+                b += (argb & 0xff) * alpha;
+                n += 255;
+            }
+        }
+        return n == 0 ? 0xff000000 : 0xff000000 | (int) (r / n) << 16 | (int) (g / n) << 8 | (int) (b / n);
+    }
+
+    private void installHandlers() {
+        setOnMousePressed(e -> {
+            pressX = e.getX();
+            pressY = e.getY();
+            dragged = false;
+        });
+        setOnMouseDragged(e -> {
+            if (!dragged && Math.hypot(e.getX() - pressX, e.getY() - pressY) < DRAG_THRESHOLD) {
+                return;
+            }
+            dragged = true;
+            scrollTo(originX - (e.getX() - pressX), originY - (e.getY() - pressY));
+            pressX = e.getX();
+            pressY = e.getY();
+        });
+        setOnMouseClicked(e -> {
+            if (dragged || e.getButton() != MouseButton.PRIMARY) {
+                return;
+            }
+            long index = slotAt(e.getX(), e.getY());
+            if (index >= 0) {
+                onChoose.accept(index);
+            }
+        });
+        setOnScroll(e -> zoom(Math.pow(1.1, e.getDeltaY() / 40), e.getX(), e.getY()));
+    }
+
+    /**
+     * Maps a point of the canvas to the slot drawn there.
+     * @param x x coordinate in the canvas
+     * @param y y coordinate in the canvas
+     * @return linear index of the slot, -1 if the point lies outside of the board
+     */
+    public long slotAt(double x, double y) {
+        int column = (int) Math.floor((x + originX) / cell);
+        int row = (int) Math.floor((y + originY) / cell);
+        return 0 <= column && 0 <= row && column < width && row < height ? (long) row * width + column : -1;
+    }
+
+    /**
+     * Changes the size of cells keeping the given point of the canvas above the same place of the board.
+     * @param factor ratio of the new and the old size of cells
+     * @param x x coordinate of the fixed point in the canvas
+     * @param y y coordinate of the fixed point in the canvas
+     */
+    public void zoom(double factor, double x, double y) {
+        double zoomed = Math.max(MIN_CELL, Math.min(MAX_CELL, cell * factor));
+        double ratio = zoomed / cell;
+        cell = zoomed;
+        scrollTo((originX + x) * ratio - x, (originY + y) * ratio - y);
+    }
+
+    /**
+     * Moves the viewport, it is kept so that the board covers as much of it as possible.
+     * @param x x coordinate of the board pixel shown in the top left corner
+     * @param y y coordinate of the board pixel shown in the top left corner
+     */
+    public void scrollTo(double x, double y) {
+        originX = clamp(x, width * cell - canvas.getWidth());
+        originY = clamp(y, height * cell - canvas.getHeight());
+        full = true;
+        scheduler.after(this, 0, this::render);
+    }
+
+    private static double clamp(double origin, double max) {
+        return max <= 0 ? max / 2 : Math.max(0, Math.min(max, origin));
+    }
+
+    /**
+     * Highlights a slot recommending it and scrolls to it if it isn't visible.
+     * @param index linear index of the slot, -1 hides the highlight
+     */
+    public void setHint(long index) {
+        if (index == hint) {
+            return;
+        }
+        hint = index;
+        if (index >= 0) {
+            double x = index % width * cell - originX;
+            double y = index / width * cell - originY;
+            if (x < 0 || y < 0 || x + cell > canvas.getWidth() || y + cell > canvas.getHeight()) {
+                scrollTo(x + originX - canvas.getWidth() / 2, y + originY - canvas.getHeight() / 2);
+            }
+        }
+        full = true;
+        scheduler.after(this, 0, this::render);
+    }
+
+    /**
+     * Draws a newer state of the board, only chunks it doesn't share with the drawn state are drawn.
+     * @param next snapshot of the same chain as the drawn one
+     */
+    public void paint(Snapshot next) {
+        if (next != snapshot) {
+            next.forEachChangedChunk(snapshot, changed::set);
+            full |= next.getPlacements() != snapshot.getPlacements() && cell >= DETAIL_CELL;
+            snapshot = next;
+        }
+        scheduler.cancel(this);
+        render();
+    }
+
+    @Override
+    protected void layoutChildren() {
+        if (canvas.getWidth() != getWidth() || canvas.getHeight() != getHeight()) {
+            canvas.setWidth(getWidth());
+            canvas.setHeight(getHeight());
+            scrollTo(originX, originY);
+        }
+    }
+
+    private void render() {
+        Events.Paint event = new Events.Paint();
+        event.begin();
+        drawn = 0;
+        boolean dirty = !changed.isEmpty();
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        PixelWriter writer = overview == null ? null : overview.getPixelWriter();
+        for (int c = changed.nextSetBit(0); c >= 0; c = changed.nextSetBit(c + 1)) {
+            snapshot.readChunk(c, chunk);
+            long first = (long) c << Board.CHUNK_BITS;
+            int n = (int) Math.min(chunk.length, snapshot.size() - first);
+            for (int k = 0; k < n; k++) {
+                if (writer != null) {
+                    writer.setArgb((int) ((first + k) % width), (int) ((first + k) / width), colors[chunk[k]]);
+                }
+                if (!full && cell >= DETAIL_CELL) {
+                    drawCell(gc, first + k, chunk[k]);
+                }
+            }
+        }
+        changed.clear();
+
+        if (cell < DETAIL_CELL) {
+            if (full || dirty) {
+                drawOverview(gc);
+            }
+        }
+        else if (full) {
+            gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+            int left = Math.max(0, (int) Math.floor(originX / cell));
+            int top = Math.max(0, (int) Math.floor(originY / cell));
+            int right = Math.min(width, (int) Math.ceil((originX + canvas.getWidth()) / cell));
+            int bottom = Math.min(height, (int) Math.ceil((originY + canvas.getHeight()) / cell));
+            for (int y = top; y < bottom; y++) {
+                for (int x = left; x < right; x++) {
+                    long index = (long) y * width + x;
+                    drawCell(gc, index, snapshot.get(index).ordinal());
+                }
+            }
+        }
+        full = false;
+        event.target = "canvas";
+        event.nodes = drawn;
+        event.commit();
+    }
+
+    private void drawOverview(GraphicsContext gc) {
+        gc.setImageSmoothing(false);
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        double sx = Math.max(0, originX / cell);
+        double sy = Math.max(0, originY / cell);
+        double sw = Math.min(width - sx, canvas.getWidth() / cell);
+        double sh = Math.min(height - sy, canvas.getHeight() / cell);
+        if (overview != null) {
+            gc.drawImage(overview, sx, sy, sw, sh, sx * cell - originX, sy * cell - originY, sw * cell, sh * cell);
+        }
+        else if (sw > 0 && sh > 0) {
+            int iw = (int) Math.max(1, Math.min(Math.ceil(sw), canvas.getWidth()));
+            int ih = (int) Math.max(1, Math.min(Math.ceil(sh), canvas.getHeight()));
+            sample(sx, sy, sw, sh, iw, ih);
+            gc.drawImage(sampled, 0, 0, iw, ih, sx * cell - originX, sy * cell - originY, sw * cell, sh * cell);
+        }
+        drawn += (int) (Math.ceil(sw) * Math.ceil(sh));
+        if (hint >= 0) {
+            drawHint(gc);
+        }
+    }
+
+    /**
+     * Samples the centres of <code>iw</code> by <code>ih</code> cells evenly spread over a part of the board into the
+     * top left corner of the sampled image.
+     */
+    private void sample(double sx, double sy, double sw, double sh, int iw, int ih) {
+        if (sampled == null || sampled.getWidth() < iw || sampled.getHeight() < ih) {
+            sampled = new WritableImage(Math.max(iw, (int) canvas.getWidth()), Math.max(ih, (int) canvas.getHeight()));
+            samples = new int[(int) sampled.getWidth() * (int) sampled.getHeight()];
+        }
+        for (int j = 0; j < ih; j++) {
+            int y = Math.min(height - 1, (int) (sy + (j + 0.5) * sh / ih));
+            for (int i = 0; i < iw; i++) {
+                int x = Math.min(width - 1, (int) (sx + (i + 0.5) * sw / iw));
+                samples[j * iw + i] = colors[snapshot.get((long) y * width + x).ordinal()];
+            }
+        }
+        sampled.getPixelWriter().setPixels(0, 0, iw, ih, PixelFormat.getIntArgbInstance(), samples, 0, iw);
+    }
+
+    private void drawCell(GraphicsContext gc, long index, int code) {
+        double x = index % width * cell - originX;
+        double y = index / width * cell - originY;
+        if (x + cell <= 0 || y + cell <= 0 || x >= canvas.getWidth() || y >= canvas.getHeight()) {
+            return;
+        }
+        drawn++;
+        int color = colors[code];
+        Image image = images.get(values[code]);
+        gc.setFill(image != null ? Color.BLACK : Color.rgb((color >> 16) & 0xff, (color >> 8) & 0xff, color & 0xff));
+        gc.fillRect(x, y, cell, cell);
+        if (image != null) {
+            gc.drawImage(image, x, y, cell, cell);
+        }
+        Placements placements = snapshot.getPlacements();
+        if (placements != null && placements.getPoints(index) > 0) {
+            gc.setFill(heatColor(placements.getPoints(index), placements.getMaxPoints()));
+            gc.fillRect(x, y, cell, cell);
+        }
+        gc.setStroke(Color.WHITE);
+        gc.setLineWidth(1);
+        gc.strokeRect(x + 0.5, y + 0.5, cell - 1, cell - 1);
+        if (index == hint) {
+            drawHint(gc);
+        }
+    }
+
+    /**
+     * Gets the tint of a cell in the heatmap of placements, the more points the more opaque.
+     * @param points points of a placement into the cell
+     * @param maxPoints points of the best placement
+     * @return translucent colour
+     */
+    static Color heatColor(int points, int maxPoints) {
+        return heatColor.deriveColor(0, 1, 1, 0.2 + 0.5 * points / Math.max(1, maxPoints));
+    }
+
+    private void drawHint(GraphicsContext gc) {
+        double size = Math.max(cell, 6);
+        double x = hint % width * cell - originX + (cell - size) / 2;
+        double y = hint / width * cell - originY + (cell - size) / 2;
+        gc.setStroke(hintColor);
+        gc.setLineWidth(3);
+        gc.strokeRect(x + 1.5, y + 1.5, size - 3, size - 3);
+    }
+}
@@ -0,0 +1,379 @@
+import java.util.Arrays;
+
+/**
+ * Index of the components of a board -- cells with the same level connected through their sides -- kept in a
+ * disjoint-set forest with union by size and path halving. Empty and danger cells are never joined, each of them is
+ * a component of its own.
+ * <p>
+ * The board reports every change of a cell. A cell getting a level is joined with its neighbours of the same level
+ * right away. A cell losing its level can't be taken out of a disjoint set, so its component is only marked dirty;
+ * before the next query every dirty component is taken apart and its cells are joined again with their neighbours,
+ * so a removal costs a local rebuild of the one component it touched. Members of a component are linked in a circular
+ * list spliced by every union, which is what lets a dirty component be rebuilt without scanning the board.
+ * <p>
+ * A sparse board is indexed in blocks holding the cells of one of its tiles. A block is allocated by the first cell
+ * of its tile getting a level and released by the rebuild after its last levelled cell lost the level, a cell outside
+ * of blocks is a component of its own.
+ */
+public class Components {
+    private static final byte LEVEL = (byte) Game.Values.LVL1.ordinal();
+    private static final int TILE = 1 << Board.TILE_BITS;
+
+    private final Board board;
+    private final int width;
+    private final long size;
+    private final int[] parent;
+    private final int[] next;
+    private final int[] sizes;
+    private final boolean[] dirty;
+    private final LongMap<Block> blocks;
+    private final int tileColumns;
+    private long[] rebuilt = new long[64];
+    private long[] dirtyRoots = new long[16];
+    private int dirtyCount = 0;
+
+    /**
+     * Cells of one tile of a sparse board, set up as components of their own.
+     */
+    private static final class Block {
+        private final long[] parent = new long[TILE * TILE];
+        private final long[] next = new long[TILE * TILE];
+        private final int[] sizes = new int[TILE * TILE];
+        private final boolean[] dirty = new boolean[TILE * TILE];
+        private int levelled = 0;
+
+        private Block(long left, long top, int width) {
+            for (int offset = 0; offset < parent.length; offset++) {
+                long index = (top + (offset >>> Board.TILE_BITS)) * width + left + (offset & (TILE - 1));
+                parent[offset] = index;
+                next[offset] = index;
+                sizes[offset] = 1;
+            }
+        }
+    }
+
+    /**
+     * Class constructor indexing the current cells of a board.
+     * @param board indexed board, it has to report its changes by <code>changed</code>
+     */
+    Components(Board board) {
+        this.board = board;
+        width = board.getWidth();
+        size = board.size();
+        tileColumns = (width + TILE - 1) >>> Board.TILE_BITS;
+        if (board.isSparse()) {
+            parent = null;
+            next = null;
+            sizes = null;
+            dirty = null;
+            blocks = new LongMap<>();
+        }
+        else {
+            parent = new int[(int) size];
+            next = new int[(int) size];
+            sizes = new int[(int) size];
+            dirty = new boolean[(int) size];
+            blocks = null;
+        }
+        rebuild();
+    }
+
+    /**
+     * Indexes all cells again, used when the whole board was replaced. A sparse board is read only in the chunks
+     * which may hold an occupied cell.
+     */
+    void rebuild() {
+        dirtyCount = 0;
+        if (blocks != null) {
+            rebuildBlocks();
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            reset(i);
+        }
+        for (int i = 0; i < size; i++) {
+            byte code = board.code(i);
+            if (code >= LEVEL) {
+                joinForward(i, code);
+            }
+        }
+    }
+
+    private void rebuildBlocks() {
+        blocks.clear();
+        int[] chunks = board.getOccupiedChunks();
+        byte[] codes = new byte[1 << Board.CHUNK_BITS];
+        for (int c : chunks) {
+            board.readChunk(c, codes);
+            for (int k = 0; k < codes.length; k++) {
+                if (codes[k] >= LEVEL) {
+                    block(((long) c << Board.CHUNK_BITS) + k, true).levelled++;
+                }
+            }
+        }
+        for (int c : chunks) {
+            board.readChunk(c, codes);
+            for (int k = 0; k < codes.length; k++) {
+                if (codes[k] >= LEVEL) {
+                    joinForward(((long) c << Board.CHUNK_BITS) + k, codes[k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Joins a cell with its right and lower neighbour of the same level, a pass over all cells joins every pair once.
+     */
+    private void joinForward(long index, byte code) {
+        if (index % width < width - 1 && board.code(index + 1) == code) {
+            union(index, index + 1);
+        }
+        if (index + width < size && board.code(index + width) == code) {
+            union(index, index + width);
+        }
+    }
+
+    /**
+     * Updates the index after a cell changed, the cell already holds its new code.
+     * @param index linear index of the cell
+     * @param old previous code of the cell
+     * @param code new code of the cell
+     */
+    void changed(long index, byte old, byte code) {
+        if (blocks != null && (old >= LEVEL) != (code >= LEVEL)) {
+            block(index, true).levelled += code >= LEVEL ? 1 : -1;
+        }
+        if (old >= LEVEL) {
+            markDirty(find(index));
+        }
+        else if (code >= LEVEL) {
+            joinNeighbours(index, code);
+        }
+    }
+
+    /**
+     * Finds the representative cell of the component of a cell.
+     * @param index linear index of the cell
+     * @return linear index of the representative, the same for all cells of the component
+     */
+    public long root(long index) {
+        flush();
+        return find(index);
+    }
+
+    /**
+     * Gets the number of cells in the component of a cell.
+     * @param index linear index of the cell
+     * @return size of the component, 1 for an empty or a danger cell
+     */
+    public int sizeOf(long index) {
+        flush();
+        return sizeAt(find(index));
+    }
+
+    /**
+     * Finds the block of a cell of a sparse board.
+     * @param create true to allocate a missing block
+     * @return block of the cell, null if it has none and none was allocated
+     */
+    private Block block(long index, boolean create) {
+        int x = (int) (index % width);
+        int y = (int) (index / width);
+        long key = (long) (y >>> Board.TILE_BITS) * tileColumns + (x >>> Board.TILE_BITS);
+        Block block = blocks.get(key);
+        if (block == null && create) {
+            block = new Block(x & -TILE, y & -TILE, width);
+            blocks.put(key, block);
+        }
+        return block;
+    }
+
+    private int offset(long index) {
+        int x = (int) (index % width);
+        int y = (int) (index / width);
+        return (y & (TILE - 1)) << Board.TILE_BITS | (x & (TILE - 1));
+    }
+
+    private long parentOf(long index) {
+        if (blocks == null) {
+            return parent[(int) index];
+        }
+        Block block = block(index, false);
+        return block == null ? index : block.parent[offset(index)];
+    }
+
+    private void setParent(long index, long root) {
+        if (blocks == null) {
+            parent[(int) index] = (int) root;
+        }
+        else {
+            block(index, true).parent[offset(index)] = root;
+        }
+    }
+
+    private long nextOf(long index) {
+        if (blocks == null) {
+            return next[(int) index];
+        }
+        Block block = block(index, false);
+        return block == null ? index : block.next[offset(index)];
+    }
+
+    private void setNext(long index, long member) {
+        if (blocks == null) {
+            next[(int) index] = (int) member;
+        }
+        else {
+            block(index, true).next[offset(index)] = member;
+        }
+    }
+
+    private int sizeAt(long index) {
+        if (blocks == null) {
+            return sizes[(int) index];
+        }
+        Block block = block(index, false);
+        return block == null ? 1 : block.sizes[offset(index)];
+    }
+
+    private void setSize(long index, int size) {
+        if (blocks == null) {
+            sizes[(int) index] = size;
+        }
+        else {
+            block(index, true).sizes[offset(index)] = size;
+        }
+    }
+
+    private boolean isDirty(long index) {
+        if (blocks == null) {
+            return dirty[(int) index];
+        }
+        Block block = block(index, false);
+        return block != null && block.dirty[offset(index)];
+    }
+
+    private void setDirty(long index, boolean on) {
+        if (blocks == null) {
+            dirty[(int) index] = on;
+        }
+        else {
+            block(index, true).dirty[offset(index)] = on;
+        }
+    }
+
+    private void reset(long index) {
+        if (blocks != null && block(index, false) == null) {
+            return;
+        }
+        setParent(index, index);
+        setNext(index, index);
+        setSize(index, 1);
+        setDirty(index, false);
+    }
+
+    private long find(long index) {
+        long up;
+        while ((up = parentOf(index)) != index) {
+            long grandparent = parentOf(up);
+            setParent(index, grandparent);
+            index = grandparent;
+        }
+        return index;
+    }
+
+    private void union(long a, long b) {
+        long ra = find(a);
+        long rb = find(b);
+        if (ra == rb) {
+            return;
+        }
+        if (sizeAt(ra) < sizeAt(rb)) {
+            long t = ra;
+            ra = rb;
+            rb = t;
+        }
+        setParent(rb, ra);
+        setSize(ra, sizeAt(ra) + sizeAt(rb));
+        long t = nextOf(ra);
+        setNext(ra, nextOf(rb));
+        setNext(rb, t);
+        if (isDirty(rb)) {
+            markDirty(ra);
+        }
+    }
+
+    private void joinNeighbours(long index, byte code) {
+        int x = (int) (index % width);
+        if (index >= width && board.code(index - width) == code) {
+            union(index, index - width);
+        }
+        if (index + width < size && board.code(index + width) == code) {
+            union(index, index + width);
+        }
+        if (x > 0 && board.code(index - 1) == code) {
+            union(index, index - 1);
+        }
+        if (x < width - 1 && board.code(index + 1) == code) {
+            union(index, index + 1);
+        }
+    }
+
+    private void markDirty(long root) {
+        if (isDirty(root)) {
+            return;
+        }
+        setDirty(root, true);
+        if (dirtyCount == dirtyRoots.length) {
+            dirtyRoots = Arrays.copyOf(dirtyRoots, dirtyCount * 2);
+        }
+        dirtyRoots[dirtyCount++] = root;
+    }
+
+    /**
+     * Takes apart every dirty component and joins its cells again. A root marked dirty which was joined into another
+     * component since then is skipped, the component it is in is dirty too. Blocks left without a levelled cell are
+     * released afterwards, all their cells are components of their own again.
+     */
+    private void flush() {
+        if (dirtyCount == 0) {
+            return;
+        }
+        int n = 0;
+        for (int k = 0; k < dirtyCount; k++) {
+            long root = dirtyRoots[k];
+            if (parentOf(root) != root || !isDirty(root)) {
+                continue;
+            }
+            setDirty(root, false);
+            long member = root;
+            do {
+                if (n == rebuilt.length) {
+                    rebuilt = Arrays.copyOf(rebuilt, n * 2);
+                }
+                rebuilt[n++] = member;
+                member = nextOf(member);
+            } while (member != root);
+        }
+        dirtyCount = 0;
+        for (int k = 0; k < n; k++) {
+            reset(rebuilt[k]);
+        }
+        for (int k = 0; k < n; k++) {
+            byte code = board.code(rebuilt[k]);
+            if (code >= LEVEL) {
+                joinNeighbours(rebuilt[k], code);
+            }
+        }
+        if (blocks != null) {
+            for (int k = 0; k < n; k++) {
+                Block block = block(rebuilt[k], false);
+                if (block != null && block.levelled == 0) {
+                    int x = (int) (rebuilt[k] % width);
+                    int y = (int) (rebuilt[k] / width);
+                    blocks.remove((long) (y >>> Board.TILE_BITS) * tileColumns + (x >>> Board.TILE_BITS));
+                }
+            }
+        }
+    }
+}
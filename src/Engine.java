@@ -0,0 +1,294 @@
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single thread which owns a game and everything that changes it -- its history and autosave; the advisor gets only
+ * copies of the game. Input is sent as commands the thread applies in the order they came; after every command which
+ * changed the game it publishes an immutable <code>Snapshot</code> any thread can read and render. The check of a step
+ * runs <code>CHECK_DELAY</code> milliseconds after the step so the placed item is seen before it merges, any other
+ * command coming earlier runs the check first, so moves never interleave. The final score of a game is submitted to the
+ * leaderboard once, after the check which ended it. With the preview on, snapshots taken in between moves carry the
+ * results of placing the picked item into every free slot. Listeners of the game's change events subscribe through the
+ * engine, they get a batch after every command which changed the game.
+ */
+public class Engine implements Closeable {
+    private static final long CHECK_DELAY = 500;
+
+    private final Game game;
+    private final History history;
+    private final Autosave autosave;
+    private final Advisor advisor = new Advisor();
+    private final Board.Changes changes;
+    private final Leaderboard leaderboard;
+    private boolean submitted = false;
+    private boolean preview = false;
+    private final ScheduledExecutorService thread = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "game-engine");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile Snapshot snapshot;
+    private volatile int elapsedTime;
+    private ScheduledFuture<?> pendingCheck = null;
+    private CompletableFuture<Boolean> pendingScore = null;
+
+    /**
+     * Class constructor specifying the game, it must not be used by any other thread afterwards.
+     * @param game played game
+     * @param savePath file the game is autosaved into
+     * @param leaderboard leaderboard the final score is submitted to, null if scores are not kept
+     */
+    public Engine(Game game, Path savePath, Leaderboard leaderboard) {
+        this.game = game;
+        this.leaderboard = leaderboard;
+        this.history = new History(game);
+        this.autosave = new Autosave(game, savePath);
+        this.changes = game.getBoard().trackChanges();
+        this.snapshot = Snapshot.of(game, changes, null);
+        this.elapsedTime = game.getElapsedTime();
+    }
+
+    /**
+     * Gets the latest published state of the game.
+     * @return snapshot taken after the last command which changed the game
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Gets the elapsed time, it is not published in snapshots when only the time changes.
+     * @return elapsed time after the last tick
+     */
+    public int getElapsedTime() {
+        return elapsedTime;
+    }
+
+    private void submit(Runnable command) {
+        thread.execute(guarded(command));
+    }
+
+    /**
+     * Wraps a command so its exception is reported instead of being kept in the executor's future.
+     */
+    private static Runnable guarded(Runnable command) {
+        return () -> {
+            try {
+                command.run();
+            }
+            catch (RuntimeException e) {
+                Thread t = Thread.currentThread();
+                t.getUncaughtExceptionHandler().uncaughtException(t, e);
+            }
+        };
+    }
+
+    private void publish() {
+        boolean previewed = preview && pendingCheck == null && !game.isOver();
+        snapshot = Snapshot.of(game, changes, snapshot, previewed ? game.previewPlacements() : null);
+    }
+
+    private void flushCheck() {
+        if (pendingCheck != null && pendingCheck.cancel(false)) {
+            check();
+        }
+    }
+
+    private void check() {
+        Events.Check event = new Events.Check();
+        event.begin();
+        pendingCheck = null;
+        event.slot = game.getChosenIndex();
+        boolean scored = game.checkAdjacency();
+        history.commit();
+        if (game.isOver()) {
+            autosave.delete();
+            if (leaderboard != null && !submitted) {
+                leaderboard.submit(game);
+                submitted = true;
+            }
+        }
+        else {
+            autosave.save();
+        }
+        publish();
+        event.cascadeDepth = game.getCascadeDepth();
+        event.scored = scored;
+        event.commit();
+        pendingScore.complete(scored);
+        pendingScore = null;
+    }
+
+    /**
+     * Places the picked item into a slot and makes a step, the step is checked after a delay. An occupied slot can't
+     * be chosen, nothing is placed then.
+     * @param index linear index of the chosen slot
+     * @return completed with true if the check of the step added score, with false if the slot was occupied
+     */
+    public CompletableFuture<Boolean> place(long index) {
+        CompletableFuture<Boolean> scored = new CompletableFuture<>();
+        submit(() -> {
+            flushCheck();
+            game.chooseSlot(index);
+            if (game.getChosenIndex() < 0) {
+                scored.complete(false);
+                return;
+            }
+            game.makeStep();
+            pendingScore = scored;
+            pendingCheck = thread.schedule(guarded(this::check), CHECK_DELAY, TimeUnit.MILLISECONDS);
+            publish();
+        });
+        return scored;
+    }
+
+    /**
+     * Picks the current item for the next step.
+     */
+    public void pickCurrentItem() {
+        submit(() -> {
+            flushCheck();
+            game.pickCurrentItem();
+            autosave.save();
+            publish();
+        });
+    }
+
+    /**
+     * Picks the saved item for the next step, or saves the current item if there is none.
+     */
+    public void useSavedItem() {
+        submit(() -> {
+            flushCheck();
+            if (game.hasSaved()) {
+                game.pickSavedItem();
+            }
+            else {
+                game.saveItem();
+            }
+            autosave.save();
+            publish();
+        });
+    }
+
+    /**
+     * Returns to the previous committed move.
+     */
+    public void undo() {
+        submit(() -> {
+            flushCheck();
+            if (history.undo()) {
+                autosave.save();
+                publish();
+            }
+        });
+    }
+
+    /**
+     * Returns to the next committed move after an undo.
+     */
+    public void redo() {
+        submit(() -> {
+            flushCheck();
+            if (history.redo()) {
+                autosave.save();
+                publish();
+            }
+        });
+    }
+
+    /**
+     * Asks the advisor for the best move in the state after all earlier commands. The advisor searches a copy of the
+     * game on its own pool, so the engine goes on applying commands meanwhile; the advice is handed over on the engine
+     * thread, and only if no snapshot was published since the copy was taken.
+     * @param budget time the advisor may spend, in nanoseconds
+     * @return completed with the advice, or null if there is no move or the game changed during the search
+     */
+    public CompletableFuture<Advisor.Advice> hint(long budget) {
+        CompletableFuture<Advisor.Advice> advice = new CompletableFuture<>();
+        submit(() -> {
+            flushCheck();
+            Snapshot asked = snapshot;
+            advisor.adviseAsync(new Game(game), budget).whenComplete((result, e) -> {
+                try {
+                    submit(() -> {
+                        if (e != null) {
+                            advice.completeExceptionally(e);
+                        }
+                        else {
+                            advice.complete(snapshot == asked ? result : null);
+                        }
+                    });
+                }
+                catch (RejectedExecutionException closed) {
+                    advice.complete(null);
+                }
+            });
+        });
+        return advice;
+    }
+
+    /**
+     * Subscribes a listener to the change events of the game, see <code>Game.subscribe</code>.
+     * @param listener receiver of batches of events
+     * @param executor executor calling the listener
+     * @return completed with the subscription once the listener gets the events of later commands
+     */
+    public CompletableFuture<GameEvents.Subscription> subscribe(GameEvents.Listener listener, Executor executor) {
+        CompletableFuture<GameEvents.Subscription> subscription = new CompletableFuture<>();
+        submit(() -> subscription.complete(game.subscribe(listener, executor)));
+        return subscription;
+    }
+
+    /**
+     * Starts or stops publishing a preview of the next placement with every snapshot, see
+     * <code>Game.previewPlacements</code>.
+     * @param on true to preview placements
+     */
+    public void setPreview(boolean on) {
+        submit(() -> {
+            if (preview != on) {
+                preview = on;
+                publish();
+            }
+        });
+    }
+
+    /**
+     * Adds a second to the elapsed time.
+     */
+    public void tick() {
+        submit(() -> {
+            game.incrementElapsedTime();
+            elapsedTime = game.getElapsedTime();
+        });
+    }
+
+    /**
+     * Finishes the pending check, saves the game unless it is over and stops the thread.
+     */
+    @Override
+    public void close() {
+        submit(() -> {
+            flushCheck();
+            if (!game.isOver()) {
+                autosave.save();
+            }
+            autosave.close();
+        });
+        thread.shutdown();
+        try {
+            thread.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events of the game, named <code>threex.*</code> in the "3x" category; an event name has to be
+ * a Java identifier. An event is begun before the recorded work and committed after it, so it has the work's
+ * duration; while no recording enables it, an event costs an allocation the JIT usually removes and a check. Record
+ * them with <code>-XX:StartFlightRecording</code> and look for stalls of the JavaFX application thread between
+ * paints, input and the callbacks of checks.
+ */
+final class Events {
+    private Events() {
+    }
+
+    /**
+     * Repaint of a part of the window.
+     */
+    @Name("threex.Paint")
+    @Label("Paint")
+    @Category({"3x", "GUI"})
+    @Description("Repaint of the board or of an item box")
+    @StackTrace(false)
+    static final class Paint extends Event {
+        @Label("Target")
+        String target;
+
+        @Label("Nodes")
+        @Description("Number of nodes or canvas cells repainted")
+        int nodes;
+    }
+
+    /**
+     * Handling of a click on a slot.
+     */
+    @Name("threex.Input")
+    @Label("Input")
+    @Category({"3x", "GUI"})
+    @Description("Click on a slot handed over to the engine")
+    @StackTrace(false)
+    static final class Input extends Event {
+        @Label("Slot")
+        long slot;
+    }
+
+    /**
+     * Check of a step on the engine's thread, the delayed merge.
+     */
+    @Name("threex.Check")
+    @Label("Check")
+    @Category({"3x", "Engine"})
+    @Description("Delayed check of a step merging clusters")
+    @StackTrace(false)
+    static final class Check extends Event {
+        @Label("Slot")
+        long slot;
+
+        @Label("Cascade Depth")
+        int cascadeDepth;
+
+        @Label("Scored")
+        boolean scored;
+    }
+
+    /**
+     * Callback of a finished check on the JavaFX application thread.
+     */
+    @Name("threex.CheckShown")
+    @Label("Check Shown")
+    @Category({"3x", "GUI"})
+    @Description("Callback of a check playing its sound and ending the game")
+    @StackTrace(false)
+    static final class CheckShown extends Event {
+        @Label("Slot")
+        long slot;
+
+        @Label("Scored")
+        boolean scored;
+    }
+
+    /**
+     * Pulse which came later than the next frame was due.
+     */
+    @Name("threex.FrameDrop")
+    @Label("Frame Drop")
+    @Category({"3x", "GUI"})
+    @Description("Pulse interval longer than a frame and a half")
+    @StackTrace(false)
+    static final class FrameDrop extends Event {
+        @Label("Interval")
+        @Timespan(Timespan.NANOSECONDS)
+        long interval;
+
+        @Label("Dropped Frames")
+        int dropped;
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.Locale;
+
+/**
+ * Pacing of frames, fed with the time of every pulse of the window. Intervals between pulses are recorded into a
+ * histogram covering the current window of <code>WINDOW_NANOS</code>, the percentiles are read from the last complete
+ * window. An interval longer than a frame and a half of <code>FRAME_NANOS</code> counts the frames it skipped as
+ * dropped and commits a <code>FrameDrop</code> event. It is used only by the thread of the pulses.
+ */
+public class FrameMonitor {
+    private static final long FRAME_NANOS = 1_000_000_000L / 60;
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+
+    private Histogram window = new Histogram();
+    private Histogram last = new Histogram();
+    private long previous = -1;
+    private long windowStart = 0;
+    private long dropped = 0;
+
+    /**
+     * Records a pulse.
+     * @param now time of the pulse in nanoseconds
+     * @return true if the pulse completed a window, so the percentiles changed
+     */
+    public boolean pulse(long now) {
+        if (previous < 0) {
+            previous = now;
+            windowStart = now;
+            return false;
+        }
+        long interval = now - previous;
+        previous = now;
+        window.record(interval);
+        if (interval > FRAME_NANOS + FRAME_NANOS / 2) {
+            int skipped = (int) ((interval + FRAME_NANOS / 2) / FRAME_NANOS) - 1;
+            dropped += skipped;
+            Events.FrameDrop event = new Events.FrameDrop();
+            event.interval = interval;
+            event.dropped = skipped;
+            event.commit();
+        }
+        if (now - windowStart < WINDOW_NANOS) {
+            return false;
+        }
+        Histogram completed = window;
+        window = last;
+        window.reset();
+        last = completed;
+        windowStart = now;
+        return true;
+    }
+
+    /**
+     * Gets the median frame time of the last window.
+     * @return nanoseconds between pulses
+     */
+    public long getP50() {
+        return last.getPercentile(0.5);
+    }
+
+    /**
+     * Gets the 99th percentile of frame times of the last window.
+     * @return nanoseconds between pulses
+     */
+    public long getP99() {
+        return last.getPercentile(0.99);
+    }
+
+    /**
+     * Gets the number of frames dropped since the monitor was created.
+     * @return number of dropped frames
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "frame p50 %.1f ms  p99 %.1f ms  dropped %d", getP50() / 1e6,
+                getP99() / 1e6, dropped);
+    }
+}
@@ -0,0 +1,231 @@
+import javafx.animation.AnimationTimer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Runs everything the window does over time from a single animation timer, so all visual updates of a frame are made
+ * in one pulse and laid out once. Every pulse first runs the timed tasks which are due, in the order of their
+ * deadlines, then steps every tween and finally calls the frame listeners. Time comes from the pulses, which are
+ * stamped by the monotonic <code>System.nanoTime</code>; repeating tasks keep a fixed rate measured from their first
+ * deadline, so they don't drift and they catch up after a stalled frame.
+ * <p>
+ * Tasks and tweens may be given a key. Scheduling a task under the key of a pending one drops the pending task, and
+ * starting a tween under the key of a running one makes the running one jump to its end, so work that became stale
+ * never runs and nodes never stay half animated. The scheduler is used only by the JavaFX application thread.
+ */
+public class FrameScheduler {
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private final Map<Object, Task> keyedTasks = new HashMap<>();
+    private final Map<Object, Tween> tweens = new LinkedHashMap<>();
+    private final List<LongConsumer> listeners = new ArrayList<>();
+    private final List<Tween> finished = new ArrayList<>();
+    private long now = -1;
+    private long sequence = 0;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            run(now);
+        }
+    };
+
+    /**
+     * Task waiting for its deadline, tasks with the same deadline run in the order they were scheduled.
+     */
+    private static final class Task implements Comparable<Task> {
+        private final Object key;
+        private final Runnable action;
+        private final long period;
+        private final long order;
+        private long deadline;
+        private boolean cancelled = false;
+
+        private Task(Object key, Runnable action, long deadline, long period, long order) {
+            this.key = key;
+            this.action = action;
+            this.deadline = deadline;
+            this.period = period;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int byDeadline = Long.compare(deadline, other.deadline);
+            return byDeadline != 0 ? byDeadline : Long.compare(order, other.order);
+        }
+    }
+
+    /**
+     * Tween stepped once per frame by the eased share of its duration which has passed.
+     */
+    private static final class Tween {
+        private final long start;
+        private final long duration;
+        private final DoubleConsumer step;
+
+        private Tween(long start, long duration, DoubleConsumer step) {
+            this.start = start;
+            this.duration = duration;
+            this.step = step;
+        }
+    }
+
+    /**
+     * Starts the pulses.
+     */
+    public void start() {
+        timer.start();
+    }
+
+    /**
+     * Stops the pulses, pending tasks and tweens wait for the next start.
+     */
+    public void stop() {
+        timer.stop();
+    }
+
+    /**
+     * Calls a listener in every pulse after tasks and tweens.
+     * @param listener called with the time of the pulse in nanoseconds
+     */
+    public void onFrame(LongConsumer listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Runs a task once after a delay, in the first pulse after it passed.
+     * @param key key replacing a pending task scheduled under it, null for a task which is never replaced
+     * @param delay delay in nanoseconds from the last pulse
+     * @param action run task
+     */
+    public void after(Object key, long delay, Runnable action) {
+        schedule(key, action, delay, 0);
+    }
+
+    /**
+     * Runs a task repeatedly at a fixed rate. A pulse which comes after more deadlines runs the task once for every
+     * one of them.
+     * @param key key replacing a pending task scheduled under it, null for a task which is never replaced
+     * @param period time between runs in nanoseconds, the first run comes one period after the last pulse
+     * @param action run task
+     */
+    public void every(Object key, long period, Runnable action) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period " + period + " is not positive");
+        }
+        schedule(key, action, period, period);
+    }
+
+    private void schedule(Object key, Runnable action, long delay, long period) {
+        Task task = new Task(key, action, time() + delay, period, sequence++);
+        if (key != null) {
+            Task stale = keyedTasks.put(key, task);
+            if (stale != null) {
+                stale.cancelled = true;
+            }
+        }
+        tasks.add(task);
+    }
+
+    /**
+     * Drops a pending task, a running tween is left to finish.
+     * @param key key of the task
+     */
+    public void cancel(Object key) {
+        Task task = keyedTasks.remove(key);
+        if (task != null) {
+            task.cancelled = true;
+        }
+    }
+
+    /**
+     * Animates something for a while from the last pulse on. The step is called right away with 0 and then in every
+     * pulse with the progress eased by <code>easeOut</code>, the last call gets exactly 1. A step must not start
+     * tweens, except for the last one.
+     * @param key key of the animated thing, a running tween under it jumps to its end first
+     * @param duration length of the animation in nanoseconds
+     * @param step called with the eased progress from 0 to 1
+     */
+    public void animate(Object key, long duration, DoubleConsumer step) {
+        Tween stale = tweens.remove(key);
+        if (stale != null) {
+            stale.step.accept(1);
+        }
+        step.accept(0);
+        tweens.put(key, new Tween(time(), Math.max(1, duration), step));
+    }
+
+    /**
+     * Checks if a tween is running.
+     * @param key key of the tween
+     * @return true if a tween under the key has not ended yet
+     */
+    public boolean isAnimating(Object key) {
+        return tweens.containsKey(key);
+    }
+
+    /**
+     * Eases the progress of an animation so it starts fast and slows down to its end.
+     * @param t linear progress from 0 to 1
+     * @return eased progress from 0 to 1
+     */
+    public static double easeOut(double t) {
+        double rest = 1 - t;
+        return 1 - rest * rest * rest;
+    }
+
+    private long time() {
+        return now >= 0 ? now : System.nanoTime();
+    }
+
+    /**
+     * Handles a pulse: runs due tasks, steps tweens and calls frame listeners.
+     * @param now time of the pulse in nanoseconds
+     */
+    void run(long now) {
+        this.now = now;
+        while (!tasks.isEmpty() && tasks.peek().deadline <= now) {
+            Task task = tasks.poll();
+            if (task.cancelled) {
+                continue;
+            }
+            task.action.run();
+            if (task.period > 0 && !task.cancelled) {
+                task.deadline += task.period;
+                tasks.add(task);
+            }
+            else if (task.key != null) {
+                keyedTasks.remove(task.key, task);
+            }
+        }
+
+        for (Iterator<Tween> i = tweens.values().iterator(); i.hasNext(); ) {
+            Tween tween = i.next();
+            double t = Math.min(1, (double) (now - tween.start) / tween.duration);
+            if (t >= 1) {
+                i.remove();
+                finished.add(tween);
+            }
+            else {
+                tween.step.accept(easeOut(t));
+            }
+        }
+        // finished tweens are stepped after the walk, so their last step may start another tween under its key
+        for (Tween tween : finished) {
+            tween.step.accept(1);
+        }
+        finished.clear();
+
+        for (LongConsumer listener : listeners) {
+            listener.accept(now);
+        }
+    }
+}
@@ -1,71 +1,109 @@
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
 import javafx.scene.Scene;
+import javafx.scene.effect.Blend;
+import javafx.scene.effect.BlendMode;
+import javafx.scene.effect.ColorInput;
+import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.input.KeyCode;
 import javafx.scene.layout.*;
-import javafx.scene.media.AudioClip;
-import javafx.scene.media.Media;
-import javafx.scene.media.MediaPlayer;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
 import javafx.stage.Stage;
 import javafx.scene.control.Label;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Map;
-import javafx.util.Duration;
+import java.util.Random;
+import java.util.function.LongConsumer;
 
 import static javafx.scene.layout.BorderStrokeStyle.SOLID;
 
 public class GUI extends Application {
-    private Game game;
-    private Game.Slot[][] slots;
+    private Engine engine;
+    private Snapshot shown;
+    private int shownTime = -1;
+    private int shownScore = -1;
     private BorderPane root;
-    private BoardPane playground;
+    private Playground playground;
     private ItemBox currentItemBox;
     private ItemBox savedItemBox;
     private Label scoreLabel;
     private Label timeLabel;
-    private MediaPlayer musicPlayer;
-    private AudioClip scoreSoundPlayer;
-    private AudioClip clickSoundPlayer;
-    private AudioClip newGameSoundPlayer;
+    private Assets assets;
     private Label playAgainLabel;
     static private Font fontBig;
     static private Font fontSmall;
-    Map<Game.Values, String> images = new HashMap<>();
-    private final int width = 4;
-    private final int height = 4;
+    private final Map<Game.Values, Image> images = new EnumMap<>(Game.Values.class);
+    private int width = 4;
+    private int height = 4;
+    private boolean canvasRenderer = false;
+    private Path dataDirectory = Paths.get(System.getProperty("user.home"), ".3x");
+    private Path savePath;
+    private Journal journal;
+    private Leaderboard leaderboard;
+    private final FrameMonitor frames = new FrameMonitor();
+    private final FrameScheduler scheduler = new FrameScheduler();
+    private Label frameOverlay;
+    private boolean showOverlay = false;
+    private boolean showHeatmap = false;
+    private static final long hintBudget = 50_000_000;
+    private static final int topScores = 100;
+    private static final int keptJournals = 50;
+    private static final long tickNanos = 1_000_000_000;
+    private static final long popNanos = 150_000_000;
+    private static final long beeNanos = 200_000_000;
+    private static final long scoreNanos = 300_000_000;
+    private static final Border slotBorder = new Border(new BorderStroke(Color.WHITE, SOLID, null, null));
+    private static final Border hintBorder = new Border(new BorderStroke(Color.YELLOW, SOLID, null,
+            new BorderWidths(3)));
+    private static final Border itemHintBorder = new Border(new BorderStroke(Color.YELLOW, SOLID, null,
+            new BorderWidths(5)));
+    private static final Border pickedBorder = new Border(new BorderStroke(Color.WHITE, SOLID, null,
+            new BorderWidths(5)));
 
     /**
      * Box that contains graphic representation of an element containing <code>Values</code>.
      */
     private class ElementBox extends VBox {
-        protected final Game.ElementWithValue element;
-        private ElementBox(Game.ElementWithValue element) {
-            this.element = element;
-            setBorder(new Border(new BorderStroke(Color.WHITE, SOLID, null, null)));
+        protected final ImageView view = new ImageView();
+        private Game.Values shown = null;
+
+        private ElementBox() {
+            setBorder(slotBorder);
+            getChildren().add(view);
         }
 
         /**
-         * Shows the image of the element on the board, visualizes <code>Values</code>.
+         * Gets the value whose image is shown.
+         * @return value of the last paint, null before the first one
          */
-        protected void paint() {
-            getChildren().clear();
-            String s = images.get(getValue());
-            ImageView r = new ImageView(s);
-            getChildren().add(r);
+        protected Game.Values getShown() {
+            return shown;
         }
 
-        protected Game.Values getValue() {
-            return element.getValue();
+        /**
+         * Shows the image of the element's value, visualizes <code>Values</code>. The box keeps its image view and
+         * swaps the image only when the value has changed since the last paint.
+         * @param value value of the element in the painted snapshot
+         * @return true if the image was swapped
+         */
+        protected boolean paint(Game.Values value) {
+            if (value == shown) {
+                return false;
+            }
+            view.setImage(images.get(value));
+            shown = value;
+            return true;
         }
 
     }
@@ -74,28 +112,62 @@ public class GUI extends Application {
      * Box that contains graphic representation of a <code>Slot</code>.
      */
     private class SlotBox extends ElementBox {
+        private int shownHeat = 0;
+
+        private SlotBox(int index) {
+            setOnMouseClicked(e -> play(index));
+        }
+
+        /**
+         * Tints the slot by the points a placement into it would score, the tint is replaced only when they change.
+         * @param points points of the placement, 0 removes the tint
+         * @param maxPoints points of the best placement
+         */
+        private void heat(int points, int maxPoints) {
+            if (points == shownHeat) {
+                return;
+            }
+            shownHeat = points;
+            Image image = view.getImage();
+            if (points == 0 || image == null) {
+                view.setEffect(null);
+                return;
+            }
+            view.setEffect(new Blend(BlendMode.SRC_OVER, null, new ColorInput(0, 0, image.getWidth(),
+                    image.getHeight(), BoardCanvas.heatColor(points, maxPoints))));
+        }
+
+        /**
+         * Shows or hides a highlight recommending this slot.
+         * @param on true if the slot is recommended
+         */
+        private void hint(boolean on) {
+            setBorder(on ? hintBorder : slotBorder);
+        }
 
-        private SlotBox(Game.Slot slot) {
-            super(slot);
-            setOnMouseClicked(e -> {
-                game.chooseSlot((Game.Slot) this.element);
-                game.makeStep();
-                playground.paint();
-                clickSoundPlayer.play();
-
-                Timeline timeline = new Timeline(new KeyFrame(Duration.millis(500), event1 -> {
-                    if (game.checkAdjacency()) {
-                        scoreSoundPlayer.play();
-                    }
-                    playground.paint();
-                    if (game.isOver()) {
-                        root.setCenter(playAgainLabel);
-                    }
-                }));
-                timeline.playFromStart();
+        /**
+         * Grows the image from half of its size, shown when a value is placed or levelled up.
+         */
+        private void popIn() {
+            scheduler.animate(view, popNanos, t -> {
+                view.setScaleX(0.5 + 0.5 * t);
+                view.setScaleY(0.5 + 0.5 * t);
             });
         }
 
+        /**
+         * Slides the image in from another slot, shown when a bee moves.
+         * @param dx horizontal distance of the other slot in slots
+         * @param dy vertical distance of the other slot in slots
+         */
+        private void slideFrom(int dx, int dy) {
+            double w = getWidth();
+            double h = getHeight();
+            scheduler.animate(view, beeNanos, t -> {
+                view.setTranslateX(dx * w * (1 - t));
+                view.setTranslateY(dy * h * (1 - t));
+            });
+        }
     }
 
 
@@ -104,29 +176,31 @@ public class GUI extends Application {
      */
     private class ItemBox extends ElementBox {
         private final Label label = new Label();
-        private ItemBox(Game.Item item, String text) {
-            super(item);
+        private ItemBox(String text) {
             label.setText(text);
+            label.setFont(fontSmall);
+            label.setTextFill(Color.WHITE);
+            getChildren().add(label);
             setPrefWidth(80);
             setAlignment(Pos.CENTER);
         }
 
-        /**
-         * Uses super() to visualize and adds a label.
-         */
         @Override
-        protected void paint() {
-            super.paint();
-            getChildren().add(label);
-            label.setFont(fontSmall);
-            label.setTextFill(Color.WHITE);
+        protected boolean paint(Game.Values value) {
+            Events.Paint event = new Events.Paint();
+            event.begin();
+            boolean swapped = super.paint(value);
+            event.target = label.getText();
+            event.nodes = swapped ? 1 : 0;
+            event.commit();
+            return swapped;
         }
 
         /**
          * Shows a thick border around the box.
          */
         private void highlight() {
-            setBorder(new Border(new BorderStroke(Color.WHITE, SOLID, null, new BorderWidths(5))));
+            setBorder(pickedBorder);
         }
 
         /**
@@ -138,82 +212,336 @@ public class GUI extends Application {
     }
 
     /**
-     * Pane that contains graphic representation of a play board.
+     * Graphic representation of a play board.
+     */
+    private interface Playground {
+        /**
+         * Shows the values of slots in a snapshot and hides the hint.
+         * @param snapshot painted state of the game
+         */
+        void paintSlots(Snapshot snapshot);
+
+        /**
+         * Highlights a slot recommending it until the next paint.
+         * @param index linear index of the slot
+         */
+        void hint(long index);
+    }
+
+    /**
+     * Pane that contains graphic representation of a play board, a box per slot. Slots getting a value pop in and
+     * bees slide from the slot they left, animations are run by the frame scheduler.
      */
-    private class BoardPane extends GridPane {
+    private class BoardPane extends GridPane implements Playground {
+        private final SlotBox[] boxes = new SlotBox[width * height];
+        private final Game.Values[] before = new Game.Values[width * height];
+
         private BoardPane() {
            setMaxWidth(0);
-            root.setBackground(new Background(new BackgroundFill(Color.BLACK, null, null)));
             for (int i = 0; i < width; i++) {
                 for (int j = 0; j < height; j++) {
-                    SlotBox card = new SlotBox(slots[j][i]);
+                    SlotBox card = new SlotBox(j * width + i);
                     add(card, i, j);
-                    card.paint();
+                    boxes[j * width + i] = card;
+                }
+            }
+        }
+
+        @Override
+        public void paintSlots(Snapshot snapshot) {
+            Events.Paint event = new Events.Paint();
+            event.begin();
+            int swapped = 0;
+            Placements placements = snapshot.getPlacements();
+            for (int i = 0; i < boxes.length; i++) {
+                before[i] = boxes[i].getShown();
+                swapped += boxes[i].paint(snapshot.get(i)) ? 1 : 0;
+                boxes[i].hint(false);
+                boxes[i].heat(placements == null ? 0 : placements.getPoints(i),
+                        placements == null ? 0 : placements.getMaxPoints());
+            }
+            if (swapped > 0) {
+                animateChanges();
+            }
+            event.target = "board";
+            event.nodes = swapped;
+            event.commit();
+        }
+
+        /**
+         * Starts animations of slots which got a value since the previous paint.
+         */
+        private void animateChanges() {
+            for (int i = 0; i < boxes.length; i++) {
+                Game.Values value = boxes[i].getShown();
+                if (before[i] == null || value == before[i] || value == Game.Values.EMPTY) {
+                    continue;
+                }
+                int from = value == Game.Values.DANGER ? leftBee(i) : -1;
+                if (from >= 0) {
+                    boxes[i].slideFrom(from % width - i % width, from / width - i / width);
+                }
+                else {
+                    boxes[i].popIn();
                 }
             }
         }
 
-        private void paint() {
-            for (Node node: getChildren()) {
-                if (node instanceof SlotBox) {
-                    ((SlotBox) node).paint();
+        /**
+         * Finds a neighbour of a slot which a bee left since the previous paint.
+         * @return linear index of the neighbour, -1 if there is none
+         */
+        private int leftBee(int index) {
+            int x = index % width;
+            int[] around = {index >= width ? index - width : -1, index + width < boxes.length ? index + width : -1,
+                    x > 0 ? index - 1 : -1, x < width - 1 ? index + 1 : -1};
+            for (int neighbour : around) {
+                if (neighbour >= 0 && before[neighbour] == Game.Values.DANGER
+                        && boxes[neighbour].getShown() != Game.Values.DANGER) {
+                    return neighbour;
                 }
             }
-            currentItemBox.paint();
-            savedItemBox.paint();
-            if (game.isSavedPicked()) {
-                savedItemBox.highlight();
-                currentItemBox.dehighlight();
+            return -1;
+        }
+
+        @Override
+        public void hint(long index) {
+            boxes[(int) index].hint(true);
+        }
+    }
+
+    /**
+     * Canvas that draws only the visible part of a play board, used for boards too big for a box per slot.
+     */
+    private class CanvasPlayground extends BoardCanvas implements Playground {
+
+        private CanvasPlayground() {
+            super(engine.getSnapshot(), images, GUI.this::play, scheduler);
+        }
+
+        @Override
+        public void paintSlots(Snapshot snapshot) {
+            setHint(-1);
+            paint(snapshot);
+        }
+
+        @Override
+        public void hint(long index) {
+            setHint(index);
+        }
+    }
+
+    /**
+     * Sends a placement into a slot to the engine, the board is repainted when the engine publishes the step and
+     * again after its check.
+     * @param index linear index of the chosen slot
+     */
+    private void play(long index) {
+        Events.Input input = new Events.Input();
+        input.begin();
+        Engine current = engine;
+        assets.play(Assets.Sound.CLICK);
+        current.place(index).thenAcceptAsync(scored -> {
+            Events.CheckShown event = new Events.CheckShown();
+            event.begin();
+            if (scored) {
+                assets.play(Assets.Sound.SCORE);
+            }
+            Snapshot snapshot = current.getSnapshot();
+            if (current == engine && snapshot.isOver()) {
+                showPlayAgain(snapshot);
+            }
+            event.slot = index;
+            event.scored = scored;
+            event.commit();
+        }, Platform::runLater);
+        input.slot = index;
+        input.commit();
+    }
+
+    /**
+     * Replaces the board of a finished game by the play again label, with the share of games of the same size it
+     * beat when scores are kept.
+     * @param snapshot final state of the game
+     */
+    private void showPlayAgain(Snapshot snapshot) {
+        if (leaderboard == null) {
+            playAgainLabel.setText("Play again");
+        }
+        else {
+            double rank = leaderboard.getPercentileRank(snapshot.getScore(), snapshot.getWidth(), snapshot.getHeight());
+            playAgainLabel.setText(String.format("Better than %.0f%%%nPlay again", 100 * rank));
+        }
+        root.setCenter(playAgainLabel);
+    }
+
+    /**
+     * Asks the advisor for the best move and highlights it until the next repaint.
+     */
+    private void showHint() {
+        Engine current = engine;
+        current.hint(hintBudget).thenAcceptAsync(advice -> {
+            if (advice == null || current != engine) {
+                return;
+            }
+            if (current.getSnapshot() != shown) {
+                paint(current.getSnapshot());
             }
-            else {
-                currentItemBox.highlight();
-                savedItemBox.dehighlight();
+            if (advice.isSaveFirst()) {
+                savedItemBox.setBorder(itemHintBorder);
+                return;
             }
-            scoreLabel.setText("Score: " + game.getScore());
+            playground.hint(advice.getIndex());
+            (advice.isSavedPicked() ? savedItemBox : currentItemBox).setBorder(itemHintBorder);
+        }, Platform::runLater);
+    }
+
+    /**
+     * Shows a state of the game published by the engine.
+     * @param snapshot painted state
+     */
+    private void paint(Snapshot snapshot) {
+        shown = snapshot;
+        playground.paintSlots(snapshot);
+        currentItemBox.paint(snapshot.getCurrentItem());
+        savedItemBox.paint(snapshot.getSavedItem());
+        if (snapshot.isSavedPicked()) {
+            savedItemBox.highlight();
+            currentItemBox.dehighlight();
+        }
+        else {
+            currentItemBox.highlight();
+            savedItemBox.dehighlight();
         }
+        showScore(snapshot.getScore());
+    }
+
+    /**
+     * Counts the score label up to a higher score while it pops, any other score is shown right away.
+     * @param score shown score
+     */
+    private void showScore(int score) {
+        if (score == shownScore) {
+            return;
+        }
+        int from = shownScore >= 0 && score > shownScore ? shownScore : score;
+        shownScore = score;
+        scheduler.animate(scoreLabel, from == score ? 1 : scoreNanos, t -> {
+            scoreLabel.setText("Score: " + (from + Math.round((score - from) * t)));
+            scoreLabel.setScaleX(from == score ? 1 : 1.3 - 0.3 * t);
+            scoreLabel.setScaleY(from == score ? 1 : 1.3 - 0.3 * t);
+        });
     }
 
     /**
-     * Starts the application, loads all the image paths, fonts and sounds, starts the timer, initializes the game and
-     * creates the graphic window.
+     * Starts the application, starts loading fonts, images and sounds in the background, initializes the game and
+     * shows the window; the board is created as soon as fonts and images are loaded. Named parameters
+     * <code>--width</code> and <code>--height</code> set the size of the board, <code>--renderer=grid|canvas</code>
+     * chooses how it is drawn; boards with more than 256 slots are drawn on a canvas unless the grid is asked for and
+     * boards with more than <code>Board.SPARSE_CELLS</code> slots are stored sparse, starting in their centre.
+     * <code>--metrics=SECONDS</code> records <code>Metrics</code> and <code>--overlay=true</code> shows frame times
+     * below the board, the F key shows or hides them. <code>--heatmap=true</code> tints free slots by the points a
+     * placement of the picked item would score, the M key shows or hides the heatmap. The autosaved game, scores and
+     * journals are kept in the directory <code>--data</code>, <code>.3x</code> in the home directory of the user by
+     * default.
      */
     @Override
     public void start(Stage stage){
-        loadFonts();
-        loadImages();
+        readParameters();
+        assets = new Assets();
+        try {
+            Files.createDirectories(dataDirectory);
+        }
+        catch (IOException e) {
+            System.err.println("Game is not saved: " + e);
+        }
+        try {
+            leaderboard = new Leaderboard(dataDirectory.resolve("leaderboard"), topScores);
+        }
+        catch (IOException e) {
+            System.err.println("Scores are not kept: " + e);
+        }
 
         root = new BorderPane();
-        prepareGame();
+        root.setBackground(new Background(new BackgroundFill(Color.BLACK, null, null)));
+        initializeGame();
 
         stage.setTitle("3x");
-        stage.setScene(new Scene(root));
+        Scene scene = new Scene(root);
+        scene.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.H && isPlaying()) {
+                showHint();
+            }
+            else if (e.isShortcutDown() && e.getCode() == KeyCode.Z && isPlaying()) {
+                engine.undo();
+            }
+            else if (e.isShortcutDown() && e.getCode() == KeyCode.Y && isPlaying()) {
+                engine.redo();
+            }
+            else if (e.getCode() == KeyCode.M && isPlaying()) {
+                showHeatmap = !showHeatmap;
+                engine.setPreview(showHeatmap);
+            }
+            else if (e.getCode() == KeyCode.F && frameOverlay != null) {
+                showOverlay = !showOverlay;
+                root.setBottom(showOverlay ? frameOverlay : null);
+                stage.sizeToScene();
+            }
+        });
+        stage.setScene(scene);
         stage.show();
-        stage.setResizable(false);
-        createAudio();
+        stage.setResizable(canvasRenderer);
+
+        assets.boardReady().thenRunAsync(() -> showBoard(stage), Platform::runLater).exceptionally(e -> {
+            System.err.println("Game can't be shown: " + e);
+            Platform.exit();
+            return null;
+        });
+    }
+
+    /**
+     * Creates the board and the top panel once fonts and images are loaded, starts the timer and rendering.
+     * @param stage window of the game
+     */
+    private void showBoard(Stage stage) {
+        fontSmall = assets.getFont(9);
+        fontBig = assets.getFont(12);
+        images.putAll(assets.getImages());
+        createGraphics();
+        stage.sizeToScene();
+        assets.play(Assets.Sound.NEW_GAME);
 
         setTimer();
+        startRendering();
     }
 
-    private void loadFonts() {
-        try {
-            fontSmall = Font.loadFont(new FileInputStream(new File("fonts/prstartk.TTF")), 9);
-            fontBig = Font.loadFont(new FileInputStream(new File("fonts/prstartk.TTF")), 12);
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        }
+    private boolean isPlaying() {
+        return playground != null && root.getCenter() == playground;
     }
 
-    //credit: Pixel flowers stages of blooming by Brysiaa, Deviantart
-    //credit: pixel bee by jxy25, Pixilart
-    //modified and edited by me
-    private void loadImages() {
-        images.put(Game.Values.LVL1, "file:images\\lvl1.png");
-        images.put(Game.Values.LVL2, "file:images\\lvl2.png");
-        images.put(Game.Values.LVL3, "file:images\\lvl3.png");
-        images.put(Game.Values.LVL4, "file:images\\lvl4.png");
-        images.put(Game.Values.LVL5, "file:images\\lvl5.png");
-        images.put(Game.Values.EMPTY, "file:images\\empty.png");
-        images.put(Game.Values.DANGER, "file:images\\danger.png");
+    private void readParameters() {
+        Map<String, String> named = getParameters().getNamed();
+        width = Integer.parseInt(named.getOrDefault("width", String.valueOf(width)));
+        height = Integer.parseInt(named.getOrDefault("height", String.valueOf(height)));
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Board size " + width + "x" + height + " is not positive");
+        }
+        String renderer = named.getOrDefault("renderer", width * height > 256 ? "canvas" : "grid");
+        canvasRenderer = renderer.equals("canvas");
+        showOverlay = Boolean.parseBoolean(named.get("overlay"));
+        showHeatmap = Boolean.parseBoolean(named.get("heatmap"));
+        if (named.containsKey("data")) {
+            dataDirectory = Paths.get(named.get("data"));
+        }
+        savePath = dataDirectory.resolve("autosave.3xs");
+        if (named.containsKey("metrics")) {
+            Metrics.setEnabled(true);
+            Metrics.register();
+            long period = Long.parseLong(named.get("metrics"));
+            if (period > 0) {
+                Metrics.startDump(System.out, period);
+            }
+        }
     }
 
     private void prepareGame() {
@@ -221,62 +549,164 @@ public class GUI extends Application {
         createGraphics();
     }
 
+    /**
+     * Resumes the saved game or starts a new one and hands it over to a new engine, the engine of the previous game
+     * is closed first.
+     */
     private void initializeGame() {
-        game = new Game(width, height);
-        slots = game.getSlots();
+        if (engine != null) {
+            engine.close();
+        }
+        Game game = resumeGame();
+        if (game == null) {
+            long seed = new Random().nextLong();
+            game = new Game(width, height, seed);
+            startJournal(game, seed);
+        }
+        else {
+            closeJournal();
+        }
+        engine = new Engine(game, savePath, leaderboard);
+        engine.setPreview(showHeatmap);
     }
 
-    private void createGraphics() {
-        createPlayAgainLabel();
-
-        createTopPanel();
-        createPlayground();
-        playground.paint();
+    /**
+     * Loads the game saved when the window was last closed, a resumed game is not recorded into a journal.
+     * @return saved game, null if there is none to continue
+     */
+    private Game resumeGame() {
+        if (!Files.exists(savePath)) {
+            return null;
+        }
+        try {
+            Game saved = SaveFile.read(savePath);
+            if (saved.getWidth() == width && saved.getHeight() == height && !saved.isOver()) {
+                return saved;
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Saved game is not resumed: " + e);
+        }
+        return null;
     }
 
-    //credit: Kevin MacLeod - Pixelland ♫ NO COPYRIGHT 8-bit Music
-    //credit: https://mixkit.co/free-sound-effects/arcade/
-    private void createAudio() {
-        musicPlayer = new MediaPlayer(loadMusic("music\\music.mp3"));
-        musicPlayer.setOnEndOfMedia(() -> musicPlayer.seek(Duration.ZERO));
-        musicPlayer.play();
+    /**
+     * Records the new game into its own journal in the journals directory, only the newest journals are kept there.
+     * The game is played unrecorded if the journal can't be created.
+     * @param game recorded game
+     * @param seed seed of the game
+     */
+    private void startJournal(Game game, long seed) {
+        closeJournal();
+        try {
+            Path directory = Files.createDirectories(dataDirectory.resolve("journals"));
+            Journal.prune(directory, keptJournals - 1);
+            journal = new Journal(directory.resolve(System.currentTimeMillis() + ".3xj"), width, height, seed,
+                    game.getItemGenerator());
+            game.setJournal(journal);
+        }
+        catch (IOException e) {
+            System.err.println("Game is not recorded: " + e);
+        }
+    }
 
-        scoreSoundPlayer = new AudioClip(Paths.get("music/score.wav").toUri().toString());
-        clickSoundPlayer = new AudioClip(Paths.get("music/click.wav").toUri().toString());
-        newGameSoundPlayer = new AudioClip(Paths.get("music/newgame.wav").toUri().toString());
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        }
+        catch (IOException e) {
+            System.err.println("Journal is not complete: " + e);
+        }
+        journal = null;
+    }
 
-        newGameSoundPlayer.play();
+    @Override
+    public void stop() {
+        engine.close();
+        closeJournal();
+        assets.close();
+        if (leaderboard != null) {
+            leaderboard.close();
+        }
     }
 
-    private Media loadMusic(String path) {
-        return new Media(new File(path).toURI().toString());
+    private void createGraphics() {
+        createPlayAgainLabel();
+        createFrameOverlay();
+
+        createTopPanel();
+        createPlayground();
+        paint(engine.getSnapshot());
     }
 
+    /**
+     * Ticks the clock of the engine once a second of the frame scheduler's monotonic time.
+     */
     private void setTimer() {
-        Timeline tl = new Timeline(new KeyFrame(new Duration(1000), e -> {
-            game.incrementElapsedTime();
-            timeLabel.setText("Time: " + game.getElapsedTime());
-        }));
-        tl.setCycleCount(Timeline.INDEFINITE);
-        tl.play();
+        scheduler.every(null, tickNanos, () -> engine.tick());
+    }
+
+    /**
+     * Paints the latest state published by the engine once per frame of the frame scheduler, states published in
+     * between are skipped. The time from the start of the JVM to the first frame is logged, the background music is
+     * started after it. Every pulse is fed to the frame monitor, the overlay shows its percentiles once per window.
+     */
+    private void startRendering() {
+        scheduler.onFrame(new LongConsumer() {
+            private boolean first = true;
+
+            @Override
+            public void accept(long now) {
+                if (first) {
+                    first = false;
+                    long millis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+                    System.out.println("First frame after " + millis + " ms");
+                    assets.startMusic();
+                }
+                if (frames.pulse(now) && showOverlay) {
+                    frameOverlay.setText(frames.toString());
+                }
+                Snapshot latest = engine.getSnapshot();
+                if (latest != shown) {
+                    paint(latest);
+                }
+                int time = engine.getElapsedTime();
+                if (time != shownTime) {
+                    timeLabel.setText("Time: " + time);
+                    shownTime = time;
+                }
+            }
+        });
+        scheduler.start();
     }
 
     private void createPlayAgainLabel() {
         playAgainLabel = new Label("Play again");
         playAgainLabel.setOnMouseClicked(e -> {
             prepareGame();
-            newGameSoundPlayer.play();
+            assets.play(Assets.Sound.NEW_GAME);
         });
         playAgainLabel.setOnMousePressed(e -> playAgainLabel.setFont(fontSmall));
         playAgainLabel.setOnMouseReleased(e -> playAgainLabel.setFont(fontBig));
         playAgainLabel.setFont(fontBig);
         playAgainLabel.setTextFill(Color.WHITE);
+        playAgainLabel.setTextAlignment(TextAlignment.CENTER);
+    }
+
+    private void createFrameOverlay() {
+        frameOverlay = new Label(frames.toString());
+        frameOverlay.setFont(fontSmall);
+        frameOverlay.setTextFill(Color.WHITE);
+        root.setBottom(showOverlay ? frameOverlay : null);
     }
 
     private void createPlayground() {
-        playground = new BoardPane();
-        root.setCenter(this.playground);
-        BorderPane.setAlignment(playground, Pos.CENTER);
+        playground = canvasRenderer ? new CanvasPlayground() : new BoardPane();
+        root.setCenter((Node) this.playground);
+        BorderPane.setAlignment((Node) playground, Pos.CENTER);
     }
 
     private void createTopPanel() {
@@ -293,28 +723,22 @@ public class GUI extends Application {
     }
 
     private void createSpecialCards() {
-        currentItemBox = new ItemBox(game.getCurrentItem(), "new");
+        currentItemBox = new ItemBox("new");
         currentItemBox.setOnMouseClicked(e -> {
-            game.pickCurrentItem();
-            playground.paint();
-            clickSoundPlayer.play();
+            engine.pickCurrentItem();
+            assets.play(Assets.Sound.CLICK);
         });
 
-        savedItemBox = new ItemBox(game.getSavedItem(), "saved");
+        savedItemBox = new ItemBox("saved");
         savedItemBox.setOnMouseClicked(e -> {
-            if (game.hasSaved()) {
-                game.pickSavedItem();
-            }
-            else {
-                game.saveItem();
-            }
-            playground.paint();
-            clickSoundPlayer.play();
+            engine.useSavedItem();
+            assets.play(Assets.Sound.CLICK);
         });
     }
 
     private void createLabels(){
         scoreLabel = new Label("Score: 0");
+        shownScore = -1;
         timeLabel = new Label("Time: 0");
 
         scoreLabel.setFont(fontBig);
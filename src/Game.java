@@ -1,4 +1,6 @@
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Represents logics of "3x" game.
@@ -6,24 +8,31 @@ import java.util.*;
 public class Game {
     private final int width;
     private final int height;
-    final private int totalSlots;
+    final private long totalSlots;
     private int elapsedTime = 0;
     private int score = 0;
-    private int occupiedSlots;
+    private int moves = 0;
     private final Item currentItem = new Item(Values.EMPTY);
     private final Item savedItem = new Item(Values.EMPTY);
-    private Slot chosenSlot = null;
+    private long chosenIndex = -1;
     private boolean pickedSaved = false;
-    private final Slot[][] slots;
+    private final Board board;
+    private Slot[][] slots;
 
-    private List<Slot> dangerousSlots = new ArrayList<>();
-    private static final int[][] dirs = new int[][]{{0, 1}, {0, -1}, {1, 0}, {-1, 0}};
+    private final Bees bees;
+    private ForkJoinPool beePool = null;
+    private static final int PARALLEL_BEES = 4096;
 
     private static final Map<Values, Integer> points = new HashMap<>(Map.ofEntries(Map.entry(Values.LVL1, 10),
             Map.entry(Values.LVL2,
             20), Map.entry(Values.LVL3, 30), Map.entry(Values.LVL4, 40), Map.entry(Values.LVL5, 50)));
 
-    private final Random random = new Random();
+    private final Random random;
+    private ItemGenerator items;
+    private int cascadeDepth = 0;
+    private Journal journal = null;
+    private GameEvents events = null;
+    private final boolean instrumented;
 
     /**
      * Class constructor specifying number of columns and rows in game.
@@ -31,41 +40,282 @@ public class Game {
      * @param height number of rows in game's grid
      */
     public Game(int width, int height) {
-        this.width = width;
-        this.height = height;
+        this(width, height, new Random());
+    }
+
+    /**
+     * Class constructor specifying number of columns and rows in game and the seed of its random values, games with
+     * the same seed and the same moves play out the same.
+     * @param width number of columns in game's grid
+     * @param height number of rows in game's grid
+     * @param seed seed of the game's random generator
+     */
+    public Game(int width, int height, long seed) {
+        this(width, height, new GameRandom(seed));
+    }
 
-        totalSlots = this.width * height;
-        slots = createSlots();
+    /**
+     * Class constructor specifying number of columns and rows in game and its random generator, the generator is used
+     * only by this game.
+     * @param width number of columns in game's grid
+     * @param height number of rows in game's grid
+     * @param random random generator of the game
+     */
+    public Game(int width, int height, Random random) {
+        this(width, height, random, ItemGenerator.ALIAS);
+    }
 
+    /**
+     * Class constructor specifying number of columns and rows in game, its random generator and the generator of its
+     * items.
+     * @param width number of columns in game's grid
+     * @param height number of rows in game's grid
+     * @param random random generator of the game
+     * @param items generator drawing the values of items and of the starting board
+     */
+    public Game(int width, int height, Random random, ItemGenerator items) {
+        this(Board.create(width, height), random, items);
         generateStartingBoard();
         currentItem.setValueToRandom();
     }
 
+    /**
+     * Class constructor specifying the board of a loaded game, nothing is drawn and both items are empty.
+     * @param board board of the game, bees have to be added to the game
+     * @param random random generator of the game
+     * @param items generator drawing the values of items
+     */
+    Game(Board board, Random random, ItemGenerator items) {
+        this.width = board.getWidth();
+        this.height = board.getHeight();
+        this.random = random;
+        this.items = items;
+        this.board = board;
+        this.instrumented = true;
+
+        bees = new Bees(board);
+        totalSlots = board.size();
+    }
+
+    /**
+     * Class constructor copying another game, the copy has its own random generator and the same item generator. The
+     * copy plays hypothetical moves, so it records no <code>Metrics</code>.
+     * @param other copied game
+     */
+    Game(Game other) {
+        this.width = other.width;
+        this.height = other.height;
+        this.random = new Random(0);
+        this.instrumented = false;
+        board = other.board.isSparse() ? Board.sparse(width, height) : new Board(width, height);
+        bees = new Bees(board);
+        totalSlots = board.size();
+        copyFrom(other);
+    }
+
+    /**
+     * Makes this game the same as another game of the same size, except for the random generator; the item generator
+     * is shared.
+     * @param other copied game
+     */
+    void copyFrom(Game other) {
+        items = other.items;
+        board.copyFrom(other.board);
+        bees.copyFrom(other.bees);
+        elapsedTime = other.elapsedTime;
+        changeScore(other.score);
+        moves = other.moves;
+        currentItem.setValue(other.currentItem.getValue());
+        savedItem.setValue(other.savedItem.getValue());
+        chosenIndex = other.chosenIndex;
+        pickedSaved = other.pickedSaved;
+        cascadeDepth = other.cascadeDepth;
+        publishEvents();
+    }
+
+    /**
+     * Sets the state of this game kept next to its board, used when a snapshot is restored.
+     * @param score score of the game
+     * @param current value of the current item
+     * @param saved value of the saved item
+     * @param pickedSaved true if the saved item is picked for the next step
+     * @param chosenIndex linear index of the chosen slot, -1 if none is chosen
+     */
+    void setState(int score, Values current, Values saved, boolean pickedSaved, long chosenIndex) {
+        changeScore(score);
+        currentItem.setValue(current);
+        savedItem.setValue(saved);
+        this.pickedSaved = pickedSaved;
+        this.chosenIndex = chosenIndex;
+        publishEvents();
+    }
+
+    /**
+     * State of a game to return to by <code>undo</code>, a checkpoint is reused by every <code>checkpoint</code> call
+     * taken into it.
+     */
+    static final class Checkpoint {
+        private int score;
+        private int moves;
+        private int cascadeDepth;
+        private Values current;
+        private Values saved;
+        private boolean pickedSaved;
+        private long chosenIndex;
+        private int boardMark;
+        private Bees bees;
+    }
+
+    /**
+     * Takes a checkpoint of this game, the board logs its changes from then on. It is meant for games playing
+     * hypothetical moves, which undo them instead of copying the game for every move.
+     * @param into checkpoint overwritten with the current state
+     */
+    void checkpoint(Checkpoint into) {
+        into.score = score;
+        into.moves = moves;
+        into.cascadeDepth = cascadeDepth;
+        into.current = currentItem.getValue();
+        into.saved = savedItem.getValue();
+        into.pickedSaved = pickedSaved;
+        into.chosenIndex = chosenIndex;
+        into.boardMark = board.mark();
+        if (into.bees == null) {
+            into.bees = new Bees(board);
+        }
+        into.bees.copyFrom(bees);
+    }
+
+    /**
+     * Returns this game to a checkpoint taken since the game was last copied, except for its random generator.
+     * @param to checkpoint of this game
+     */
+    void undo(Checkpoint to) {
+        board.undo(to.boardMark);
+        bees.copyFrom(to.bees);
+        changeScore(to.score);
+        moves = to.moves;
+        cascadeDepth = to.cascadeDepth;
+        currentItem.setValue(to.current);
+        savedItem.setValue(to.saved);
+        pickedSaved = to.pickedSaved;
+        chosenIndex = to.chosenIndex;
+    }
+
+    private void changeScore(int score) {
+        if (events != null && score != this.score) {
+            events.score(score - this.score, score);
+        }
+        this.score = score;
+    }
+
+    /**
+     * Subscribes a listener to changes of this game: changes of cells, of the score and of both items, moves of bees
+     * and the end of the game. The events of every operation changing the game -- a step, a check, saving an item or
+     * restoring a snapshot -- are delivered as one batch. Changes are written only while a subscription is open, the
+     * first operation after the last one was closed stops writing them. It has to be called by the thread using the
+     * game.
+     * @param listener receiver of batches of events
+     * @param executor executor calling the listener
+     * @return subscription which can be closed from any thread
+     */
+    public GameEvents.Subscription subscribe(GameEvents.Listener listener, Executor executor) {
+        if (events == null) {
+            events = new GameEvents();
+            board.setEvents(events);
+        }
+        return events.subscribe(listener, executor);
+    }
+
+    private void publishEvents() {
+        if (events != null) {
+            events.publish();
+            if (!events.hasSubscribers()) {
+                events = null;
+                board.setEvents(null);
+            }
+        }
+    }
+
+    private long startTimer() {
+        return instrumented ? Metrics.startTimer() : Metrics.OFF;
+    }
+
+    private void record(Metrics.Kind kind, long value) {
+        if (instrumented) {
+            Metrics.record(kind, value);
+        }
+    }
+
+    /**
+     * Gets the slot chosen for the next step.
+     * @return linear index of the chosen slot, -1 if none is chosen
+     */
+    long getChosenIndex() {
+        return chosenIndex;
+    }
+
+    /**
+     * Gets the random generator of this game.
+     * @return random generator
+     */
+    Random getRandom() {
+        return random;
+    }
+
+    /**
+     * Gets the generator of the items of this game.
+     * @return item generator
+     */
+    public ItemGenerator getItemGenerator() {
+        return items;
+    }
+
+    /**
+     * Restarts the random generator of this game.
+     * @param seed new seed
+     */
+    void reseed(long seed) {
+        random.setSeed(seed);
+    }
+
     private Slot[][] createSlots() {
         Slot[][] slots;
         slots = new Slot[this.height][this.width];
 
         for (int i = 0; i < this.width; i++) {
             for (int j = 0; j < this.height; j++) {
-                slots[j][i] = new Slot(i, j, null);
+                slots[j][i] = new Slot(board.index(i, j));
             }
         }
         return slots;
     }
 
-    private void generateStartingBoard() {
-        int n = (getWidth() * getHeight()) / 3;
-        int placed = 0;
-        while (placed < n) {
-            int x = random.nextInt(getWidth());
-            int y = random.nextInt(getHeight());
-            Slot slot = slots[y][x];
-            if (slot.isOccupied()) {
-                continue;
+    /**
+     * Fills a third of the board with drawn values, a sparse board only a third of the area of one tile in its centre.
+     */
+    void generateStartingBoard() {
+        long start = startTimer();
+        if (board.isSparse()) {
+            int w = Math.min(width, 1 << Board.TILE_BITS);
+            int h = Math.min(height, 1 << Board.TILE_BITS);
+            int left = (width - w) / 2;
+            int top = (height - h) / 2;
+            for (int placed = 0; placed < w * h / 3; ) {
+                long index = board.index(left + random.nextInt(w), top + random.nextInt(h));
+                if (!board.isOccupied(index)) {
+                    board.set(index, getRandomValue());
+                    placed++;
+                }
+            }
+        }
+        else {
+            int n = (getWidth() * getHeight()) / 3;
+            for (int placed = 0; placed < n; placed++) {
+                board.set(board.randomFree(random), getRandomValue());
             }
-            slots[y][x].setValue(getRandomValue());
-            placed++;
         }
+        Metrics.stopTimer(Metrics.Kind.GENERATE_STARTING_BOARD, start);
     }
 
     /**
@@ -95,24 +345,14 @@ public class Game {
         }
     }
 
-    class ElementWithValue {
-        protected Values value = Values.EMPTY;
-        protected ElementWithValue(Values value) {
-            if (value != null) {
-                setValue(value);
-            }
-        }
+    abstract class ElementWithValue {
 
-        public Values getValue() {
-            return value;
-        }
+        public abstract Values getValue();
 
-        public void setValue(Values value) {
-            this.value = value;
-        }
+        public abstract void setValue(Values value);
 
         public void setValueToRandom() {
-            value = getRandomValue();
+            setValue(getRandomValue());
         }
 
         /**
@@ -125,33 +365,43 @@ public class Game {
     }
 
     class Item extends ElementWithValue{
+        private Values value = Values.EMPTY;
 
         /**
          * Class constructor specifying assigned value
          * @param value assigned value
          */
         public Item(Values value) {
-            super(value);
+            if (value != null) {
+                setValue(value);
+            }
+        }
+
+        public Values getValue() {
+            return value;
+        }
+
+        public void setValue(Values value) {
+            if (events != null && value != null && value != this.value) {
+                events.item(this == savedItem, this.value, value);
+            }
+            this.value = value;
         }
     }
 
     /**
-     * Represents a single slot in this game, keeps track of its assigned value, x and y coordinates.
+     * Represents a single slot in this game. It is only a view of one cell of the game's <code>Board</code>, it keeps
+     * nothing but the cell's linear index, so views can be created and dropped freely.
      */
     public class Slot extends ElementWithValue{
-        final private int x;
-        final private int y;
+        final private long index;
 
         /**
-         * Class constructor specifying assigned value, x and y coordinates.
-         * @param x x coordinate
-         * @param y y coordinate
-         * @param value assigned value
+         * Class constructor specifying linear index of the viewed cell.
+         * @param index linear index of the cell
          */
-        public Slot(int x, int y, Values value) {
-            super(value);
-            this.x = x;
-            this.y = y;
+        private Slot(long index) {
+            this.index = index;
         }
 
         /**
@@ -159,7 +409,7 @@ public class Game {
          * @return x coordinate
          */
         public int getX() {
-            return x;
+            return board.getX(index);
         }
 
         /**
@@ -167,22 +417,27 @@ public class Game {
          * @return y coordinate
          */
         public int getY() {
-            return y;
+            return board.getY(index);
+        }
+
+        /**
+         * Gets the linear index of the slot on the board.
+         * @return linear index
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        public Values getValue() {
+            return board.get(index);
         }
 
         /**
-         * Sets this slot's value and adjusts <code>occupiedSlots</code> accordingly.
+         * Sets this slot's value, the board adjusts its number of occupied cells accordingly.
          * @param value newly assigned value
          */
         public void setValue(Values value) {
-            if (this.isOccupied()) {
-                occupiedSlots += value != Values.EMPTY ? 0 : -1;
-            }
-            else {
-                occupiedSlots += value != Values.EMPTY ? 1 : 0;
-            }
-
-            this.value = value;
+            board.set(index, value);
         }
 
         /**
@@ -191,6 +446,20 @@ public class Game {
         public void levelUp() {
             setValue(getValue().levelUp());
         }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Slot && ((Slot) o).index == index && ((Slot) o).game() == Game.this;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(index);
+        }
+
+        private Game game() {
+            return Game.this;
+        }
     }
 
     /**
@@ -217,6 +486,22 @@ public class Game {
         return score;
     }
 
+    /**
+     * Gets the number of moves made, a move ends with a check of its step. Moves taken back are still counted.
+     * @return number of checked steps
+     */
+    public int getMoves() {
+        return moves;
+    }
+
+    /**
+     * Sets the number of moves made, used when a game is loaded.
+     * @param moves number of checked steps
+     */
+    void setMoves(int moves) {
+        this.moves = moves;
+    }
+
     /**
      * Gets the current item of the game.
      * @return current item
@@ -234,13 +519,34 @@ public class Game {
     }
 
     /**
-     * Gets all the slots of the game
+     * Gets all the slots of the game, the views are created on the first call.
      * @return array of all the slots of the game
      */
     public Slot[][] getSlots() {
+        if (slots == null) {
+            slots = createSlots();
+        }
         return slots;
     }
 
+    /**
+     * Gets a view of a single slot without creating views of the whole board.
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return slot at given coordinates
+     */
+    public Slot getSlot(int x, int y) {
+        return slots != null ? slots[y][x] : new Slot(board.index(x, y));
+    }
+
+    /**
+     * Gets the packed board backing the slots of this game.
+     * @return board of this game
+     */
+    public Board getBoard() {
+        return board;
+    }
+
     /**
      * Gets the time that has passed since the beginning of the game.
      * @return elapsed time since the start
@@ -254,6 +560,34 @@ public class Game {
      */
     public void incrementElapsedTime() {
         this.elapsedTime++;
+        if (journal != null) {
+            journal.tick();
+        }
+    }
+
+    /**
+     * Sets the time that has passed since the beginning of the game.
+     * @param elapsedTime elapsed time since the start
+     */
+    void setElapsedTime(int elapsedTime) {
+        this.elapsedTime = elapsedTime;
+    }
+
+    /**
+     * Starts recording actions of the player. The journal has to be created with the seed of this game and before
+     * any action was made.
+     * @param journal journal of this game, null stops recording
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Gets the journal recording this game.
+     * @return journal of this game, null if the game is not recorded
+     */
+    public Journal getJournal() {
+        return journal;
     }
 
     /**
@@ -262,10 +596,29 @@ public class Game {
      * analyze the last step or add score.
      */
     public void makeStep(){
-        if (chosenSlot == null) {
+        if (chosenIndex < 0) {
             return;
         }
 
+        long start = startTimer();
+        long allocated = instrumented ? Metrics.startAllocation() : Metrics.OFF;
+        Values chosenItem = placeChosenItem();
+        updateDangerSlots(chosenItem == Values.DANGER);
+        currentItem.setValueToRandom();
+        if (journal != null) {
+            journal.step(currentItem.getValue());
+        }
+        publishEvents();
+        Metrics.stopAllocation(Metrics.Kind.STEP_ALLOCATION, allocated);
+        Metrics.stopTimer(Metrics.Kind.MAKE_STEP, start);
+    }
+
+    /**
+     * Sets chosen slot's value to the value from <code>savedItem</code> or <code>currentItem</code>, the first part of
+     * <code>makeStep</code>.
+     * @return placed value
+     */
+    Values placeChosenItem() {
         Values chosenItem;
         if (isSavedPicked()) {
             chosenItem = savedItem.getValue();
@@ -276,17 +629,35 @@ public class Game {
             chosenItem = currentItem.getValue();
         }
 
-        chosenSlot.setValue(chosenItem);
+        board.set(chosenIndex, chosenItem);
         if (chosenItem == Values.DANGER) {
-            dangerousSlots.add(chosenSlot);
+            bees.add(chosenIndex);
         }
-
-        updateDangerSlots(chosenItem == Values.DANGER);
-        currentItem.setValueToRandom();
+        return chosenItem;
     }
 
     public void chooseSlot(Slot slot) {
-        chosenSlot = slot.isOccupied() ? null : slot;
+        chooseSlot(slot.getIndex());
+    }
+
+    /**
+     * Chooses the slot used in the next step, occupied slots can't be chosen.
+     * @param x x coordinate
+     * @param y y coordinate
+     */
+    public void chooseSlot(int x, int y) {
+        chooseSlot(board.index(x, y));
+    }
+
+    /**
+     * Chooses the slot used in the next step, occupied slots can't be chosen.
+     * @param index linear index of the slot on the board
+     */
+    public void chooseSlot(long index) {
+        chosenIndex = board.isOccupied(index) ? -1 : index;
+        if (journal != null) {
+            journal.choose(index);
+        }
     }
 
     /**
@@ -302,6 +673,10 @@ public class Game {
 
         savedItem.setValue(currentItem.getValue());
         currentItem.setValueToRandom();
+        if (journal != null) {
+            journal.save(currentItem.getValue());
+        }
+        publishEvents();
     }
 
     /**
@@ -312,6 +687,9 @@ public class Game {
             return;
         }
         pickedSaved = true;
+        if (journal != null) {
+            journal.pick(true);
+        }
     }
 
     /**
@@ -328,169 +706,247 @@ public class Game {
      */
     public void pickCurrentItem() {
         pickedSaved = false;
+        if (journal != null) {
+            journal.pick(false);
+        }
     }
 
     /**
      * Moves all danger values on this board randomly, each takes one step if possible, if any was placed in the last
-     * step, it stays still.
+     * step, it stays still. With a pool set and enough danger values on a board which is not sparse, stripes of the
+     * board move in parallel.
      * @param dangerItemPlaced true if item placed in the last step had a danger value
      */
-    private void updateDangerSlots(boolean dangerItemPlaced) {
-        if (dangerousSlots.isEmpty()) {
+    void updateDangerSlots(boolean dangerItemPlaced) {
+        if (bees.size() == 0) {
             return;
         }
-
-        List<Slot> newDangerSlots = new ArrayList<>();
-
-        int n = dangerousSlots.size();
-        if (dangerItemPlaced) {
-            n -= 1;
-            newDangerSlots.add(dangerousSlots.get(n));
+        long start = startTimer();
+        record(Metrics.Kind.BEES, bees.size());
+        if (beePool != null && bees.size() >= PARALLEL_BEES && !board.isSparse()) {
+            bees.moveInStripes(random.nextLong(), dangerItemPlaced, beePool);
         }
-
-        for (int i = 0; i < n; i++) {
-            Slot c = dangerousSlots.get(i);
-            List<Slot> free = getFreeAdjacent(c);
-            if (free.size() == 0) {
-                newDangerSlots.add(c);
-                continue;
-            }
-
-            int rnd = random.nextInt(free.size());
-            Slot rndSlot = free.get(rnd);
-            c.setValue(Values.EMPTY);
-            rndSlot.setValue(Values.DANGER);
-            newDangerSlots.add(rndSlot);
+        else {
+            bees.move(random, dangerItemPlaced);
         }
-        dangerousSlots = newDangerSlots;
+        Metrics.stopTimer(Metrics.Kind.UPDATE_DANGER_SLOTS, start);
     }
 
     /**
-     * Finds all adjacent slots that aren't occupied.
-     * @param slot central slot
-     * @return list of free adjacent slots
+     * Places a danger value on a free slot outside of a step, it starts moving in the next update.
+     * @param index linear index of a free slot
      */
-    private List<Slot> getFreeAdjacent(Slot slot) {
-        List<Slot> free = new ArrayList<>();
-        int myX = slot.getX();
-        int myY = slot.getY();
+    void placeDanger(long index) {
+        board.set(index, Values.DANGER);
+        bees.add(index);
+        publishEvents();
+    }
 
-        for (int i = 0; i < 4; i++) {
-            int newX = myX - dirs[i][0];
-            int newY = myY - dirs[i][1];
-            if (0 <= newX && 0 <= newY && newX < this.width && newY < this.height) {
-                Slot newSlot = slots[newY][newX];
-                if (!newSlot.isOccupied()) {
-                    free.add(newSlot);
-                }
-            }
-        }
-        return free;
+    /**
+     * Gets the danger values on this board.
+     * @return bees of this game
+     */
+    public Bees getBees() {
+        return bees;
+    }
+
+    /**
+     * Lets danger values move in parallel once there are many of them. Parallel moves are reproducible, but they
+     * differ from moves made one after another.
+     * @param pool pool moving danger values, null moves them one after another
+     */
+    public void setBeePool(ForkJoinPool pool) {
+        beePool = pool;
     }
 
     /**
      * Collects scoring slots -- scoring slots are touching <code>chosenSlot</code> and their values are the same as
-     * <code>chosenSlot</code>'s value.
+     * <code>chosenSlot</code>'s value. Scoring slots are merged and the merged value is checked again, until it stops
+     * scoring.
      * @return true if player has scored in this step
      */
     public boolean checkAdjacency() {
-        if (chosenSlot == null) {
+        if (chosenIndex < 0) {
             return false;
         }
 
-        Values value = chosenSlot.getValue();
+        long start = startTimer();
+        int oldScore = score;
+        moves++;
+        cascadeDepth = 0;
+        while (mergeValues()) {
+            cascadeDepth++;
+        }
+        if (journal != null) {
+            journal.check(score);
+        }
+        if (events != null && isOver()) {
+            events.gameOver(score);
+        }
+        publishEvents();
+        record(Metrics.Kind.CASCADE_DEPTH, cascadeDepth);
+        Metrics.stopTimer(Metrics.Kind.CHECK_ADJACENCY, start);
+
+        return oldScore != score;
+    }
+
+    /**
+     * Merges and levels up values on board after scoring. The chosen slot is levelled up, the rest of scoring slots
+     * are emptied.
+     * @return true if the chosen slot was levelled up and may score again
+     */
+    private boolean mergeValues() {
+        long start = startTimer();
+        boolean merged = mergeCluster();
+        Metrics.stopTimer(Metrics.Kind.MERGE_VALUES, start);
+        return merged;
+    }
+
+    private boolean mergeCluster() {
+        Values value = board.get(chosenIndex);
         if (value == Values.EMPTY || value == Values.DANGER) {
             return false;
         }
 
-        int oldScore = score;
+        int n = board.collectCluster(chosenIndex);
+        record(Metrics.Kind.CLUSTER_SIZE, n);
+        if (n < 3) {
+            return false;
+        }
 
-        Queue<Slot> adjacent = new LinkedList<>();
-        Queue<Slot> checked = new LinkedList<>();
+        changeScore(score + clusterPoints(value, n));
+        long[] scoringSlots = board.getCluster();
+        for (int i = 1; i < n; i++) {
+            board.set(scoringSlots[i], Values.EMPTY);
+        }
+        board.set(chosenIndex, value.levelUp());
+        return true;
+    }
 
-        adjacent.add(chosenSlot);
+    /**
+     * Counts points for merging slots, every slot gives points of its value, each slot after the third one also adds
+     * its order in the merge.
+     * @param value value of merged slots
+     * @param n number of merged slots
+     * @return points for the merge
+     */
+    static int clusterPoints(Values value, int n) {
+        long bonus = n > 3 ? (long) n * (n + 1) / 2 - 6 : 0;
+        return (int) ((long) n * points.get(value) + bonus);
+    }
 
-        while (!adjacent.isEmpty()) {
-            Slot current = adjacent.poll();
-            if (current.getValue() != chosenSlot.getValue()) {
-                continue;
-            }
+    /**
+     * Previews placing the picked item, the saved one if it is picked, into every free slot.
+     * @return results of all placements
+     */
+    public Placements previewPlacements() {
+        return previewPlacements(isSavedPicked() ? savedItem.getValue() : currentItem.getValue());
+    }
 
-            int myX = current.getX();
-            int myY = current.getY();
-
-            for (int i = 0; i < 4; i++) {
-                int newX = myX - dirs[i][0];
-                int newY = myY - dirs[i][1];
-                if (0 <= newX && 0 <= newY && newX < this.width && newY < this.height) {
-                    Slot newSlot = slots[newY][newX];
-                    if (!checked.contains(newSlot) && !adjacent.contains(newSlot)) {
-                        adjacent.add(newSlot);
-                    }
+    /**
+     * Previews placing a value into every free slot in a single pass over candidates of the board, the game doesn't
+     * change. Free slots of a sparse board away from its occupied ones are no candidates, nothing merges there. Every
+     * merge of a placement happens around the placed slot and the slots emptied by one merge hold a different value
+     * than the next merge collects, so all merges are counted from components of the board as it is, read from its
+     * <code>Components</code> index. Bees move before a step is checked, but they never change the components.
+     * @param value placed value
+     * @return results of all placements
+     */
+    public Placements previewPlacements(Values value) {
+        Placements placements = new Placements(value, board.size(), board.isSparse());
+        if (value == Values.EMPTY || value == Values.DANGER) {
+            return placements;
+        }
+        Components components = board.indexComponents();
+        long[] roots = new long[4];
+        int candidates = board.getCandidateCount();
+        for (int k = 0; k < candidates; k++) {
+            long index = board.getCandidate(k);
+            int points = 0;
+            int depth = 0;
+            for (Values v = value; v != Values.EMPTY; v = v.levelUp()) {
+                int n = 1 + touching(components, index, (byte) v.ordinal(), roots);
+                if (n < 3) {
+                    break;
                 }
+                points += clusterPoints(v, n);
+                depth++;
+            }
+            if (depth > 0) {
+                placements.set(index, points, depth);
             }
-            checked.add(current);
         }
-        mergeValues(checked);
-
-        return oldScore != score;
+        return placements;
     }
 
     /**
-     * Merges and levels up values on board after scoring.
-     * @param scoringSlots queue of slots set to be merged
+     * Counts slots of the components with a code touching a slot, each component once.
      */
-    private void mergeValues(Queue<Slot> scoringSlots) {
-        if (scoringSlots.size() >= 3) {
-            Slot slot = scoringSlots.poll();
-            score += points.get(slot.getValue());
-            slot.levelUp();
-            checkAdjacency();
-
-            int cnt = 1;
-
-            while (!scoringSlots.isEmpty()) {
-                Slot c = scoringSlots.poll();
-                cnt++;
-
-                int increment = points.get(c.getValue());
-                score += cnt > 3 ? cnt + increment : increment;
+    private int touching(Components components, long index, byte code, long[] roots) {
+        int x = (int) (index % width);
+        int found = 0;
+        found = touch(components, x > 0 ? index - 1 : -1, code, roots, found);
+        found = touch(components, x < width - 1 ? index + 1 : -1, code, roots, found);
+        found = touch(components, index - width, code, roots, found);
+        found = touch(components, index + width, code, roots, found);
+        int n = 0;
+        for (int r = 0; r < found; r++) {
+            n += components.sizeOf(roots[r]);
+        }
+        return n;
+    }
 
-                c.setValue(Values.EMPTY);
+    private int touch(Components components, long neighbour, byte code, long[] roots, int found) {
+        if (neighbour < 0 || neighbour >= totalSlots || board.code(neighbour) != code) {
+            return found;
+        }
+        long root = components.root(neighbour);
+        for (int r = 0; r < found; r++) {
+            if (roots[r] == root) {
+                return found;
             }
         }
+        roots[found] = root;
+        return found + 1;
     }
 
     /**
-     * Picks random value, each value has a different adjusted probability of it being picked.
+     * Picks random value by the item generator of this game, each value has a different adjusted probability of it
+     * being picked.
      * @return randomly picked value
      */
     public Values getRandomValue() {
-        float r = random.nextFloat();
-
-        if (score > 400) {
-            if (r < 0.1) {
-                return Values.DANGER;
-            }
-        }
-
-        if (r < 0.5) {
-            return Values.LVL1;
-        }
-
-        if (r < 0.7) {
-            return Values.LVL2;
-        }
+        return items.next(score, random);
+    }
 
-        if (r < 0.8) {
-            return Values.LVL3;
-        }
+    /**
+     * Gets the probability of <code>getRandomValue</code> picking a value.
+     * @param value picked value
+     * @param score score of the game when picking
+     * @return probability of the value
+     */
+    double chanceOf(Values value, int score) {
+        return items.chanceOf(value, score);
+    }
 
-        if (r < 0.9) {
-            return Values.LVL4;
-        }
+    /**
+     * Gets the number of merges made by the last <code>checkAdjacency</code> call, each merge after the first one was
+     * caused by the previous merge levelling up the chosen slot.
+     * @return number of merges in the last check
+     */
+    public int getCascadeDepth() {
+        return cascadeDepth;
+    }
 
-        return Values.LVL5;
+    /**
+     * Scrambles a seed, close seeds give unrelated results (SplitMix64 finalizer).
+     * @param z value to scramble
+     * @return scrambled value
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
     }
 
     /**
@@ -506,6 +962,6 @@ public class Game {
      * @return true if all slots are occupied
      */
     public boolean isOver() {
-        return occupiedSlots == totalSlots;
+        return board.getOccupied() == totalSlots;
     }
 }
\ No newline at end of file
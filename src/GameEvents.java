@@ -0,0 +1,380 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Stream of changes of a game, so renderers, journals and network layers can process deltas instead of scanning the
+ * board. The thread owning the game writes events into a ring buffer of primitive arrays allocated once, nothing is
+ * allocated per event. The game publishes what was written as one batch after every operation which changed it; the
+ * batch is copied into a buffer of every subscription and delivered on the executor the subscriber chose. Batches
+ * published while a listener is still busy are joined and delivered together by the next call, a listener is never
+ * called by more threads at once.
+ * <p>
+ * An operation writing more events than the ring holds, or a listener falling more than the ring behind, loses the
+ * oldest events; its next batch is marked overflowed and the listener has to read the whole game again.
+ */
+public final class GameEvents {
+    /**
+     * Default number of events held by the ring.
+     */
+    public static final int CAPACITY = 1 << 14;
+
+    private static final Game.Values[] values = Game.Values.values();
+    private static final Kind[] kinds = Kind.values();
+
+    private final int mask;
+    private final byte[] kindRing;
+    private final long[] aRing;
+    private final long[] bRing;
+    private final int[] cRing;
+    private long written = 0;
+    private long published = 0;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Kind of a change event.
+     */
+    public enum Kind {
+        /**
+         * A cell got a new value, see <code>getIndex</code>, <code>getOld</code> and <code>getNew</code>.
+         */
+        CELL,
+        /**
+         * The score changed, see <code>getDelta</code> and <code>getScore</code>.
+         */
+        SCORE,
+        /**
+         * The current item got a new value, see <code>getOld</code> and <code>getNew</code>.
+         */
+        CURRENT_ITEM,
+        /**
+         * The saved item got a new value, see <code>getOld</code> and <code>getNew</code>.
+         */
+        SAVED_ITEM,
+        /**
+         * A bee moved into a neighbouring cell, see <code>getFrom</code> and <code>getTo</code>; both cells also get
+         * their own <code>CELL</code> events.
+         */
+        BEE_MOVED,
+        /**
+         * The last free cell was taken, see <code>getScore</code>.
+         */
+        GAME_OVER
+    }
+
+    /**
+     * Receiver of batches of events.
+     */
+    public interface Listener {
+
+        /**
+         * Handles a batch of events in the order they happened.
+         * @param batch events published since the previous call, valid only until the call returns
+         */
+        void onBatch(Batch batch);
+    }
+
+    /**
+     * Events delivered to a listener by one call. Every event has a kind and up to three numbers, the accessors name
+     * them by kind.
+     */
+    public static final class Batch {
+        private final byte[] kinds;
+        private final long[] a;
+        private final long[] b;
+        private final int[] c;
+        private int size = 0;
+        private boolean overflowed = false;
+
+        private Batch(int capacity) {
+            kinds = new byte[capacity];
+            a = new long[capacity];
+            b = new long[capacity];
+            c = new int[capacity];
+        }
+
+        /**
+         * Gets the number of events.
+         * @return number of events in the batch
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Checks if events were lost before this batch.
+         * @return true if the listener has to read the whole game again
+         */
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+
+        /**
+         * Gets the kind of an event.
+         * @param i position of the event in the batch
+         * @return kind of the event
+         */
+        public Kind getKind(int i) {
+            return GameEvents.kinds[kinds[i]];
+        }
+
+        /**
+         * Gets the cell of a <code>CELL</code> event.
+         * @param i position of the event in the batch
+         * @return linear index of the cell
+         */
+        public long getIndex(int i) {
+            return a[i];
+        }
+
+        /**
+         * Gets the previous value of a <code>CELL</code> or an item event.
+         * @param i position of the event in the batch
+         * @return value before the change
+         */
+        public Game.Values getOld(int i) {
+            return values[(int) b[i]];
+        }
+
+        /**
+         * Gets the new value of a <code>CELL</code> or an item event.
+         * @param i position of the event in the batch
+         * @return value after the change
+         */
+        public Game.Values getNew(int i) {
+            return values[c[i]];
+        }
+
+        /**
+         * Gets the change of a <code>SCORE</code> event.
+         * @param i position of the event in the batch
+         * @return points added, negative when the score went down
+         */
+        public int getDelta(int i) {
+            return (int) a[i];
+        }
+
+        /**
+         * Gets the score after a <code>SCORE</code> or a <code>GAME_OVER</code> event.
+         * @param i position of the event in the batch
+         * @return score of the game
+         */
+        public int getScore(int i) {
+            return (int) b[i];
+        }
+
+        /**
+         * Gets the cell a bee left in a <code>BEE_MOVED</code> event.
+         * @param i position of the event in the batch
+         * @return linear index of the left cell
+         */
+        public long getFrom(int i) {
+            return a[i];
+        }
+
+        /**
+         * Gets the cell a bee entered in a <code>BEE_MOVED</code> event.
+         * @param i position of the event in the batch
+         * @return linear index of the entered cell
+         */
+        public long getTo(int i) {
+            return b[i];
+        }
+    }
+
+    /**
+     * Listener subscribed to the stream with its executor and the buffers batches are joined in.
+     */
+    public final class Subscription {
+        private final Listener listener;
+        private final Executor executor;
+        private Batch pending;
+        private Batch delivering;
+        private boolean scheduled = false;
+        private volatile boolean closed = false;
+
+        private Subscription(Listener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+            pending = new Batch(kindRing.length);
+            delivering = new Batch(kindRing.length);
+        }
+
+        /**
+         * Copies events from the ring and schedules a delivery unless one is already scheduled.
+         */
+        private void offer(long from, long to, boolean lost) {
+            boolean schedule;
+            synchronized (this) {
+                Batch batch = pending;
+                int n = (int) (to - from);
+                if (lost || batch.size + n > batch.kinds.length) {
+                    batch.overflowed = true;
+                    batch.size = 0;
+                    n = Math.min(n, batch.kinds.length);
+                    from = to - n;
+                }
+                for (int done = 0; done < n; ) {
+                    int slot = (int) ((from + done) & mask);
+                    int run = Math.min(n - done, kindRing.length - slot);
+                    System.arraycopy(kindRing, slot, batch.kinds, batch.size, run);
+                    System.arraycopy(aRing, slot, batch.a, batch.size, run);
+                    System.arraycopy(bRing, slot, batch.b, batch.size, run);
+                    System.arraycopy(cRing, slot, batch.c, batch.size, run);
+                    batch.size += run;
+                    done += run;
+                }
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            if (schedule) {
+                executor.execute(this::deliver);
+            }
+        }
+
+        private void deliver() {
+            Batch batch;
+            synchronized (this) {
+                batch = pending;
+                pending = delivering;
+                delivering = batch;
+            }
+            try {
+                if (!closed) {
+                    listener.onBatch(batch);
+                }
+            }
+            finally {
+                boolean again;
+                synchronized (this) {
+                    batch.size = 0;
+                    batch.overflowed = false;
+                    again = pending.size > 0 || pending.overflowed;
+                    scheduled = again;
+                }
+                if (again) {
+                    executor.execute(this::deliver);
+                }
+            }
+        }
+
+        /**
+         * Stops delivering batches to the listener, a batch being delivered is finished.
+         */
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+        }
+    }
+
+    /**
+     * Class constructor creating a stream with a ring of <code>CAPACITY</code> events.
+     */
+    GameEvents() {
+        this(CAPACITY);
+    }
+
+    /**
+     * Class constructor specifying the size of the ring.
+     * @param capacity number of events held by the ring, a power of two
+     */
+    GameEvents(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity " + capacity + " is not a power of two");
+        }
+        mask = capacity - 1;
+        kindRing = new byte[capacity];
+        aRing = new long[capacity];
+        bRing = new long[capacity];
+        cRing = new int[capacity];
+    }
+
+    /**
+     * Subscribes a listener, it gets the batches published from now on. It can be called by any thread.
+     * @param listener receiver of batches
+     * @param executor executor calling the listener, for example <code>Platform::runLater</code>
+     * @return subscription which can be closed
+     */
+    public Subscription subscribe(Listener listener, Executor executor) {
+        Subscription subscription = new Subscription(listener, executor);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Checks if any listener is subscribed, events are not worth writing otherwise.
+     * @return true if there is a subscription
+     */
+    boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    private void write(Kind kind, long a, long b, int c) {
+        int slot = (int) (written++ & mask);
+        kindRing[slot] = (byte) kind.ordinal();
+        aRing[slot] = a;
+        bRing[slot] = b;
+        cRing[slot] = c;
+    }
+
+    /**
+     * Writes a change of a cell.
+     * @param index linear index of the cell
+     * @param old previous code of the cell
+     * @param code new code of the cell
+     */
+    void cell(long index, byte old, byte code) {
+        write(Kind.CELL, index, old, code);
+    }
+
+    /**
+     * Writes a change of the score.
+     * @param delta points added
+     * @param score new score
+     */
+    void score(int delta, int score) {
+        write(Kind.SCORE, delta, score, 0);
+    }
+
+    /**
+     * Writes a change of an item.
+     * @param saved true for the saved item, false for the current one
+     * @param old previous value
+     * @param value new value
+     */
+    void item(boolean saved, Game.Values old, Game.Values value) {
+        write(saved ? Kind.SAVED_ITEM : Kind.CURRENT_ITEM, 0, old.ordinal(), value.ordinal());
+    }
+
+    /**
+     * Writes a move of a bee, changes of both cells are written by the board.
+     * @param from linear index of the left cell
+     * @param to linear index of the entered cell
+     */
+    void beeMoved(long from, long to) {
+        write(Kind.BEE_MOVED, from, to, 0);
+    }
+
+    /**
+     * Writes the end of the game.
+     * @param score final score
+     */
+    void gameOver(int score) {
+        write(Kind.GAME_OVER, 0, score, 0);
+    }
+
+    /**
+     * Hands events written since the previous publish over to every subscription as one batch.
+     */
+    void publish() {
+        if (written == published) {
+            return;
+        }
+        boolean lost = written - published > kindRing.length;
+        long from = lost ? written - kindRing.length : published;
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(from, written, lost);
+        }
+        published = written;
+    }
+}
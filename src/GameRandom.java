@@ -0,0 +1,53 @@
+import java.util.Random;
+
+/**
+ * Random generator of a game whose state can be read and set again. It is the same linear congruential generator as
+ * <code>java.util.Random</code>, so both draw the same numbers from the same seed, but a replay can store its state
+ * and continue from it later. It is not meant to be shared between threads.
+ */
+public class GameRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state;
+
+    /**
+     * Class constructor specifying the seed.
+     * @param seed initial seed
+     */
+    public GameRandom(long seed) {
+        super(seed);
+        setSeed(seed);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        super.setSeed(seed);
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    /**
+     * Gets the internal state of the generator.
+     * @return 48-bit state
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Sets the internal state of the generator, it continues as it did after the state was read.
+     * @param state 48-bit state read by <code>getState</code>
+     */
+    public void setState(long state) {
+        this.state = state & MASK;
+    }
+}
@@ -0,0 +1,423 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless HTTP server hosting many games at once. Requests are handled on a virtual thread each when the runtime has
+ * them and on a fixed pool of platform threads otherwise. Sessions are kept in a <code>SessionStore</code>, which
+ * confines every game to its own <code>SerialExecutor</code> over a shared fork-join pool, so requests for one game
+ * run in order and requests for different games run in parallel, and moves idle games off the heap. The final score
+ * of every game is submitted to a <code>Leaderboard</code> by the step which ended it.
+ * <p>
+ * Every response is the JSON state of the game, a step also reports its own duration in the
+ * <code>X-Step-Nanos</code> header. Counters of the store are at <code>GET /stats</code>, the best scores and the
+ * percentile rank of a score at <code>GET /leaderboard</code>.
+ * <pre>
+ * POST   /games?width=4&amp;height=4[&amp;seed=1]   creates a game
+ * GET    /games/{id}                         state of the game
+ * POST   /games/{id}/place?index=5           places the picked item, makes a step and checks it; 409 if the
+ *                                            slot is occupied
+ * POST   /games/{id}/save                    saves the current item
+ * POST   /games/{id}/pick?item=saved|current picks an item
+ * DELETE /games/{id}                         ends the session
+ * GET    /stats                              counters of the session store
+ * GET    /leaderboard[?width=4&amp;height=4][&amp;score=100]
+ *                                            best scores of all games or of a board size, rank of the score
+ * </pre>
+ */
+public class GameServer implements Closeable {
+    private static final int MAX_CELLS = 1 << 20;
+    private static final Game.Values[] values = Game.Values.values();
+
+    private final HttpServer server;
+    private final ExecutorService handlers = handlerExecutor();
+    private final ForkJoinPool games = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    private final SessionStore store;
+    private final Leaderboard leaderboard;
+
+    /**
+     * Error answered with a status code.
+     */
+    private static class RequestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Class constructor, the server starts listening right away.
+     * @param address local address, the loopback address keeps the server off the network
+     * @param port listened port, 0 for any free port
+     * @param maxLive number of games kept on the heap
+     * @param ttlNanos time after which an unused game is moved off the heap
+     * @param leaderboard leaderboard final scores are submitted to, it is not closed with the server
+     */
+    public GameServer(InetAddress address, int port, int maxLive, long ttlNanos, Leaderboard leaderboard)
+            throws IOException {
+        this.leaderboard = leaderboard;
+        store = new SessionStore(games, maxLive, ttlNanos);
+        server = HttpServer.create(new InetSocketAddress(address, port), 1024);
+        server.setExecutor(handlers);
+        server.createContext("/games", this::handle);
+        server.createContext("/stats", this::handleStats);
+        server.createContext("/leaderboard", this::handleLeaderboard);
+        server.start();
+    }
+
+    /**
+     * Creates an executor starting a virtual thread for every task when the runtime supports them.
+     */
+    private static ExecutorService handlerExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(4 * Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "server-handler");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Gets the port the server listens on.
+     * @return local port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Gets the store of hosted games.
+     * @return session store
+     */
+    public SessionStore getStore() {
+        return store;
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        send(exchange, 200, "{\"sessions\":" + store.getSessionCount()
+                + ",\"live\":" + store.getLiveCount()
+                + ",\"hits\":" + store.getHits()
+                + ",\"misses\":" + store.getMisses()
+                + ",\"evictions\":" + store.getEvictions()
+                + ",\"spilledBytes\":" + store.getSpilledBytes() + "}", -1);
+    }
+
+    private void handleLeaderboard(HttpExchange exchange) throws IOException {
+        try {
+            expect(exchange.getRequestMethod(), "GET");
+            Map<String, String> query = query(exchange.getRequestURI());
+            boolean sized = query.containsKey("width") || query.containsKey("height");
+            int width = sized ? parseInt(query.get("width")) : 0;
+            int height = sized ? parseInt(query.get("height")) : 0;
+            StringBuilder json = new StringBuilder("{\"count\":")
+                    .append(sized ? leaderboard.getCount(width, height) : leaderboard.getCount());
+            if (query.containsKey("score")) {
+                int score = parseInt(query.get("score"));
+                json.append(",\"rank\":").append(sized ? leaderboard.getPercentileRank(score, width, height)
+                        : leaderboard.getPercentileRank(score));
+            }
+            json.append(",\"top\":[");
+            List<Leaderboard.Entry> top = sized ? leaderboard.getTop(width, height) : leaderboard.getTop();
+            for (int i = 0; i < top.size(); i++) {
+                Leaderboard.Entry entry = top.get(i);
+                json.append(i == 0 ? "" : ",")
+                        .append("{\"score\":").append(entry.getScore())
+                        .append(",\"width\":").append(entry.getWidth())
+                        .append(",\"height\":").append(entry.getHeight())
+                        .append(",\"moves\":").append(entry.getMoves())
+                        .append(",\"elapsedTime\":").append(entry.getElapsedTime())
+                        .append(",\"time\":").append(entry.getTime()).append("}");
+            }
+            send(exchange, 200, json.append("]}").toString(), -1);
+        }
+        catch (RequestException e) {
+            send(exchange, e.status, error(e.getMessage()), -1);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            Map<String, String> query = query(exchange.getRequestURI());
+            String method = exchange.getRequestMethod();
+            if (path.length < 2 || path.length > 4 || !path[1].equals("games")) {
+                throw new RequestException(404, "Unknown path " + exchange.getRequestURI().getPath());
+            }
+            if (path.length == 2) {
+                expect(method, "POST");
+                send(exchange, 200, create(query), -1);
+                return;
+            }
+
+            long id = parseLong(path[2]);
+            SessionStore.Session session = store.get(id);
+            if (session == null) {
+                throw new RequestException(404, "No game " + path[2]);
+            }
+            if (path.length == 3 && method.equals("DELETE")) {
+                store.remove(id);
+                send(exchange, 204, null, -1);
+                return;
+            }
+            if (path.length == 3) {
+                expect(method, "GET");
+                send(exchange, 200, session.call(game -> state(id, game)).join(), -1);
+                return;
+            }
+
+            expect(method, "POST");
+            switch (path[3]) {
+                case "place" -> {
+                    long index = parseLong(query.get("index"));
+                    long[] nanos = new long[1];
+                    String state = session.call(game -> {
+                        long start = System.nanoTime();
+                        if (index < 0 || index >= game.getBoard().size()) {
+                            throw new RequestException(400, "Index " + index + " is outside of the board");
+                        }
+                        boolean over = game.isOver();
+                        game.chooseSlot(index);
+                        if (game.getChosenIndex() < 0) {
+                            throw new RequestException(409, "Slot " + index + " is occupied");
+                        }
+                        game.makeStep();
+                        game.checkAdjacency();
+                        if (!over && game.isOver()) {
+                            leaderboard.submit(game);
+                        }
+                        nanos[0] = System.nanoTime() - start;
+                        return state(id, game);
+                    }).join();
+                    send(exchange, 200, state, nanos[0]);
+                }
+                case "save" -> send(exchange, 200, session.call(game -> {
+                    game.saveItem();
+                    return state(id, game);
+                }).join(), -1);
+                case "pick" -> {
+                    boolean saved = switch (String.valueOf(query.get("item"))) {
+                        case "saved" -> true;
+                        case "current" -> false;
+                        default -> throw new RequestException(400, "Item is saved or current");
+                    };
+                    send(exchange, 200, session.call(game -> {
+                        if (saved) {
+                            game.pickSavedItem();
+                        }
+                        else {
+                            game.pickCurrentItem();
+                        }
+                        return state(id, game);
+                    }).join(), -1);
+                }
+                default -> throw new RequestException(404, "Unknown action " + path[3]);
+            }
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RequestException r) {
+                send(exchange, r.status, error(r.getMessage()), -1);
+            }
+            else if (e.getCause() instanceof NoSuchElementException) {
+                send(exchange, 404, error(e.getCause().getMessage()), -1);
+            }
+            else {
+                send(exchange, 500, error(String.valueOf(e.getCause())), -1);
+            }
+        }
+        catch (RequestException e) {
+            send(exchange, e.status, error(e.getMessage()), -1);
+        }
+        catch (RuntimeException e) {
+            send(exchange, 500, error(e.toString()), -1);
+        }
+    }
+
+    private String create(Map<String, String> query) {
+        int width = query.containsKey("width") ? parseInt(query.get("width")) : 4;
+        int height = query.containsKey("height") ? parseInt(query.get("height")) : 4;
+        if (width <= 0 || height <= 0 || (long) width * height > MAX_CELLS) {
+            throw new RequestException(400, "Board size " + width + "x" + height + " is not allowed");
+        }
+        long seed = query.containsKey("seed") ? parseLong(query.get("seed")) : ThreadLocalRandom.current().nextLong();
+        SessionStore.Session session = store.create(new Game(width, height, seed));
+        return session.call(game -> state(session.getId(), game)).join();
+    }
+
+    private static void expect(String method, String expected) {
+        if (!method.equals(expected)) {
+            throw new RequestException(405, "Method " + method + " is not allowed");
+        }
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> query = new HashMap<>();
+        if (uri.getRawQuery() == null) {
+            return query;
+        }
+        for (String pair : uri.getRawQuery().split("&")) {
+            String[] kv = pair.split("=", 2);
+            query.put(kv[0], kv.length > 1 ? kv[1] : "");
+        }
+        return query;
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(String.valueOf(value));
+        }
+        catch (NumberFormatException e) {
+            throw new RequestException(400, "Not a number: " + value);
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException e) {
+            throw new RequestException(400, "Not a number: " + value);
+        }
+    }
+
+    /**
+     * Writes the state of a game as JSON, cells are a string of value codes in row order.
+     */
+    private static String state(long id, Game game) {
+        Board board = game.getBoard();
+        StringBuilder json = new StringBuilder(160 + (int) board.size());
+        json.append("{\"id\":").append(id)
+                .append(",\"width\":").append(board.getWidth())
+                .append(",\"height\":").append(board.getHeight())
+                .append(",\"score\":").append(game.getScore())
+                .append(",\"current\":\"").append(game.getCurrentItem().getValue())
+                .append("\",\"saved\":\"").append(game.getSavedItem().getValue())
+                .append("\",\"pickedSaved\":").append(game.isSavedPicked())
+                .append(",\"over\":").append(game.isOver())
+                .append(",\"values\":\"");
+        for (int i = 0; i < values.length; i++) {
+            json.append(i == 0 ? "" : ",").append(values[i]);
+        }
+        json.append("\",\"cells\":\"");
+        for (long i = 0; i < board.size(); i++) {
+            json.append((char) ('0' + board.code(i)));
+        }
+        return json.append("\"}").toString();
+    }
+
+    private static String error(String message) {
+        return "{\"error\":\"" + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+    }
+
+    private static void send(HttpExchange exchange, int status, String body, long stepNanos) throws IOException {
+        if (stepNanos >= 0) {
+            exchange.getResponseHeaders().set("X-Step-Nanos", Long.toString(stepNanos));
+        }
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Stops accepting requests, waits a second for running ones and stops all threads.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        store.close();
+        handlers.shutdown();
+        games.shutdown();
+        try {
+            games.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Turns off Nagle's algorithm on the connections of HTTP servers created afterwards, unless it was configured by
+     * <code>-Dsun.net.httpserver.nodelay</code>. The server writes headers and body separately, with Nagle's algorithm
+     * each response waits for a delayed ACK. The property is read once, when the first HTTP server is created.
+     */
+    static void useNoDelay() {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    /**
+     * Runs the server until it is killed. Arguments are <code>--port=8080</code>, <code>--max-live=10000</code> games
+     * on the heap, <code>--ttl=60</code> seconds an unused game stays on the heap, <code>--leaderboard=DIR</code>,
+     * the directory scores are kept in instead of only in memory, <code>--metrics=SECONDS</code>, which records
+     * <code>Metrics</code>, registers them over JMX and prints them periodically unless the period is 0, and
+     * <code>--public</code>, which listens on all interfaces instead of only the loopback one.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        int maxLive = 10_000;
+        long ttl = 60;
+        String scores = null;
+        long metrics = -1;
+        InetAddress address = InetAddress.getLoopbackAddress();
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            String value = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "port" -> port = Integer.parseInt(value);
+                case "max-live" -> maxLive = Integer.parseInt(value);
+                case "ttl" -> ttl = Long.parseLong(value);
+                case "leaderboard" -> scores = value;
+                case "metrics" -> metrics = value.isEmpty() ? 0 : Long.parseLong(value);
+                case "public" -> address = new InetSocketAddress(0).getAddress();
+                default -> throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+        if (metrics >= 0) {
+            Metrics.setEnabled(true);
+            Metrics.register();
+            if (metrics > 0) {
+                Metrics.startDump(System.out, metrics);
+            }
+        }
+        useNoDelay();
+        Leaderboard leaderboard = scores == null ? new Leaderboard(100) : new Leaderboard(Paths.get(scores), 100);
+        Runtime.getRuntime().addShutdownHook(new Thread(leaderboard::close, "leaderboard-close"));
+        GameServer server = new GameServer(address, port, maxLive, TimeUnit.SECONDS.toNanos(ttl), leaderboard);
+        System.out.println("Serving games on " + address.getHostAddress() + ":" + server.getPort());
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram of non-negative values. Every power of two range is split into <code>SUB_BUCKETS</code> equal
+ * buckets, so recorded values keep 4 significant bits of precision no matter how big they are. It is not thread
+ * safe, each thread records into its own histogram and histograms are merged afterwards.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB_BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /**
+     * Records a single value, negative values are recorded as 0.
+     * @param value recorded value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[bucket(value)]++;
+        count++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Adds all values recorded by another histogram to this one.
+     * @param other merged histogram
+     */
+    public void merge(Histogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Forgets all recorded values.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * Gets the number of recorded values.
+     * @return number of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the sum of recorded values.
+     * @return sum of values
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Gets the smallest recorded value.
+     * @return smallest value, 0 if nothing was recorded
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * Gets the biggest recorded value.
+     * @return biggest value, 0 if nothing was recorded
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the mean of recorded values.
+     * @return mean value, 0 if nothing was recorded
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Gets the value below which the given fraction of recorded values lie, reported as the upper end of its bucket.
+     * @param fraction fraction of values between 0 and 1
+     * @return value at the given percentile, 0 if nothing was recorded
+     */
+    public long getPercentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, Math.max(min, highest(i)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Gets the bucket a value is counted in.
+     * @param value non-negative value
+     * @return index of the bucket
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Gets the biggest value counted in a bucket.
+     * @param bucket index of the bucket
+     * @return upper end of the bucket
+     */
+    static long highest(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,179 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Undo and redo of a game's moves. A snapshot is committed after every move, snapshots share all chunks of the board
+ * the moves didn't touch, so restoring any of them writes only the chunks that differ from the current one. When
+ * snapshots take more than the memory budget, the oldest ones are dropped.
+ */
+public class History {
+    private static final long DEFAULT_BUDGET = 4 << 20;
+
+    private final Game game;
+    private final Board.Changes changes;
+    private final long maxBytes;
+    private final List<Snapshot> snapshots;
+    private int position = 0;
+    private long bytes = 0;
+
+    /**
+     * Class constructor specifying the game, history takes a few megabytes at most.
+     * @param game game in between moves, its current state is the first snapshot
+     */
+    public History(Game game) {
+        this(game, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Class constructor specifying the game and the memory budget.
+     * @param game game in between moves, its current state is the first snapshot
+     * @param maxBytes memory taken by snapshots after the first one kept
+     */
+    public History(Game game, long maxBytes) {
+        this.game = game;
+        this.maxBytes = maxBytes;
+        changes = game.getBoard().trackChanges();
+        snapshots = new ArrayList<>();
+        snapshots.add(Snapshot.of(game, changes, null));
+        if (game.getJournal() != null) {
+            game.getJournal().history();
+        }
+    }
+
+    private History(History other) {
+        game = other.game;
+        changes = other.changes;
+        maxBytes = other.maxBytes;
+        snapshots = new ArrayList<>(other.snapshots);
+        position = other.position;
+        bytes = other.bytes;
+    }
+
+    /**
+     * Copies this history, the copy shares snapshots and tracked changes of the board, so only one of them can be used
+     * at a time.
+     * @return copy of this history
+     */
+    History copy() {
+        return new History(this);
+    }
+
+    /**
+     * Marks every chunk of the board as changed, used when the board was set without the history knowing.
+     */
+    void resync() {
+        changes.markAll();
+    }
+
+    /**
+     * Records the state of the game after a move, moves undone before are forgotten. Nothing is recorded if the game
+     * didn't change.
+     * @return true if a snapshot was added
+     */
+    public boolean commit() {
+        if (game.getJournal() != null) {
+            game.getJournal().commit();
+        }
+        Snapshot current = snapshots.get(position);
+        if (changes.size() == 0 && current.sameState(game)) {
+            return false;
+        }
+        while (snapshots.size() > position + 1) {
+            bytes -= snapshots.remove(snapshots.size() - 1).getBytes();
+        }
+
+        Snapshot next = Snapshot.of(game, changes, current);
+        snapshots.add(next);
+        bytes += next.getBytes();
+        position++;
+
+        while (bytes > maxBytes && snapshots.size() > 2) {
+            snapshots.remove(0);
+            bytes -= snapshots.get(0).getBytes();
+            position--;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if there is a move to undo.
+     * @return true if the game is not at the oldest kept snapshot
+     */
+    public boolean canUndo() {
+        return position > 0;
+    }
+
+    /**
+     * Checks if there is an undone move to redo.
+     * @return true if the game is not at the newest snapshot
+     */
+    public boolean canRedo() {
+        return position + 1 < snapshots.size();
+    }
+
+    /**
+     * Returns the game to the state before the last move.
+     * @return true if a move was undone
+     */
+    public boolean undo() {
+        return canUndo() && jump(position - 1);
+    }
+
+    /**
+     * Makes the last undone move again.
+     * @return true if a move was redone
+     */
+    public boolean redo() {
+        return canRedo() && jump(position + 1);
+    }
+
+    /**
+     * Returns the game to any kept snapshot, moves after it can be redone until the next commit.
+     * @param target number of the snapshot, 0 is the oldest one kept
+     * @return true if the game was changed
+     */
+    public boolean jump(int target) {
+        if (target < 0 || target >= snapshots.size()) {
+            throw new IndexOutOfBoundsException("No snapshot " + target);
+        }
+        if (game.getJournal() != null) {
+            game.getJournal().jump(target - position);
+        }
+        snapshots.get(target).restore(game, snapshots.get(position), changes);
+        boolean changed = target != position;
+        position = target;
+        return changed;
+    }
+
+    /**
+     * Gets the number of the snapshot the game is at.
+     * @return number of the current snapshot
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Gets the number of kept snapshots.
+     * @return number of snapshots
+     */
+    public int size() {
+        return snapshots.size();
+    }
+
+    /**
+     * Gets the snapshot the game is at.
+     * @return current snapshot
+     */
+    public Snapshot getCurrent() {
+        return snapshots.get(position);
+    }
+
+    /**
+     * Gets an estimate of the memory taken by snapshots after the oldest one kept.
+     * @return number of bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,102 @@
+import java.util.Random;
+
+/**
+ * Draws the values of new current items and of the starting board. A generator holds no state of its own, it draws
+ * from the random generator of the game, so games with the same seed and the same generator play out the same. The
+ * name of the generator is recorded in journals, a replay finds it by <code>forName</code>.
+ */
+public interface ItemGenerator {
+
+    /**
+     * Draws a value.
+     * @param score score of the game when drawing
+     * @param random random generator of the game
+     * @return drawn value, never <code>EMPTY</code>
+     */
+    Game.Values next(int score, Random random);
+
+    /**
+     * Gets the probability of <code>next</code> drawing a value.
+     * @param value drawn value
+     * @param score score of the game when drawing
+     * @return probability of the value
+     */
+    double chanceOf(Game.Values value, int score);
+
+    /**
+     * Gets the tier of the distribution drawn from at a score, scores of the same tier draw every value with the same
+     * probability.
+     * @param score score of the game when drawing
+     * @return index of the tier, 0 for the lowest scores
+     */
+    int tier(int score);
+
+    /**
+     * Gets the name of the generator recorded in journals.
+     * @return name of the generator
+     */
+    String getName();
+
+    /**
+     * Draws from alias tables with a single 32-bit draw, danger values come only after a score of 400.
+     */
+    ItemGenerator ALIAS = AliasGenerator.standard("alias");
+
+    /**
+     * Walks cumulative thresholds with a single float draw, the same distribution as <code>ALIAS</code>. It is the
+     * generator of journals recorded before generators were named.
+     */
+    ItemGenerator THRESHOLDS = new ItemGenerator() {
+        private final Game.Values[] thresholdValues = {Game.Values.DANGER, Game.Values.LVL1, Game.Values.LVL2,
+                Game.Values.LVL3, Game.Values.LVL4, Game.Values.LVL5};
+        private final double[] limits = {0.1, 0.5, 0.7, 0.8, 0.9, 1.0};
+
+        @Override
+        public Game.Values next(int score, Random random) {
+            float r = random.nextFloat();
+
+            for (int i = score > AliasGenerator.DANGER_SCORE ? 0 : 1; i < limits.length - 1; i++) {
+                if (r < limits[i]) {
+                    return thresholdValues[i];
+                }
+            }
+
+            return Game.Values.LVL5;
+        }
+
+        @Override
+        public double chanceOf(Game.Values value, int score) {
+            int first = score > AliasGenerator.DANGER_SCORE ? 0 : 1;
+            for (int i = first; i < thresholdValues.length; i++) {
+                if (thresholdValues[i] == value) {
+                    return limits[i] - (i == first ? 0 : limits[i - 1]);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public int tier(int score) {
+            return score > AliasGenerator.DANGER_SCORE ? 1 : 0;
+        }
+
+        @Override
+        public String getName() {
+            return "thresholds";
+        }
+    };
+
+    /**
+     * Finds a generator by its name.
+     * @param name name returned by <code>getName</code>
+     * @return generator
+     * @throws IllegalArgumentException if no generator has the name
+     */
+    static ItemGenerator forName(String name) {
+        return switch (name) {
+            case "alias" -> ALIAS;
+            case "thresholds" -> THRESHOLDS;
+            default -> throw new IllegalArgumentException("Unknown item generator " + name);
+        };
+    }
+}
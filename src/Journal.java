@@ -0,0 +1,273 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Append-only record of a game. The header holds the size of the board, the seed of the game and the name of its
+ * item generator, every action of the player follows as a single tag byte and varint arguments; chosen slots are long
+ * varints. Steps and saves also record the value drawn for the new current item and checks the score after them, so
+ * a replay notices when it stops drawing the same values.
+ * <p>
+ * The file is memory-mapped in regions of one megabyte and records are written straight into the mapping, a new
+ * region is mapped only when the last one fills up; the filled region is forced to the storage device first. Unused
+ * space of the last region stays zero, which reads as the end of the journal, and closing the journal truncates the
+ * file to the written records.
+ */
+public class Journal implements Closeable {
+    static final int MAGIC = 0x334a4e4c;
+    static final int VERSION = 1;
+
+    static final byte END = 0;
+    static final byte CHOOSE = 1;
+    static final byte SAVE = 2;
+    static final byte PICK_SAVED = 3;
+    static final byte PICK_CURRENT = 4;
+    static final byte STEP = 5;
+    static final byte CHECK = 6;
+    static final byte TICK = 7;
+    static final byte COMMIT = 8;
+    static final byte JUMP = 9;
+    static final byte HISTORY = 10;
+
+    private static final int REGION = 1 << 20;
+    private static final int MAX_RECORD = 16;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long regionStart = 0;
+
+    /**
+     * Class constructor creating a journal of a new game, an existing file is overwritten.
+     * @param path written file
+     * @param width number of columns in the game's grid
+     * @param height number of rows in the game's grid
+     * @param seed seed the game was created with
+     * @param items item generator of the game
+     */
+    public Journal(Path path, int width, int height, long seed, ItemGenerator items) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION);
+        buffer.putInt(MAGIC);
+        writeVarint(VERSION);
+        writeVarint(width);
+        writeVarint(height);
+        buffer.putLong(seed);
+        byte[] name = items.getName().getBytes(StandardCharsets.UTF_8);
+        if (name.length > 255) {
+            throw new IOException("Name of item generator " + items.getName() + " is too long");
+        }
+        writeVarint(name.length);
+        buffer.put(name);
+    }
+
+    /**
+     * Records a chosen slot.
+     * @param index linear index passed to <code>chooseSlot</code>
+     */
+    void choose(long index) {
+        ensure();
+        buffer.put(CHOOSE);
+        writeVarlong(index);
+    }
+
+    /**
+     * Records a saved item.
+     * @param drawn value drawn for the new current item
+     */
+    void save(Game.Values drawn) {
+        ensure();
+        buffer.put(SAVE);
+        buffer.put((byte) drawn.ordinal());
+    }
+
+    /**
+     * Records which item is picked for the next step.
+     * @param saved true if the saved item was picked
+     */
+    void pick(boolean saved) {
+        ensure();
+        buffer.put(saved ? PICK_SAVED : PICK_CURRENT);
+    }
+
+    /**
+     * Records a step.
+     * @param drawn value drawn for the new current item
+     */
+    void step(Game.Values drawn) {
+        ensure();
+        buffer.put(STEP);
+        buffer.put((byte) drawn.ordinal());
+    }
+
+    /**
+     * Records a check of the last step.
+     * @param score score after the check
+     */
+    void check(int score) {
+        ensure();
+        buffer.put(CHECK);
+        writeVarint(score);
+    }
+
+    /**
+     * Records a second of elapsed time.
+     */
+    void tick() {
+        ensure();
+        buffer.put(TICK);
+    }
+
+    /**
+     * Records the start of the game's history.
+     */
+    void history() {
+        ensure();
+        buffer.put(HISTORY);
+    }
+
+    /**
+     * Records a commit of the game's history.
+     */
+    void commit() {
+        ensure();
+        buffer.put(COMMIT);
+    }
+
+    /**
+     * Records a jump in the game's history.
+     * @param delta number of snapshots jumped, negative when going back
+     */
+    void jump(int delta) {
+        ensure();
+        buffer.put(JUMP);
+        writeVarint((delta << 1) ^ (delta >> 31));
+    }
+
+    /**
+     * Gets the number of bytes written so far.
+     * @return length of the journal
+     */
+    public long length() {
+        return regionStart + buffer.position();
+    }
+
+    /**
+     * Writes records to the storage device, records already survive a crash of the process without it.
+     */
+    public void flush() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        try {
+            channel.truncate(length());
+        }
+        catch (IOException e) {
+            // some systems refuse to truncate a file which is still mapped, the zeros left after the records read as
+            // the end of the journal anyway
+        }
+        channel.close();
+    }
+
+    /**
+     * Deletes the oldest journals of a directory, so that at most the given number of them is left.
+     * @param directory directory of the journals, files with the extension <code>.3xj</code> are journals
+     * @param kept number of newest journals kept
+     */
+    public static void prune(Path directory, int kept) throws IOException {
+        List<Path> journals = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".3xj")).forEach(journals::add);
+        }
+        if (journals.size() <= kept) {
+            return;
+        }
+        Map<Path, FileTime> times = new HashMap<>();
+        for (Path journal : journals) {
+            times.put(journal, Files.getLastModifiedTime(journal));
+        }
+        journals.sort(Comparator.comparing(times::get));
+        for (int i = 0; i < journals.size() - kept; i++) {
+            Files.deleteIfExists(journals.get(i));
+        }
+    }
+
+    private void ensure() {
+        if (buffer.remaining() >= MAX_RECORD) {
+            return;
+        }
+        try {
+            buffer.force();
+            regionStart += buffer.position();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, REGION);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void writeVarlong(long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned varint written by a journal.
+     * @param buffer read buffer
+     * @return read value
+     */
+    static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Reads an unsigned long varint written by a journal.
+     * @param buffer read buffer
+     * @return read value
+     */
+    static long readVarlong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
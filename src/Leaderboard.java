@@ -0,0 +1,801 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32C;
+
+/**
+ * Final scores of finished games, ranked among all games and among games of the same board size. Every ranking counts
+ * scores in a log-linear histogram like <code>Histogram</code>, which answers percentile ranks, and keeps the top
+ * <code>k</code> entries. Submissions run in parallel: a thread takes one of <code>STRIPES</code> stripes by its hash
+ * and locks only that stripe, every ranking keeps a histogram and top entries per stripe. Queries never lock, counts
+ * are atomic and the top entries of a stripe are an immutable array replaced when an entry gets in, so a query sums
+ * or merges the stripes while submissions go on. A score which doesn't beat the lowest top entry allocates nothing.
+ * <p>
+ * A leaderboard kept in a directory also appends every submission to a log. Each stripe fills its own block of
+ * varint records and hands it to a writer thread when it is full, the writer also takes partial blocks every
+ * <code>FLUSH_MILLIS</code> and writes every block with its length and CRC32C checksum, so a crash loses at most the
+ * submissions of the last flush and a torn block at the end of the log is recognized. Every
+ * <code>CHECKPOINT_SECONDS</code> and when the leaderboard is closed a new log is started, everything submitted before
+ * it is written into a compact snapshot -- non-empty buckets of the histograms and the top entries -- and older logs
+ * are deleted. Opening the directory loads the snapshot and replays the logs started after it.
+ */
+public class Leaderboard implements Closeable {
+    static final int MAGIC = 0x334c4244;
+    static final int VERSION = 1;
+
+    private static final int STRIPES = 64;
+    private static final int BUCKETS = Histogram.bucket(Integer.MAX_VALUE) + 1;
+    private static final int MAX_SIZES = 4096;
+    private static final int BLOCK = 1 << 16;
+    private static final int BLOCK_HEADER = 8;
+    private static final int MAX_RECORD = 5 * 5 + 10;
+    private static final long FLUSH_MILLIS = 100;
+    private static final long CHECKPOINT_SECONDS = 60;
+    private static final String SNAPSHOT = "leaderboard.3xl";
+    private static final Comparator<Entry> order = Comparator.comparingInt(Entry::getScore).reversed()
+            .thenComparingLong(Entry::getTime);
+
+    private final int k;
+    private final Path directory;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final Ranking global = new Ranking(0, 0);
+    private final ConcurrentHashMap<Long, Ranking> sizes = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Block> filled = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService writer;
+    private FileChannel log = null;
+    private FileChannel previousLog = null;
+    private long generation = 0;
+
+    /**
+     * Final score of a game.
+     */
+    public static final class Entry {
+        private final int score;
+        private final int width;
+        private final int height;
+        private final int moves;
+        private final int elapsedTime;
+        private final long time;
+
+        private Entry(int score, int width, int height, int moves, int elapsedTime, long time) {
+            this.score = score;
+            this.width = width;
+            this.height = height;
+            this.moves = moves;
+            this.elapsedTime = elapsedTime;
+            this.time = time;
+        }
+
+        /**
+         * Gets the final score.
+         * @return score
+         */
+        public int getScore() {
+            return score;
+        }
+
+        /**
+         * Gets the number of columns of the game's board.
+         * @return number of columns
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * Gets the number of rows of the game's board.
+         * @return number of rows
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Gets the number of moves the game took.
+         * @return number of moves
+         */
+        public int getMoves() {
+            return moves;
+        }
+
+        /**
+         * Gets the time the game took.
+         * @return elapsed time
+         */
+        public int getElapsedTime() {
+            return elapsedTime;
+        }
+
+        /**
+         * Gets the time of the submission, an earlier entry ranks before a later one with the same score.
+         * @return milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * Scores of all games or of games of one board size.
+     */
+    private final class Ranking {
+        private final int width;
+        private final int height;
+        private final AtomicReferenceArray<Part> parts = new AtomicReferenceArray<>(STRIPES);
+
+        private Ranking(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Gets the part of a stripe, it is created when the stripe first uses it. It is called under the stripe's lock.
+         */
+        private Part part(int stripe) {
+            Part part = parts.get(stripe);
+            if (part == null) {
+                part = new Part();
+                parts.set(stripe, part);
+            }
+            return part;
+        }
+    }
+
+    /**
+     * Scores of a ranking submitted through one stripe, it is changed only under the stripe's lock.
+     */
+    private final class Part {
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private volatile Entry[] top = new Entry[0];
+
+        private void count(int bucket, long n) {
+            counts.setRelease(bucket, counts.getPlain(bucket) + n);
+        }
+
+        private boolean enters(int score) {
+            Entry[] top = this.top;
+            return top.length < k || score > top[top.length - 1].score;
+        }
+
+        /**
+         * Replaces the top entries by a copy with the entry after all entries with at least its score, the entry
+         * has to enter.
+         */
+        private void insert(Entry entry) {
+            Entry[] top = this.top;
+            int at = top.length;
+            while (at > 0 && top[at - 1].score < entry.score) {
+                at--;
+            }
+            Entry[] next = new Entry[Math.min(k, top.length + 1)];
+            System.arraycopy(top, 0, next, 0, at);
+            next[at] = entry;
+            System.arraycopy(top, at, next, at + 1, next.length - at - 1);
+            this.top = next;
+        }
+    }
+
+    /**
+     * Lock of a share of submissions with the log block they are written into.
+     */
+    private static final class Stripe {
+        private final int index;
+        private long generation = 0;
+        private ByteBuffer block = null;
+        private long cachedKey = 0;
+        private Ranking cached = null;
+
+        private Stripe(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Block of log records handed over to the writer.
+     */
+    private static final class Block {
+        private final long generation;
+        private final ByteBuffer bytes;
+
+        private Block(long generation, ByteBuffer bytes) {
+            this.generation = generation;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Class constructor of a leaderboard kept only in memory.
+     * @param k number of top entries of every ranking
+     */
+    public Leaderboard(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Leaderboard needs at least one top entry");
+        }
+        this.k = k;
+        this.directory = null;
+        this.writer = null;
+        for (int s = 0; s < STRIPES; s++) {
+            stripes[s] = new Stripe(s);
+        }
+    }
+
+    /**
+     * Class constructor of a leaderboard kept in a directory, the snapshot and logs found there are loaded.
+     * @param directory directory of the snapshot and logs, it is created if there is none
+     * @param k number of top entries of every ranking
+     * @throws IOException if the directory can't be used or the snapshot is corrupted
+     */
+    public Leaderboard(Path directory, int k) throws IOException {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Leaderboard needs at least one top entry");
+        }
+        this.k = k;
+        this.directory = Files.createDirectories(directory);
+        for (int s = 0; s < STRIPES; s++) {
+            stripes[s] = new Stripe(s);
+        }
+        long first = readSnapshot();
+        generation = first;
+        for (long g : logGenerations()) {
+            if (g >= first) {
+                replay(logPath(g));
+                generation = g + 1;
+            }
+        }
+        log = openLog(generation);
+        for (Stripe stripe : stripes) {
+            stripe.generation = generation;
+            stripe.block = newBlock();
+        }
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "leaderboard-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        writer.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        writer.scheduleWithFixedDelay(() -> checkpoint(false), CHECKPOINT_SECONDS, CHECKPOINT_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Gets the number of top entries kept.
+     * @return number of entries of every ranking
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Submits the final score of a game, it has to be called by the thread owning the game.
+     * @param game finished game
+     */
+    public void submit(Game game) {
+        submit(game.getScore(), game.getWidth(), game.getHeight(), game.getMoves(), game.getElapsedTime());
+    }
+
+    /**
+     * Submits a final score. It waits only for submissions of other threads sharing its stripe, never for queries or
+     * for the log to be written.
+     * @param score final score
+     * @param width number of columns of the game's board
+     * @param height number of rows of the game's board
+     * @param moves number of moves the game took
+     * @param elapsedTime time the game took
+     */
+    public void submit(int score, int width, int height, int moves, int elapsedTime) {
+        if (score < 0 || width <= 0 || height <= 0 || moves < 0 || elapsedTime < 0) {
+            throw new IllegalArgumentException("Score " + score + " of a " + width + "x" + height + " game is invalid");
+        }
+        long time = System.currentTimeMillis();
+        Stripe stripe = stripes[(int) Game.mix(Thread.currentThread().hashCode()) & (STRIPES - 1)];
+        synchronized (stripe) {
+            add(stripe, score, width, height, moves, elapsedTime, time);
+            if (stripe.block != null) {
+                append(stripe, score, width, height, moves, elapsedTime, time);
+            }
+        }
+    }
+
+    private void add(Stripe stripe, int score, int width, int height, int moves, int elapsedTime, long time) {
+        Part all = global.part(stripe.index);
+        Ranking ranking = ranking(stripe, width, height);
+        Part own = ranking == null ? null : ranking.part(stripe.index);
+        int bucket = Histogram.bucket(score);
+        all.count(bucket, 1);
+        if (own != null) {
+            own.count(bucket, 1);
+        }
+        boolean intoAll = all.enters(score);
+        boolean intoOwn = own != null && own.enters(score);
+        if (intoAll || intoOwn) {
+            Entry entry = new Entry(score, width, height, moves, elapsedTime, time);
+            if (intoAll) {
+                all.insert(entry);
+            }
+            if (intoOwn) {
+                own.insert(entry);
+            }
+        }
+    }
+
+    /**
+     * Finds the ranking of a board size, it is created on first use unless there are <code>MAX_SIZES</code> already.
+     * The last ranking found is cached in the stripe. It is called under the stripe's lock.
+     * @return ranking of the size, null if the size is counted only among all games
+     */
+    private Ranking ranking(Stripe stripe, int width, int height) {
+        long key = key(width, height);
+        if (stripe.cachedKey != key) {
+            Ranking ranking = sizes.get(key);
+            if (ranking == null && sizes.size() < MAX_SIZES) {
+                ranking = sizes.computeIfAbsent(key, any -> new Ranking(width, height));
+            }
+            stripe.cachedKey = key;
+            stripe.cached = ranking;
+        }
+        return stripe.cached;
+    }
+
+    private static long key(int width, int height) {
+        return (long) width << 32 | height;
+    }
+
+    /**
+     * Gets the best entries among all games.
+     * @return at most <code>k</code> entries from the best
+     */
+    public List<Entry> getTop() {
+        return top(global);
+    }
+
+    /**
+     * Gets the best entries among games of a board size.
+     * @param width number of columns
+     * @param height number of rows
+     * @return at most <code>k</code> entries from the best, empty if the size has no ranking
+     */
+    public List<Entry> getTop(int width, int height) {
+        Ranking ranking = sizes.get(key(width, height));
+        return ranking == null ? new ArrayList<>() : top(ranking);
+    }
+
+    /**
+     * Gets the number of submitted scores.
+     * @return number of scores of all games
+     */
+    public long getCount() {
+        return count(global);
+    }
+
+    /**
+     * Gets the number of submitted scores of a board size.
+     * @param width number of columns
+     * @param height number of rows
+     * @return number of scores, 0 if the size has no ranking
+     */
+    public long getCount(int width, int height) {
+        Ranking ranking = sizes.get(key(width, height));
+        return ranking == null ? 0 : count(ranking);
+    }
+
+    /**
+     * Gets the share of submitted scores lower than a score, scores within a bucket of the histogram are taken as
+     * spread evenly.
+     * @param score ranked score
+     * @return fraction of all games between 0 and 1, 0 if nothing was submitted
+     */
+    public double getPercentileRank(int score) {
+        return rank(global, score);
+    }
+
+    /**
+     * Gets the share of submitted scores of a board size lower than a score, like <code>getPercentileRank</code>.
+     * @param score ranked score
+     * @param width number of columns
+     * @param height number of rows
+     * @return fraction of games of the size between 0 and 1, 0 if the size has no ranking
+     */
+    public double getPercentileRank(int score, int width, int height) {
+        Ranking ranking = sizes.get(key(width, height));
+        return ranking == null ? 0 : rank(ranking, score);
+    }
+
+    private List<Entry> top(Ranking ranking) {
+        List<Entry> merged = new ArrayList<>();
+        for (int s = 0; s < STRIPES; s++) {
+            Part part = ranking.parts.get(s);
+            if (part != null) {
+                merged.addAll(Arrays.asList(part.top));
+            }
+        }
+        merged.sort(order);
+        return merged.size() > k ? new ArrayList<>(merged.subList(0, k)) : merged;
+    }
+
+    private long count(Ranking ranking) {
+        long count = 0;
+        for (int s = 0; s < STRIPES; s++) {
+            Part part = ranking.parts.get(s);
+            for (int i = 0; part != null && i < BUCKETS; i++) {
+                count += part.counts.get(i);
+            }
+        }
+        return count;
+    }
+
+    private double rank(Ranking ranking, int score) {
+        if (score <= 0) {
+            return 0;
+        }
+        int bucket = Histogram.bucket(score);
+        long lowest = bucket == 0 ? 0 : Histogram.highest(bucket - 1) + 1;
+        double within = (double) (score - lowest) / (Histogram.highest(bucket) - lowest + 1);
+        long total = 0;
+        double below = 0;
+        for (int s = 0; s < STRIPES; s++) {
+            Part part = ranking.parts.get(s);
+            for (int i = 0; part != null && i < BUCKETS; i++) {
+                long n = part.counts.get(i);
+                total += n;
+                if (i < bucket) {
+                    below += n;
+                }
+                else if (i == bucket) {
+                    below += n * within;
+                }
+            }
+        }
+        return total == 0 ? 0 : below / total;
+    }
+
+    private static ByteBuffer newBlock() {
+        return ByteBuffer.allocate(BLOCK).position(BLOCK_HEADER);
+    }
+
+    private void append(Stripe stripe, int score, int width, int height, int moves, int elapsedTime, long time) {
+        if (stripe.block.remaining() < MAX_RECORD) {
+            handOff(stripe);
+        }
+        ByteBuffer block = stripe.block;
+        putVarint(block, score);
+        putVarint(block, width);
+        putVarint(block, height);
+        putVarint(block, moves);
+        putVarint(block, elapsedTime);
+        putVarint(block, time);
+    }
+
+    /**
+     * Hands the block of a stripe over to the writer and starts a new one, it is called under the stripe's lock.
+     */
+    private void handOff(Stripe stripe) {
+        filled.add(new Block(stripe.generation, stripe.block));
+        stripe.block = newBlock();
+    }
+
+    /**
+     * Writes blocks of all stripes to the log, partial ones too.
+     */
+    private void flush() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                if (stripe.block != null && stripe.block.position() > BLOCK_HEADER) {
+                    handOff(stripe);
+                }
+            }
+        }
+        try {
+            writeFilled();
+            log.force(false);
+        }
+        catch (IOException e) {
+            System.err.println("Leaderboard log failed: " + e);
+        }
+    }
+
+    /**
+     * Writes handed over blocks into the log of their generation, it runs on the writer thread.
+     */
+    private void writeFilled() throws IOException {
+        CRC32C crc = new CRC32C();
+        Block block;
+        while ((block = filled.poll()) != null) {
+            ByteBuffer bytes = block.bytes.flip();
+            crc.reset();
+            crc.update(bytes.duplicate().position(BLOCK_HEADER));
+            bytes.putInt(0, bytes.limit() - BLOCK_HEADER);
+            bytes.putInt(4, (int) crc.getValue());
+            FileChannel channel = block.generation == generation ? log : previousLog;
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Starts a new log, writes a snapshot of everything submitted before it and deletes the logs the snapshot covers.
+     * Every stripe is switched to the new log under its lock together with copying its parts, so the snapshot holds
+     * exactly the records of older logs. It runs on the writer thread.
+     * @param closing true if the leaderboard is being closed, later submissions are kept only in memory
+     */
+    private void checkpoint(boolean closing) {
+        try {
+            long next = generation + 1;
+            FileChannel opened = closing ? null : openLog(next);
+            Map<Ranking, long[]> counts = new HashMap<>();
+            Map<Ranking, List<Entry>> tops = new HashMap<>();
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    if (stripe.block != null && stripe.block.position() > BLOCK_HEADER) {
+                        handOff(stripe);
+                    }
+                    stripe.generation = next;
+                    if (closing) {
+                        stripe.block = null;
+                    }
+                    copy(global, stripe.index, counts, tops);
+                    for (Ranking ranking : sizes.values()) {
+                        copy(ranking, stripe.index, counts, tops);
+                    }
+                }
+            }
+            previousLog = log;
+            log = opened;
+            generation = next;
+            writeFilled();
+            previousLog.force(true);
+            previousLog.close();
+            previousLog = null;
+
+            writeSnapshot(next, counts, tops);
+            for (long g : logGenerations()) {
+                if (g < next) {
+                    Files.deleteIfExists(logPath(g));
+                }
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Leaderboard checkpoint failed: " + e);
+        }
+    }
+
+    private static void copy(Ranking ranking, int stripe, Map<Ranking, long[]> counts,
+                             Map<Ranking, List<Entry>> tops) {
+        Part part = ranking.parts.get(stripe);
+        if (part == null) {
+            return;
+        }
+        long[] sum = counts.computeIfAbsent(ranking, any -> new long[BUCKETS]);
+        for (int i = 0; i < BUCKETS; i++) {
+            sum[i] += part.counts.getPlain(i);
+        }
+        tops.computeIfAbsent(ranking, any -> new ArrayList<>()).addAll(Arrays.asList(part.top));
+    }
+
+    private void writeSnapshot(long generation, Map<Ranking, long[]> counts, Map<Ranking, List<Entry>> tops)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteBuffer scratch = ByteBuffer.allocate(32 + 15 * BUCKETS + 35 * k);
+        scratch.putInt(MAGIC).putInt(VERSION).putLong(generation).putInt(counts.size());
+        bytes.write(scratch.array(), 0, scratch.position());
+        for (Map.Entry<Ranking, long[]> ranking : counts.entrySet()) {
+            scratch.clear();
+            putVarint(scratch, ranking.getKey().width);
+            putVarint(scratch, ranking.getKey().height);
+            long[] sum = ranking.getValue();
+            int buckets = 0;
+            for (long n : sum) {
+                buckets += n == 0 ? 0 : 1;
+            }
+            putVarint(scratch, buckets);
+            int previous = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (sum[i] != 0) {
+                    putVarint(scratch, i - previous);
+                    putVarint(scratch, sum[i]);
+                    previous = i;
+                }
+            }
+            List<Entry> top = tops.get(ranking.getKey());
+            top.sort(order);
+            int n = Math.min(k, top.size());
+            putVarint(scratch, n);
+            for (Entry entry : top.subList(0, n)) {
+                putVarint(scratch, entry.score);
+                putVarint(scratch, entry.width);
+                putVarint(scratch, entry.height);
+                putVarint(scratch, entry.moves);
+                putVarint(scratch, entry.elapsedTime);
+                putVarint(scratch, entry.time);
+            }
+            bytes.write(scratch.array(), 0, scratch.position());
+        }
+        ByteBuffer out = ByteBuffer.allocate(bytes.size() + 4).put(bytes.toByteArray());
+        SaveFile.writeFile(SaveFile.seal(out), directory.resolve(SNAPSHOT));
+    }
+
+    /**
+     * Loads the snapshot into the first stripe.
+     * @return generation of the first log not covered by the snapshot, 0 if there is no snapshot
+     */
+    private long readSnapshot() throws IOException {
+        Path path = directory.resolve(SNAPSHOT);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (in.remaining() < 24 || in.getInt() != MAGIC) {
+            throw new IOException(path + " is not a leaderboard");
+        }
+        int end = in.limit() - 4;
+        CRC32C crc = new CRC32C();
+        crc.update(in.duplicate().position(0).limit(end));
+        if ((int) crc.getValue() != in.getInt(end)) {
+            throw new IOException("Leaderboard " + path + " is corrupted");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version + " of leaderboard " + path);
+        }
+        long first = in.getLong();
+        int rankings = in.getInt();
+        in.limit(end);
+        Stripe stripe = stripes[0];
+        try {
+            for (int r = 0; r < rankings; r++) {
+                int width = (int) getVarint(in);
+                int height = (int) getVarint(in);
+                Ranking ranking = width == 0 ? global : ranking(stripe, width, height);
+                Part part = ranking == null ? null : ranking.part(stripe.index);
+                int buckets = (int) getVarint(in);
+                int bucket = 0;
+                for (int b = 0; b < buckets; b++) {
+                    bucket += (int) getVarint(in);
+                    long n = getVarint(in);
+                    if (part != null) {
+                        part.count(bucket, n);
+                    }
+                }
+                int entries = (int) getVarint(in);
+                for (int e = 0; e < entries; e++) {
+                    Entry entry = new Entry((int) getVarint(in), (int) getVarint(in), (int) getVarint(in),
+                            (int) getVarint(in), (int) getVarint(in), getVarint(in));
+                    if (part != null && part.enters(entry.score)) {
+                        part.insert(entry);
+                    }
+                }
+            }
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Leaderboard " + path + " is corrupted", e);
+        }
+        return first;
+    }
+
+    /**
+     * Replays the records of a log into the first stripe, up to the first block which is incomplete or damaged.
+     */
+    private void replay(Path path) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER);
+        ByteBuffer records = ByteBuffer.allocate(BLOCK);
+        Stripe stripe = stripes[0];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (readFully(channel, header.clear())) {
+                int length = header.getInt(0);
+                if (length <= 0 || length > BLOCK - BLOCK_HEADER) {
+                    return;
+                }
+                if (!readFully(channel, records.clear().limit(length))) {
+                    return;
+                }
+                records.flip();
+                crc.reset();
+                crc.update(records.duplicate());
+                if ((int) crc.getValue() != header.getInt(4)) {
+                    return;
+                }
+                while (records.hasRemaining()) {
+                    add(stripe, (int) getVarint(records), (int) getVarint(records), (int) getVarint(records),
+                            (int) getVarint(records), (int) getVarint(records), getVarint(records));
+                }
+            }
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Path logPath(long generation) {
+        return directory.resolve("leaderboard-" + generation + ".log");
+    }
+
+    private FileChannel openLog(long generation) throws IOException {
+        return FileChannel.open(logPath(generation), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Finds the logs in the directory.
+     * @return sorted generations of the logs
+     */
+    private List<Long> logGenerations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, "leaderboard-*.log")) {
+            for (Path path : logs) {
+                String name = path.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(name.substring("leaderboard-".length(), name.length() - 4)));
+                }
+                catch (NumberFormatException e) {
+                    continue;
+                }
+            }
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Writes a last snapshot and stops the writer, submissions made afterwards are kept only in memory.
+     */
+    @Override
+    public void close() {
+        if (writer == null || writer.isShutdown()) {
+            return;
+        }
+        writer.execute(() -> checkpoint(true));
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
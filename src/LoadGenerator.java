@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Loads a <code>GameServer</code> started in the same process on the loopback interface, so it needs no network.
+ * It creates the sessions first, then every client thread repeatedly picks a random session and places an item into
+ * a random free slot of it; a finished game is deleted and replaced by a new one. Clients record the round trip of
+ * every step and the step duration the server reports, the histograms are merged at the end.
+ */
+public class LoadGenerator {
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final String base;
+    private final int width;
+    private final int height;
+    private final AtomicLongArray sessions;
+
+    /**
+     * Results of client threads.
+     */
+    public static class Stats {
+        private final Histogram roundTrip = new Histogram();
+        private final Histogram step = new Histogram();
+        private long errors = 0;
+
+        private void merge(Stats other) {
+            roundTrip.merge(other.roundTrip);
+            step.merge(other.step);
+            errors += other.errors;
+        }
+
+        /**
+         * Gets the distribution of step round trips seen by clients.
+         * @return histogram of nanoseconds
+         */
+        public Histogram getRoundTrip() {
+            return roundTrip;
+        }
+
+        /**
+         * Gets the distribution of step durations reported by the server.
+         * @return histogram of nanoseconds
+         */
+        public Histogram getStep() {
+            return step;
+        }
+
+        /**
+         * Gets the number of failed requests.
+         * @return number of errors
+         */
+        public long getErrors() {
+            return errors;
+        }
+    }
+
+    /**
+     * Class constructor specifying the loaded server.
+     * @param port port of the server on the loopback interface
+     * @param sessions number of sessions kept open
+     * @param width width of created boards
+     * @param height height of created boards
+     */
+    public LoadGenerator(int port, int sessions, int width, int height) {
+        this.base = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + port + "/games";
+        this.width = width;
+        this.height = height;
+        this.sessions = new AtomicLongArray(sessions);
+    }
+
+    private HttpResponse<String> send(String method, String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + path))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private long create(long seed) throws IOException, InterruptedException {
+        String body = send("POST", "?width=" + width + "&height=" + height + "&seed=" + seed).body();
+        return Long.parseLong(field(body, "id"));
+    }
+
+    private static String field(String json, String name) {
+        int from = json.indexOf("\"" + name + "\":") + name.length() + 3;
+        int to = from;
+        while (to < json.length() && json.charAt(to) != ',' && json.charAt(to) != '}') {
+            to++;
+        }
+        return json.substring(from, to).replace("\"", "");
+    }
+
+    /**
+     * Creates all sessions, spread over the client threads.
+     * @param clients number of threads
+     */
+    public void open(int clients) throws InterruptedException {
+        runClients(clients, (c, random, stats) -> {
+            for (int s = c; s < sessions.length(); s += clients) {
+                sessions.set(s, create(random.nextLong()));
+            }
+        });
+    }
+
+    /**
+     * Makes steps in random sessions.
+     * @param clients number of threads
+     * @param steps number of steps of every thread
+     * @return merged results of all threads
+     */
+    public Stats run(int clients, int steps) throws InterruptedException {
+        return runClients(clients, (c, random, stats) -> {
+            for (int i = 0; i < steps; i++) {
+                int s = random.nextInt(sessions.length());
+                long id = sessions.get(s);
+                String state = send("GET", "/" + id).body();
+                String cells = field(state, "cells");
+                int index = randomFree(cells, random);
+
+                long start = System.nanoTime();
+                HttpResponse<String> response = send("POST", "/" + id + "/place?index=" + Math.max(index, 0));
+                stats.roundTrip.record(System.nanoTime() - start);
+                if (response.statusCode() != 200) {
+                    stats.errors++;
+                    continue;
+                }
+                response.headers().firstValue("X-Step-Nanos").ifPresent(n -> stats.step.record(Long.parseLong(n)));
+                if (index < 0 || field(response.body(), "over").equals("true")) {
+                    send("DELETE", "/" + id);
+                    sessions.set(s, create(random.nextLong()));
+                }
+            }
+        });
+    }
+
+    private static int randomFree(String cells, Random random) {
+        int free = 0;
+        for (int i = 0; i < cells.length(); i++) {
+            free += cells.charAt(i) == '0' ? 1 : 0;
+        }
+        if (free == 0) {
+            return -1;
+        }
+        int k = random.nextInt(free);
+        for (int i = 0; ; i++) {
+            if (cells.charAt(i) == '0' && k-- == 0) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Work of one client thread.
+     */
+    private interface Client {
+        void run(int client, Random random, Stats stats) throws IOException, InterruptedException;
+    }
+
+    private Stats runClients(int clients, Client work) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        List<Stats> results = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            Stats stats = new Stats();
+            results.add(stats);
+            Thread thread = new Thread(() -> {
+                try {
+                    work.run(client, new Random(Game.mix(client)), stats);
+                }
+                catch (IOException e) {
+                    System.err.println("Client " + client + " failed: " + e);
+                    stats.errors++;
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "load-client-" + c);
+            thread.start();
+            threads.add(thread);
+        }
+        Stats total = new Stats();
+        for (int c = 0; c < clients; c++) {
+            threads.get(c).join();
+            total.merge(results.get(c));
+        }
+        return total;
+    }
+
+    /**
+     * Starts a server on the loopback interface and loads it. Arguments are <code>--sessions=50000</code>,
+     * <code>--clients=64</code>, <code>--steps=1000</code> per client, <code>--width=4</code>, <code>--height=4</code>
+     * and limits of the server's store, <code>--max-live=10000</code> games and <code>--ttl=60</code> seconds.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int sessions = 50_000;
+        int clients = 64;
+        int steps = 1000;
+        int width = 4;
+        int height = 4;
+        int maxLive = 10_000;
+        long ttl = 60;
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            String value = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "sessions" -> sessions = Integer.parseInt(value);
+                case "clients" -> clients = Integer.parseInt(value);
+                case "steps" -> steps = Integer.parseInt(value);
+                case "width" -> width = Integer.parseInt(value);
+                case "height" -> height = Integer.parseInt(value);
+                case "max-live" -> maxLive = Integer.parseInt(value);
+                case "ttl" -> ttl = Long.parseLong(value);
+                default -> throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+
+        GameServer.useNoDelay();
+        Leaderboard leaderboard = new Leaderboard(100);
+        try (GameServer server = new GameServer(InetAddress.getLoopbackAddress(), 0, maxLive,
+                TimeUnit.SECONDS.toNanos(ttl), leaderboard)) {
+            SessionStore store = server.getStore();
+            LoadGenerator generator = new LoadGenerator(server.getPort(), sessions, width, height);
+            long start = System.nanoTime();
+            generator.open(clients);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d sessions created in %.1f s%n", store.getSessionCount(), seconds);
+
+            start = System.nanoTime();
+            Stats stats = generator.run(clients, steps);
+            seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d steps in %.1f s, %.0f steps/s, %d errors%n", stats.roundTrip.getCount(), seconds,
+                    stats.roundTrip.getCount() / seconds, stats.errors);
+            System.out.printf("round trip us: p50 %.1f, p99 %.1f, max %.1f%n",
+                    stats.roundTrip.getPercentile(0.5) / 1e3, stats.roundTrip.getPercentile(0.99) / 1e3,
+                    stats.roundTrip.getMax() / 1e3);
+            System.out.printf("step us: p50 %.1f, p99 %.1f, max %.1f%n", stats.step.getPercentile(0.5) / 1e3,
+                    stats.step.getPercentile(0.99) / 1e3, stats.step.getMax() / 1e3);
+            System.out.printf("store: %d live, %d hits, %d misses, %d evictions, %d bytes spilled%n",
+                    store.getLiveCount(), store.getHits(), store.getMisses(), store.getEvictions(),
+                    store.getSpilledBytes());
+            List<Leaderboard.Entry> top = leaderboard.getTop(width, height);
+            System.out.printf("leaderboard: %d games finished, best score %d%n", leaderboard.getCount(width, height),
+                    top.isEmpty() ? 0 : top.get(0).getScore());
+        }
+    }
+}
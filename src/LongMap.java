@@ -0,0 +1,162 @@
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive long keys to values, so lookups neither box keys nor allocate. Entries live in parallel
+ * arrays probed linearly from the mixed key, a removal shifts the following entries of its run back instead of
+ * leaving a tombstone. The table doubles when it is over half full and never shrinks. It is not thread-safe.
+ * <p>
+ * Entries can be walked without an iterator: slots run from 0 to <code>capacity() - 1</code> and
+ * <code>valueAt</code> is null in empty ones. A walk must not change the map.
+ * @param <V> type of values, values are never null
+ */
+public class LongMap<V> {
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size = 0;
+
+    /**
+     * Class constructor creating an empty map.
+     */
+    public LongMap() {
+        keys = new long[16];
+        values = new Object[16];
+        mask = 15;
+    }
+
+    /**
+     * Gets the number of entries.
+     * @return number of keys mapped to a value
+     */
+    public int size() {
+        return size;
+    }
+
+    private int slot(long key) {
+        return (int) Game.mix(key) & mask;
+    }
+
+    /**
+     * Gets the value of a key.
+     * @param key looked up key
+     * @return value of the key, null if it has none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Maps a key to a value, replacing its previous value.
+     * @param key mapped key
+     * @param value new value, not null
+     * @return previous value of the key, null if it had none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > values.length >>> 1) {
+            resize(values.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the value of a key.
+     * @param key removed key
+     * @return removed value, null if the key had none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                break;
+            }
+        }
+        V old = (V) values[i];
+        if (old == null) {
+            return null;
+        }
+        size--;
+        // entries after the hole move back unless their own slot lies cyclically in (hole, j]
+        int hole = i;
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        values[hole] = null;
+        return old;
+    }
+
+    /**
+     * Removes all entries, the table keeps its capacity.
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Gets the number of slots of the table.
+     * @return number of slots, a power of two
+     */
+    public int capacity() {
+        return values.length;
+    }
+
+    /**
+     * Gets the key in a slot of the table.
+     * @param slot slot of the table
+     * @return key of the slot, meaningless if the slot is empty
+     */
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Gets the value in a slot of the table.
+     * @param slot slot of the table
+     * @return value of the slot, null if it is empty
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int j = slot(oldKeys[i]);
+                while (values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,352 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instrumentation of the hot paths of <code>Game</code>: latencies of steps, checks, merges, bee moves and starting
+ * boards, sizes of collected clusters, cascade depths, numbers of moved bees and bytes allocated by a step. Every
+ * thread records into its own <code>Histogram</code>s without any synchronization and a read merges the recorders of
+ * all threads, so a value recorded during the read may be missed until the next one. Recorders of finished threads
+ * are folded into a retired one when read.
+ * <p>
+ * Recording is off unless the system property <code>3x.metrics</code> is true, <code>setEnabled</code> switches it at
+ * any time; while it is off an instrumented call costs a single volatile read. Merged histograms are exposed over JMX
+ * as <code>3x:type=Metrics,name=...</code> next to the switch <code>3x:type=Metrics</code>, and as a text table
+ * which can be dumped periodically.
+ */
+public final class Metrics {
+    static final long OFF = Long.MIN_VALUE;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final boolean allocationSupported = threads.isThreadAllocatedMemorySupported()
+            && threads.isThreadAllocatedMemoryEnabled();
+    private static final Kind[] kinds = Kind.values();
+    private static final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<Recorder> recorder = ThreadLocal.withInitial(Metrics::newRecorder);
+    private static final Histogram[] retired = newHistograms();
+    private static volatile boolean enabled = Boolean.getBoolean("3x.metrics");
+    private static boolean registered = false;
+    private static ScheduledExecutorService dumper = null;
+
+    /**
+     * Recorded metric.
+     */
+    public enum Kind {
+        MAKE_STEP("makeStep", "ns"),
+        CHECK_ADJACENCY("checkAdjacency", "ns"),
+        MERGE_VALUES("mergeValues", "ns"),
+        UPDATE_DANGER_SLOTS("updateDangerSlots", "ns"),
+        GENERATE_STARTING_BOARD("generateStartingBoard", "ns"),
+        CLUSTER_SIZE("clusterSize", "slots"),
+        CASCADE_DEPTH("cascadeDepth", "merges"),
+        BEES("bees", "bees"),
+        STEP_ALLOCATION("stepAllocation", "bytes");
+
+        private final String label;
+        private final String unit;
+
+        Kind(String label, String unit) {
+            this.label = label;
+            this.unit = unit;
+        }
+
+        /**
+         * Gets the name of the metric used in JMX and dumps.
+         * @return name of the metric
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Gets the unit of recorded values.
+         * @return unit of the metric
+         */
+        public String getUnit() {
+            return unit;
+        }
+    }
+
+    /**
+     * Merged histogram of a metric over JMX.
+     */
+    public interface HistogramMXBean {
+        String getUnit();
+
+        long getCount();
+
+        double getMean();
+
+        long getMin();
+
+        long getP50();
+
+        long getP99();
+
+        long getP999();
+
+        long getMax();
+    }
+
+    /**
+     * Switch of the recording over JMX.
+     */
+    public interface MetricsMXBean {
+        boolean isEnabled();
+
+        void setEnabled(boolean enabled);
+
+        void reset();
+
+        String dump();
+    }
+
+    /**
+     * Histograms of one thread, written only by the thread.
+     */
+    private static final class Recorder {
+        private final WeakReference<Thread> thread = new WeakReference<>(Thread.currentThread());
+        private final Histogram[] histograms = newHistograms();
+    }
+
+    private Metrics() {
+    }
+
+    private static Histogram[] newHistograms() {
+        Histogram[] histograms = new Histogram[Kind.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+        return histograms;
+    }
+
+    private static Recorder newRecorder() {
+        Recorder created = new Recorder();
+        recorders.add(created);
+        return created;
+    }
+
+    /**
+     * Checks if metrics are recorded.
+     * @return true if recording is on
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Switches the recording on or off, recorded values are kept.
+     * @param enabled true to record metrics
+     */
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    /**
+     * Starts timing a call.
+     * @return start of the call, <code>OFF</code> if recording is off
+     */
+    static long startTimer() {
+        return enabled ? System.nanoTime() : OFF;
+    }
+
+    /**
+     * Records the duration of a call.
+     * @param kind recorded latency
+     * @param start value returned by <code>startTimer</code>
+     */
+    static void stopTimer(Kind kind, long start) {
+        if (start != OFF) {
+            recorder.get().histograms[kind.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Starts measuring the memory allocated by the current thread.
+     * @return bytes allocated so far, <code>OFF</code> if recording is off or not supported
+     */
+    static long startAllocation() {
+        return enabled && allocationSupported ? threads.getCurrentThreadAllocatedBytes() : OFF;
+    }
+
+    /**
+     * Records the memory allocated by the current thread since <code>startAllocation</code>.
+     * @param kind recorded allocation
+     * @param start value returned by <code>startAllocation</code>
+     */
+    static void stopAllocation(Kind kind, long start) {
+        if (start != OFF) {
+            recorder.get().histograms[kind.ordinal()].record(threads.getCurrentThreadAllocatedBytes() - start);
+        }
+    }
+
+    /**
+     * Records a value if recording is on.
+     * @param kind recorded metric
+     * @param value recorded value
+     */
+    static void record(Kind kind, long value) {
+        if (enabled) {
+            recorder.get().histograms[kind.ordinal()].record(value);
+        }
+    }
+
+    /**
+     * Merges the values of a metric recorded by all threads.
+     * @param kind read metric
+     * @return new histogram
+     */
+    public static synchronized Histogram get(Kind kind) {
+        Histogram merged = new Histogram();
+        for (Recorder r : recorders) {
+            Thread thread = r.thread.get();
+            if (thread == null || !thread.isAlive()) {
+                for (int i = 0; i < retired.length; i++) {
+                    retired[i].merge(r.histograms[i]);
+                }
+                recorders.remove(r);
+                continue;
+            }
+            merged.merge(r.histograms[kind.ordinal()]);
+        }
+        merged.merge(retired[kind.ordinal()]);
+        return merged;
+    }
+
+    /**
+     * Forgets all recorded values, values recorded during the reset may be partly kept.
+     */
+    public static synchronized void reset() {
+        for (Recorder r : recorders) {
+            for (Histogram histogram : r.histograms) {
+                histogram.reset();
+            }
+        }
+        for (Histogram histogram : retired) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Writes merged histograms of all metrics as a table.
+     * @return one line per metric after a header
+     */
+    public static String dump() {
+        StringBuilder out = new StringBuilder(String.format(Locale.ROOT, "%-22s %-7s %12s %12s %10s %10s %10s %12s%n",
+                "metric", "unit", "count", "mean", "p50", "p99", "p99.9", "max"));
+        for (Kind kind : kinds) {
+            Histogram h = get(kind);
+            out.append(String.format(Locale.ROOT, "%-22s %-7s %12d %12.1f %10d %10d %10d %12d%n", kind.label,
+                    kind.unit, h.getCount(), h.getMean(), h.getPercentile(0.5), h.getPercentile(0.99),
+                    h.getPercentile(0.999), h.getMax()));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Registers the MBeans of all metrics and the switch in the platform MBean server, it is done only once.
+     */
+    public static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new MetricsMXBean() {
+                @Override
+                public boolean isEnabled() {
+                    return Metrics.isEnabled();
+                }
+
+                @Override
+                public void setEnabled(boolean enabled) {
+                    Metrics.setEnabled(enabled);
+                }
+
+                @Override
+                public void reset() {
+                    Metrics.reset();
+                }
+
+                @Override
+                public String dump() {
+                    return Metrics.dump();
+                }
+            }, new ObjectName("3x:type=Metrics"));
+            for (Kind kind : kinds) {
+                server.registerMBean(new HistogramMXBean() {
+                    @Override
+                    public String getUnit() {
+                        return kind.unit;
+                    }
+
+                    @Override
+                    public long getCount() {
+                        return get(kind).getCount();
+                    }
+
+                    @Override
+                    public double getMean() {
+                        return get(kind).getMean();
+                    }
+
+                    @Override
+                    public long getMin() {
+                        return get(kind).getMin();
+                    }
+
+                    @Override
+                    public long getP50() {
+                        return get(kind).getPercentile(0.5);
+                    }
+
+                    @Override
+                    public long getP99() {
+                        return get(kind).getPercentile(0.99);
+                    }
+
+                    @Override
+                    public long getP999() {
+                        return get(kind).getPercentile(0.999);
+                    }
+
+                    @Override
+                    public long getMax() {
+                        return get(kind).getMax();
+                    }
+                }, new ObjectName("3x:type=Metrics,name=" + kind.label));
+            }
+            registered = true;
+        }
+        catch (JMException e) {
+            System.err.println("Metrics are not registered: " + e);
+        }
+    }
+
+    /**
+     * Prints the table of all metrics periodically on a daemon thread, a previous dump is stopped.
+     * @param out printed stream
+     * @param periodSeconds time between dumps
+     */
+    public static synchronized void startDump(PrintStream out, long periodSeconds) {
+        if (dumper != null) {
+            dumper.shutdownNow();
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> out.print(dump()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.Random;
+
+/**
+ * Decides moves of a game played without the graphic window.
+ */
+public interface PlacementPolicy {
+
+    /**
+     * Chooses the slot for the next step. The policy may save or pick items of the game before it returns.
+     * @param game played game, it is not over
+     * @param random random generator owned by the calling thread
+     * @return linear index of a free slot on the game's board
+     */
+    long choose(Game game, Random random);
+
+    /**
+     * Places every item into a random free slot.
+     */
+    PlacementPolicy RANDOM = (game, random) -> game.getBoard().randomFree(random);
+
+    /**
+     * Places every item next to as many slots with the same value as possible, saves the current item when nothing
+     * touches it and uses the saved one when it fits better. On a sparse board only free slots touching occupied ones
+     * are tried, a random free slot if there are none.
+     */
+    PlacementPolicy NEIGHBOURS = (game, random) -> {
+        Board board = game.getBoard();
+        Game.Values current = game.getCurrentItem().getValue();
+        Game.Values saved = game.getSavedItem().getValue();
+
+        long best = -1;
+        int bestCount = -1;
+        boolean bestSaved = false;
+        int freeCount = board.getCandidateCount();
+        long fallback = freeCount == 0 ? board.randomFree(random) : -1;
+        int tried = Math.max(freeCount, 1);
+        int start = random.nextInt(tried);
+        for (int k = 0; k < tried; k++) {
+            long index = freeCount == 0 ? fallback : board.getCandidate((start + k) % tried);
+            int count = sameNeighbours(board, index, current);
+            if (count > bestCount) {
+                best = index;
+                bestCount = count;
+                bestSaved = false;
+            }
+            if (current != Game.Values.DANGER && game.hasSaved()) {
+                int savedCount = sameNeighbours(board, index, saved);
+                if (savedCount > bestCount) {
+                    best = index;
+                    bestCount = savedCount;
+                    bestSaved = true;
+                }
+            }
+        }
+
+        if (bestSaved) {
+            game.pickSavedItem();
+        }
+        else {
+            game.pickCurrentItem();
+            if (bestCount == 0 && !game.hasSaved() && current != Game.Values.DANGER) {
+                game.saveItem();
+            }
+        }
+        return best;
+    };
+
+    /**
+     * Places the current or the saved item into the slot scoring most by <code>Game.previewPlacements</code>, places
+     * like <code>NEIGHBOURS</code> when no placement scores.
+     */
+    PlacementPolicy GREEDY = (game, random) -> {
+        Game.Values current = game.getCurrentItem().getValue();
+        Placements placements = game.previewPlacements(current);
+        if (current != Game.Values.DANGER && game.hasSaved()) {
+            Placements saved = game.previewPlacements(game.getSavedItem().getValue());
+            if (saved.getMaxPoints() > placements.getMaxPoints()) {
+                game.pickSavedItem();
+                return saved.getBest();
+            }
+        }
+        if (placements.getMaxPoints() > 0) {
+            game.pickCurrentItem();
+            return placements.getBest();
+        }
+        return NEIGHBOURS.choose(game, random);
+    };
+
+    private static int sameNeighbours(Board board, long index, Game.Values value) {
+        return value == Game.Values.DANGER ? 0 : board.countNeighbours(index, value);
+    }
+}
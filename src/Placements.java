@@ -0,0 +1,99 @@
+/**
+ * Results of placing a value into every free slot of a game, computed by <code>Game.previewPlacements</code> without
+ * changing the game. A placement merges when the placed value touches components of its own value with at least
+ * three slots together; the levelled up value may then merge again with components of the next value around the
+ * same slot. Occupied slots and free slots which don't merge have no points. Results for a sparse board are kept only
+ * for slots which merge, packed as <code>points << 8 | depth</code>.
+ */
+public class Placements {
+    private final Game.Values value;
+    private final int[] points;
+    private final byte[] depths;
+    private final LongMap<Long> merging;
+    private int maxPoints = 0;
+    private long best = -1;
+
+    /**
+     * Class constructor specifying the previewed value, no slot merges yet.
+     * @param value placed value
+     * @param size number of slots of the board
+     * @param sparse true if the board is sparse
+     */
+    Placements(Game.Values value, long size, boolean sparse) {
+        this.value = value;
+        points = sparse ? null : new int[(int) size];
+        depths = sparse ? null : new byte[(int) size];
+        merging = sparse ? new LongMap<>() : null;
+    }
+
+    /**
+     * Records the result of a placement which merged.
+     * @param index linear index of the slot
+     * @param points points of all merges of the placement
+     * @param depth number of merges
+     */
+    void set(long index, int points, int depth) {
+        if (merging != null) {
+            merging.put(index, (long) points << 8 | depth);
+        }
+        else {
+            this.points[(int) index] = points;
+            depths[(int) index] = (byte) depth;
+        }
+        if (points > maxPoints) {
+            maxPoints = points;
+            best = index;
+        }
+    }
+
+    /**
+     * Gets the previewed value.
+     * @return placed value
+     */
+    public Game.Values getValue() {
+        return value;
+    }
+
+    /**
+     * Gets the points a placement into a slot would score.
+     * @param index linear index of the slot
+     * @return points of all merges, 0 if the slot is occupied or nothing merges
+     */
+    public int getPoints(long index) {
+        if (merging != null) {
+            Long packed = merging.get(index);
+            return packed == null ? 0 : (int) (packed >>> 8);
+        }
+        return points[(int) index];
+    }
+
+    /**
+     * Gets the number of merges a placement into a slot would make, each merge after the first one is caused by the
+     * previous merge levelling up the slot.
+     * @param index linear index of the slot
+     * @return cascade depth of the placement, 0 if nothing merges
+     */
+    public int getDepth(long index) {
+        if (merging != null) {
+            Long packed = merging.get(index);
+            return packed == null ? 0 : (int) (packed & 0xFF);
+        }
+        return depths[(int) index];
+    }
+
+    /**
+     * Gets the points of the best placement.
+     * @return highest points of any slot, 0 if no placement merges
+     */
+    public int getMaxPoints() {
+        return maxPoints;
+    }
+
+    /**
+     * Gets the slot of the best placement, any of them if more slots score the same.
+     * @return linear index of the slot, -1 if no placement merges
+     */
+    public long getBest() {
+        return best;
+    }
+}
@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays a <code>Journal</code> again without the graphic window. Every drawn value and score recorded in the journal
+ * is compared with the replayed game, so a journal which doesn't match its game is refused. A move ends with a check
+ * of the step; every <code>KEYFRAME_MOVES</code> moves the replay keeps a keyframe -- a snapshot of the game sharing
+ * chunks with the previous keyframe and the state of the random generator -- so it can seek to any move by restoring
+ * the nearest keyframe and replaying the rest.
+ */
+public class Replay {
+    private static final int KEYFRAME_MOVES = 1024;
+
+    private final ByteBuffer records;
+    private final int width;
+    private final int height;
+    private final long seed;
+    private final GameRandom random;
+    private final Game game;
+    private final Board.Changes changes;
+    private final List<Keyframe> keyframes = new ArrayList<>();
+    private Snapshot base;
+    private History history = null;
+    private long moves = 0;
+
+    /**
+     * State of the replay after a move.
+     */
+    private static class Keyframe {
+        private final long moves;
+        private final int position;
+        private final long randomState;
+        private final int elapsedTime;
+        private final Snapshot snapshot;
+        private final History history;
+
+        private Keyframe(long moves, int position, long randomState, int elapsedTime, Snapshot snapshot,
+                         History history) {
+            this.moves = moves;
+            this.position = position;
+            this.randomState = randomState;
+            this.elapsedTime = elapsedTime;
+            this.snapshot = snapshot;
+            this.history = history;
+        }
+    }
+
+    /**
+     * Class constructor opening a journal, the game is at its start.
+     * @param path read journal
+     */
+    public Replay(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Journal " + path + " is too long");
+            }
+            records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (records.remaining() < 4 || records.getInt() != Journal.MAGIC) {
+            throw new IOException(path + " is not a journal");
+        }
+        int version = Journal.readVarint(records);
+        if (version != Journal.VERSION) {
+            throw new IOException("Unsupported journal version " + version);
+        }
+        width = Journal.readVarint(records);
+        height = Journal.readVarint(records);
+        seed = records.getLong();
+        byte[] name = new byte[Journal.readVarint(records)];
+        records.get(name);
+        ItemGenerator items;
+        try {
+            items = ItemGenerator.forName(new String(name, StandardCharsets.UTF_8));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage() + " in journal " + path);
+        }
+
+        random = new GameRandom(seed);
+        game = new Game(width, height, random, items);
+        changes = game.getBoard().trackChanges();
+        base = Snapshot.of(game, changes, null);
+        keyframes.add(new Keyframe(0, records.position(), random.getState(), 0, base, null));
+    }
+
+    /**
+     * Gets the replayed game.
+     * @return game in the state after the last replayed record
+     */
+    public Game getGame() {
+        return game;
+    }
+
+    /**
+     * Gets the seed the game was created with.
+     * @return seed of the game
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Gets the number of replayed moves.
+     * @return number of checked steps
+     */
+    public long getMoves() {
+        return moves;
+    }
+
+    /**
+     * Replays records up to the end of the next move.
+     * @return false if the journal ended before the move did
+     * @throws IllegalStateException if the game doesn't match the journal
+     */
+    public boolean next() {
+        while (records.hasRemaining()) {
+            byte tag = records.get();
+            switch (tag) {
+                case Journal.END -> {
+                    records.position(records.position() - 1);
+                    return false;
+                }
+                case Journal.CHOOSE -> game.chooseSlot(Journal.readVarlong(records));
+                case Journal.SAVE -> {
+                    game.saveItem();
+                    expect("saved item draws", records.get(), game.getCurrentItem().getValue().ordinal());
+                }
+                case Journal.PICK_SAVED -> game.pickSavedItem();
+                case Journal.PICK_CURRENT -> game.pickCurrentItem();
+                case Journal.STEP -> {
+                    game.makeStep();
+                    expect("step draws", records.get(), game.getCurrentItem().getValue().ordinal());
+                }
+                case Journal.CHECK -> {
+                    game.checkAdjacency();
+                    expect("score is", Journal.readVarint(records), game.getScore());
+                    moves++;
+                    if (moves % KEYFRAME_MOVES == 0 && moves > keyframes.get(keyframes.size() - 1).moves) {
+                        addKeyframe();
+                    }
+                    return true;
+                }
+                case Journal.TICK -> game.incrementElapsedTime();
+                case Journal.HISTORY -> history = new History(game, Long.MAX_VALUE);
+                case Journal.COMMIT -> history.commit();
+                case Journal.JUMP -> {
+                    int zigzag = Journal.readVarint(records);
+                    history.jump(history.getPosition() + ((zigzag >>> 1) ^ -(zigzag & 1)));
+                }
+                default -> throw new IllegalStateException("Unknown record " + tag + " after move " + moves);
+            }
+        }
+        return false;
+    }
+
+    private void expect(String what, int recorded, int replayed) {
+        if (recorded != replayed) {
+            throw new IllegalStateException("Journal diverges in move " + (moves + 1) + ": " + what + " "
+                    + replayed + ", recorded " + recorded);
+        }
+    }
+
+    private void addKeyframe() {
+        base = Snapshot.of(game, changes, keyframes.get(keyframes.size() - 1).snapshot);
+        keyframes.add(new Keyframe(moves, records.position(), random.getState(), game.getElapsedTime(), base,
+                history == null ? null : history.copy()));
+    }
+
+    /**
+     * Replays the rest of the journal.
+     * @return final score of the game
+     * @throws IllegalStateException if the game doesn't match the journal
+     */
+    public int finish() {
+        while (next()) {
+            continue;
+        }
+        return game.getScore();
+    }
+
+    /**
+     * Moves the replay to the end of a move, back or forth. The nearest keyframe before the move is restored unless
+     * the replay is already between it and the move.
+     * @param move number of moves made after the seek
+     * @return false if the journal has fewer moves, the replay is then at its end
+     */
+    public boolean seek(long move) {
+        if (move < 0) {
+            throw new IllegalArgumentException("Negative move " + move);
+        }
+        int k = (int) Math.min(move / KEYFRAME_MOVES, keyframes.size() - 1);
+        Keyframe keyframe = keyframes.get(k);
+        if (moves > move || moves < keyframe.moves) {
+            restore(keyframe);
+        }
+        while (moves < move) {
+            if (!next()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void restore(Keyframe keyframe) {
+        keyframe.snapshot.restore(game, base, changes);
+        base = keyframe.snapshot;
+        random.setState(keyframe.randomState);
+        game.setElapsedTime(keyframe.elapsedTime);
+        game.setMoves((int) keyframe.moves);
+        records.position(keyframe.position);
+        moves = keyframe.moves;
+        history = keyframe.history == null ? null : keyframe.history.copy();
+        if (history != null) {
+            history.resync();
+        }
+    }
+
+    /**
+     * Verifies journals given as arguments, prints the number of moves, final score and speed of every replay.
+     */
+    public static void main(String[] args) throws IOException {
+        boolean failed = false;
+        for (String arg : args) {
+            Replay replay = new Replay(Paths.get(arg));
+            long start = System.nanoTime();
+            try {
+                int score = replay.finish();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%s: %d moves, score %d, %.0f moves/s%n", arg, replay.getMoves(), score,
+                        replay.getMoves() / seconds);
+            }
+            catch (IllegalStateException e) {
+                System.out.println(arg + ": " + e.getMessage());
+                failed = true;
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
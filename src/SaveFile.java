@@ -0,0 +1,334 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary file holding the whole state of a game, so it can be resumed later. The file starts with a fixed header --
+ * magic number, version, size of the board, score, elapsed time, number of moves, current and saved item,
+ * picked-saved flag, layout of cells and state of the random generator -- followed by the length and the UTF-8 bytes
+ * of the name of the item generator, bee positions as longs, the cells and a CRC32C checksum of everything before it.
+ * Cells of a dense board are one byte per cell; a sparse board keeps the number of chunks holding an occupied cell
+ * and the number and <code>1 << Board.CHUNK_BITS</code> bytes of each of them in increasing order. Files are written
+ * into a temporary file and moved over the old one, so a crash never leaves half of a save; they are read through
+ * memory mapping. The same bytes can be kept in memory through <code>encode</code> and <code>decode</code>.
+ */
+public final class SaveFile {
+    static final int MAGIC = 0x33585356;
+    static final int VERSION = 1;
+    private static final int CHUNK = 1 << Board.CHUNK_BITS;
+    private static final int HEADER = 44;
+    private static final byte CELLS = 0;
+    private static final byte CHUNKS = 1;
+    private static final Game.Values[] values = Game.Values.values();
+
+    private SaveFile() {
+    }
+
+    /**
+     * Saves the current state of a game.
+     * @param game saved game in between moves
+     * @param path written file
+     */
+    public static void write(Game game, Path path) throws IOException {
+        writeFile(encode(game), path);
+    }
+
+    /**
+     * Encodes the current state of a game the same way it is saved into a file.
+     * @param game encoded game in between moves
+     * @return heap buffer with the encoded game between its position and limit
+     */
+    public static ByteBuffer encode(Game game) {
+        Board board = game.getBoard();
+        long[] bees = game.getBees().toArray();
+        if (board.isSparse()) {
+            int[] numbers = board.getOccupiedChunks();
+            byte[][] chunks = new byte[numbers.length][];
+            for (int i = 0; i < numbers.length; i++) {
+                chunks[i] = new byte[CHUNK];
+                board.readChunk(numbers[i], chunks[i]);
+            }
+            ByteBuffer out = header(CHUNKS, board.getWidth(), board.getHeight(), game.getScore(),
+                    game.getElapsedTime(), game.getMoves(), game.getCurrentItem().getValue(),
+                    game.getSavedItem().getValue(), game.isSavedPicked(), randomStateOf(game),
+                    game.getItemGenerator(), bees, 4 + (4L + CHUNK) * numbers.length);
+            writeChunks(out, numbers, chunks, numbers.length);
+            return seal(out);
+        }
+        ByteBuffer out = header(CELLS, board.getWidth(), board.getHeight(), game.getScore(), game.getElapsedTime(),
+                game.getMoves(), game.getCurrentItem().getValue(), game.getSavedItem().getValue(), game.isSavedPicked(),
+                randomStateOf(game), game.getItemGenerator(), bees, board.size());
+        board.writeCells(out);
+        return seal(out);
+    }
+
+    /**
+     * Saves a snapshot of a game, it can run on any thread.
+     * @param snapshot saved state
+     * @param randomState state of the game's generator taken together with the snapshot, -1 if it is unknown
+     * @param path written file
+     */
+    public static void write(Snapshot snapshot, long randomState, Path path) throws IOException {
+        if (snapshot.isSparse()) {
+            int[] count = {0};
+            snapshot.forEachOccupiedChunk(c -> count[0]++);
+            int[] numbers = new int[count[0]];
+            byte[][] chunks = new byte[count[0]][];
+            count[0] = 0;
+            snapshot.forEachOccupiedChunk(c -> numbers[count[0]++] = c);
+            for (int i = 0; i < numbers.length; i++) {
+                chunks[i] = new byte[CHUNK];
+                snapshot.readChunk(numbers[i], chunks[i]);
+            }
+            ByteBuffer out = header(CHUNKS, snapshot.getWidth(), snapshot.getHeight(), snapshot.getScore(),
+                    snapshot.getElapsedTime(), snapshot.getMoves(), snapshot.getCurrentItem(),
+                    snapshot.getSavedItem(), snapshot.isSavedPicked(), randomState, snapshot.getItemGenerator(),
+                    snapshot.getBees(), 4 + (4L + CHUNK) * numbers.length);
+            writeChunks(out, numbers, chunks, numbers.length);
+            writeFile(seal(out), path);
+            return;
+        }
+        ByteBuffer out = header(CELLS, snapshot.getWidth(), snapshot.getHeight(), snapshot.getScore(),
+                snapshot.getElapsedTime(), snapshot.getMoves(), snapshot.getCurrentItem(), snapshot.getSavedItem(),
+                snapshot.isSavedPicked(), randomState, snapshot.getItemGenerator(), snapshot.getBees(),
+                snapshot.size());
+        snapshot.writeCells(out);
+        writeFile(seal(out), path);
+    }
+
+    private static void writeChunks(ByteBuffer out, int[] numbers, byte[][] chunks, int n) {
+        out.putInt(n);
+        for (int i = 0; i < n; i++) {
+            out.putInt(numbers[i]);
+            out.put(chunks[i]);
+        }
+    }
+
+    /**
+     * Gets the state of a game's generator which can be saved.
+     * @param game saved game
+     * @return state of the generator, -1 if the game doesn't use <code>GameRandom</code>
+     */
+    static long randomStateOf(Game game) {
+        return game.getRandom() instanceof GameRandom random ? random.getState() : -1;
+    }
+
+    private static ByteBuffer header(byte layout, int width, int height, int score, int elapsedTime, int moves,
+                                     Game.Values current, Game.Values saved, boolean pickedSaved, long randomState,
+                                     ItemGenerator items, long[] bees, long cellBytes) {
+        byte[] name = items.getName().getBytes(StandardCharsets.UTF_8);
+        if (name.length > 255) {
+            throw new IllegalStateException("Name of item generator " + items.getName() + " is too long");
+        }
+        long length = HEADER + 1 + name.length + 8L * bees.length + cellBytes + 4;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Game of " + width + "x" + height + " is too big to be saved");
+        }
+        ByteBuffer out = ByteBuffer.allocate((int) length);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(width);
+        out.putInt(height);
+        out.putInt(score);
+        out.putInt(elapsedTime);
+        out.putInt(moves);
+        out.put((byte) current.ordinal());
+        out.put((byte) saved.ordinal());
+        out.put((byte) (pickedSaved ? 1 : 0));
+        out.put(layout);
+        out.putLong(randomState);
+        out.putInt(bees.length);
+        out.put((byte) name.length);
+        out.put(name);
+        for (long bee : bees) {
+            out.putLong(bee);
+        }
+        return out;
+    }
+
+    /**
+     * Appends the CRC32C checksum of everything written into a buffer.
+     * @param out buffer with room for the checksum after its position
+     * @return the buffer flipped for reading
+     */
+    static ByteBuffer seal(ByteBuffer out) {
+        CRC32C crc = new CRC32C();
+        crc.update(out.duplicate().flip());
+        out.putInt((int) crc.getValue());
+        return out.flip();
+    }
+
+    /**
+     * Writes bytes into a temporary file and moves it over the file, so the file is never left half written.
+     * @param out written bytes between the buffer's position and limit
+     * @param path written file
+     */
+    static void writeFile(ByteBuffer out, Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(false);
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Loads a saved game. A game saved with a known state of its generator draws the same values as the saved game
+     * would, any other gets a new generator.
+     * @param path read file
+     * @return loaded game
+     * @throws IOException if the file can't be read, is corrupted or has an unknown version
+     */
+    public static Game read(Path path) throws IOException {
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is not a saved game");
+            }
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return decode(in, path.toString());
+    }
+
+    /**
+     * Decodes a game encoded by <code>encode</code> or read from a file, like <code>read</code>.
+     * @param in buffer with the encoded game between its position and limit, it is not changed
+     * @param name name of the encoded game used in errors
+     * @return decoded game
+     * @throws IOException if the bytes are corrupted or have an unknown version
+     */
+    public static Game decode(ByteBuffer in, String name) throws IOException {
+        in = in.slice();
+        if (in.remaining() < HEADER + 1 + 4) {
+            throw new IOException(name + " is not a saved game");
+        }
+        int end = in.limit() - 4;
+        CRC32C crc = new CRC32C();
+        crc.update(in.duplicate().limit(end));
+        if (in.getInt() != MAGIC) {
+            throw new IOException(name + " is not a saved game");
+        }
+        if ((int) crc.getValue() != in.getInt(end)) {
+            throw new IOException("Saved game " + name + " is corrupted");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version + " of saved game " + name);
+        }
+
+        int width = in.getInt();
+        int height = in.getInt();
+        int score = in.getInt();
+        int elapsedTime = in.getInt();
+        int moves = in.getInt();
+        Game.Values current = value(in.get());
+        Game.Values saved = value(in.get());
+        boolean pickedSaved = in.get() != 0;
+        byte layout = in.get();
+        long randomState = in.getLong();
+        int beeCount = in.getInt();
+        int length = in.get() & 0xff;
+        if (layout != CELLS && layout != CHUNKS || length > end - in.position()) {
+            throw new IOException("Saved game " + name + " has inconsistent sizes");
+        }
+        byte[] itemsName = new byte[length];
+        in.get(itemsName);
+        ItemGenerator items;
+        try {
+            items = ItemGenerator.forName(new String(itemsName, StandardCharsets.UTF_8));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage() + " in saved game " + name);
+        }
+        int header = in.position();
+        long cellBytes = (long) width * height;
+        if (layout == CHUNKS && end - header >= 8L * beeCount + 4 && beeCount >= 0) {
+            cellBytes = 4 + (4L + CHUNK) * in.getInt(header + 8 * beeCount);
+        }
+        if (width <= 0 || height <= 0 || beeCount < 0 || moves < 0 || cellBytes < 4
+                || cellBytes + 8L * beeCount != end - header) {
+            throw new IOException("Saved game " + name + " has inconsistent sizes");
+        }
+
+        Random random = new Random();
+        if (randomState >= 0) {
+            GameRandom resumed = new GameRandom(0);
+            resumed.setState(randomState);
+            random = resumed;
+        }
+        long[] bees = new long[beeCount];
+        for (int i = 0; i < beeCount; i++) {
+            bees[i] = in.getLong();
+        }
+        Game game;
+        try {
+            Board board = layout == CHUNKS ? readChunks(width, height, in) : Board.readCells(width, height, in);
+            game = new Game(board, random, items);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("Saved game " + name + " is corrupted", e);
+        }
+        for (long bee : bees) {
+            if (bee < 0 || bee >= game.getBoard().size() || game.getBoard().get(bee) != Game.Values.DANGER) {
+                throw new IOException("Saved game " + name + " has a bee outside of danger slots");
+            }
+        }
+        game.getBees().setAll(bees);
+        game.setState(score, current, saved, pickedSaved, -1);
+        game.setElapsedTime(elapsedTime);
+        game.setMoves(moves);
+        return game;
+    }
+
+    /**
+     * Reads cells of a sparse board saved as chunks holding an occupied cell.
+     * @throws IllegalArgumentException if the chunks are not in increasing order or hold unknown values
+     */
+    private static Board readChunks(int width, int height, ByteBuffer in) {
+        Board board = Board.sparse(width, height);
+        int n = in.getInt();
+        int previous = -1;
+        for (int i = 0; i < n; i++) {
+            int chunk = in.getInt();
+            if (chunk <= previous || chunk >= board.getChunkCount()) {
+                throw new IllegalArgumentException("Chunk " + chunk + " out of order");
+            }
+            previous = chunk;
+            long first = (long) chunk << Board.CHUNK_BITS;
+            for (int k = 0; k < CHUNK; k++) {
+                byte code = in.get();
+                if (code < 0 || code >= values.length) {
+                    throw new IllegalArgumentException("Unknown value " + code + " in chunk " + chunk);
+                }
+                if (first + k < board.size()) {
+                    board.set(first + k, values[code]);
+                }
+            }
+        }
+        return board;
+    }
+
+    private static Game.Values value(byte code) throws IOException {
+        if (code < 0 || code >= values.length) {
+            throw new IOException("Unknown value " + code + " in saved game");
+        }
+        return values[code];
+    }
+}
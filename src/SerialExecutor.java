@@ -0,0 +1,53 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor which runs its tasks one at a time in the order they were submitted, on threads of a shared executor. It
+ * holds no thread of its own, so there can be one for every game and an object used only by its tasks needs no
+ * locks. Submitting never blocks: the task is added to a lock-free queue and the first task of an idle executor
+ * schedules a drain, which runs at most <code>BATCH</code> tasks before it lets other executors run.
+ */
+public final class SerialExecutor implements Executor {
+    private static final int BATCH = 64;
+
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Class constructor specifying the executor running the tasks.
+     * @param executor shared executor
+     */
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (pending.getAndIncrement() == 0) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        for (int n = 1; ; n++) {
+            Runnable task = tasks.poll();
+            try {
+                task.run();
+            }
+            catch (RuntimeException e) {
+                Thread t = Thread.currentThread();
+                t.getUncaughtExceptionHandler().uncaughtException(t, e);
+            }
+            if (pending.decrementAndGet() == 0) {
+                return;
+            }
+            if (n == BATCH) {
+                executor.execute(this::drain);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Games of a server keyed by session id, at most <code>maxLive</code> of them kept on the heap. A sweeper evicts games
+ * idle for longer than the time to live and, while there are still too many, the least recently used ones. An evicted
+ * game is encoded like a <code>SaveFile</code> into a direct buffer outside of the heap and decoded again on its next
+ * use, so heap usage grows with active sessions rather than all of them. Sessions are kept in <code>SHARDS</code>
+ * concurrent maps chosen by a hash of the id; every game is confined to its session's <code>SerialExecutor</code>,
+ * evictions run there too, so they never race with a request.
+ */
+public class SessionStore implements Closeable {
+    private static final int SHARDS = 64;
+
+    private final Executor games;
+    private final int maxLive;
+    private final long ttlNanos;
+    @SuppressWarnings("unchecked")
+    private final ConcurrentHashMap<Long, Session>[] shards =
+            (ConcurrentHashMap<Long, Session>[]) new ConcurrentHashMap<?, ?>[SHARDS];
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final AtomicInteger live = new AtomicInteger();
+    private final AtomicLong spilledBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final AtomicBoolean sweepQueued = new AtomicBoolean();
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "session-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Hosted game, either live on the heap or spilled into a direct buffer.
+     */
+    public final class Session {
+        private final long id;
+        private final SerialExecutor executor;
+        private Game game;
+        private ByteBuffer spilled = null;
+        private boolean removed = false;
+        private volatile boolean resident = true;
+        private volatile long lastAccess = System.nanoTime();
+
+        private Session(long id, Game game) {
+            this.id = id;
+            this.game = game;
+            this.executor = new SerialExecutor(games);
+        }
+
+        /**
+         * Gets the id of the session.
+         * @return session id
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Runs an action on the game's executor, the game is decoded first if it was evicted.
+         * @param action action using the game
+         * @return completed with the action's result, exceptionally with <code>NoSuchElementException</code> if the
+         * session was removed
+         */
+        public <T> CompletableFuture<T> call(Function<Game, T> action) {
+            lastAccess = System.nanoTime();
+            return CompletableFuture.supplyAsync(() -> action.apply(load()), executor);
+        }
+
+        private Game load() {
+            if (removed) {
+                throw new NoSuchElementException("No game " + id);
+            }
+            if (game != null) {
+                hits.increment();
+                return game;
+            }
+            misses.increment();
+            try {
+                game = SaveFile.decode(spilled, "session " + id);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            spilledBytes.addAndGet(-spilled.capacity());
+            spilled = null;
+            resident = true;
+            live.incrementAndGet();
+            return game;
+        }
+
+        /**
+         * Moves the game off the heap unless it was used since the sweeper chose it.
+         */
+        private void spill(long chosenAccess) {
+            if (game == null || removed || lastAccess != chosenAccess) {
+                return;
+            }
+            ByteBuffer encoded = SaveFile.encode(game);
+            spilled = ByteBuffer.allocateDirect(encoded.remaining()).put(encoded).flip();
+            spilledBytes.addAndGet(spilled.capacity());
+            game = null;
+            resident = false;
+            live.decrementAndGet();
+            evictions.increment();
+        }
+
+        private void remove() {
+            if (removed) {
+                return;
+            }
+            removed = true;
+            if (game != null) {
+                live.decrementAndGet();
+            }
+            if (spilled != null) {
+                spilledBytes.addAndGet(-spilled.capacity());
+            }
+            game = null;
+            spilled = null;
+            resident = false;
+        }
+    }
+
+    /**
+     * Class constructor specifying the limits of live games.
+     * @param games executor running the sessions' executors
+     * @param maxLive number of games kept on the heap
+     * @param ttlNanos time after which an unused game is evicted
+     */
+    public SessionStore(Executor games, int maxLive, long ttlNanos) {
+        this.games = games;
+        this.maxLive = maxLive;
+        this.ttlNanos = ttlNanos;
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new ConcurrentHashMap<>();
+        }
+        long period = Math.max(TimeUnit.MILLISECONDS.toNanos(10), Math.min(ttlNanos / 2, TimeUnit.SECONDS.toNanos(1)));
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    private ConcurrentHashMap<Long, Session> shard(long id) {
+        return shards[(int) Game.mix(id) & (SHARDS - 1)];
+    }
+
+    /**
+     * Adds a new game, it must not be used outside of the session afterwards.
+     * @param game hosted game
+     * @return new session
+     */
+    public Session create(Game game) {
+        Session session = new Session(nextId.getAndIncrement(), game);
+        shard(session.id).put(session.id, session);
+        if (live.incrementAndGet() > maxLive + maxLive / 8 && sweepQueued.compareAndSet(false, true)) {
+            sweeper.execute(this::sweep);
+        }
+        return session;
+    }
+
+    /**
+     * Finds a session.
+     * @param id session id
+     * @return session, null if there is none with the id
+     */
+    public Session get(long id) {
+        return shard(id).get(id);
+    }
+
+    /**
+     * Removes a session, its game is dropped after requests already sent to it.
+     * @param id session id
+     * @return true if the session existed
+     */
+    public boolean remove(long id) {
+        Session session = shard(id).remove(id);
+        if (session == null) {
+            return false;
+        }
+        session.executor.execute(session::remove);
+        return true;
+    }
+
+    /**
+     * Evicts idle games and the least recently used ones over the limit.
+     */
+    private void sweep() {
+        sweepQueued.set(false);
+        long now = System.nanoTime();
+        List<Session> resident = new ArrayList<>();
+        for (ConcurrentHashMap<Long, Session> shard : shards) {
+            for (Session session : shard.values()) {
+                if (!session.resident) {
+                    continue;
+                }
+                long access = session.lastAccess;
+                if (now - access > ttlNanos) {
+                    session.executor.execute(() -> session.spill(access));
+                }
+                else {
+                    resident.add(session);
+                }
+            }
+        }
+        int excess = resident.size() - maxLive;
+        if (excess <= 0) {
+            return;
+        }
+        long[] accesses = new long[resident.size()];
+        for (int i = 0; i < accesses.length; i++) {
+            accesses[i] = resident.get(i).lastAccess;
+        }
+        Integer[] order = new Integer[accesses.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> accesses[i] - now));
+        for (int i = 0; i < excess; i++) {
+            Session session = resident.get(order[i]);
+            long access = accesses[order[i]];
+            session.executor.execute(() -> session.spill(access));
+        }
+    }
+
+    /**
+     * Gets the number of sessions.
+     * @return number of live and spilled sessions
+     */
+    public int getSessionCount() {
+        int count = 0;
+        for (ConcurrentHashMap<Long, Session> shard : shards) {
+            count += shard.size();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of games on the heap.
+     * @return number of live games
+     */
+    public int getLiveCount() {
+        return live.get();
+    }
+
+    /**
+     * Gets the number of uses which found the game on the heap.
+     * @return number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of uses which had to decode an evicted game.
+     * @return number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of games moved off the heap.
+     * @return number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the memory taken by evicted games outside of the heap.
+     * @return number of bytes
+     */
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    /**
+     * Stops the sweeper, sessions stay where they are.
+     */
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+}
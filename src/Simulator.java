@@ -0,0 +1,293 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Plays games of "3x" without the graphic window, spread over a fork-join pool. Every game gets its own seed derived
+ * from the master seed, so a run is reproducible regardless of the number of threads. Each task collects its
+ * statistics on its own and results are merged when tasks join.
+ */
+public class Simulator {
+    private static final int GAMES_PER_TASK = 64;
+
+    private final int width;
+    private final int height;
+    private final long seed;
+    private final int maxMoves;
+    private final PlacementPolicy policy;
+    private final ItemGenerator items;
+
+    /**
+     * Statistics of a batch of games.
+     */
+    public static class Stats {
+        private final Histogram score = new Histogram();
+        private final Histogram length = new Histogram();
+        private final Histogram cascadeDepth = new Histogram();
+        private final Histogram gameNanos = new Histogram();
+        private long games = 0;
+        private long moves = 0;
+
+        private void merge(Stats other) {
+            score.merge(other.score);
+            length.merge(other.length);
+            cascadeDepth.merge(other.cascadeDepth);
+            gameNanos.merge(other.gameNanos);
+            games += other.games;
+            moves += other.moves;
+        }
+
+        /**
+         * Gets the distribution of final scores.
+         * @return histogram of scores
+         */
+        public Histogram getScore() {
+            return score;
+        }
+
+        /**
+         * Gets the distribution of game lengths in steps.
+         * @return histogram of lengths
+         */
+        public Histogram getLength() {
+            return length;
+        }
+
+        /**
+         * Gets the distribution of merges per step, steps without any merge are included.
+         * @return histogram of cascade depths
+         */
+        public Histogram getCascadeDepth() {
+            return cascadeDepth;
+        }
+
+        /**
+         * Gets the distribution of time spent playing a game, it replaces the game clock which doesn't run here.
+         * @return histogram of nanoseconds per game
+         */
+        public Histogram getGameNanos() {
+            return gameNanos;
+        }
+
+        /**
+         * Gets the number of played games.
+         * @return number of games
+         */
+        public long getGames() {
+            return games;
+        }
+
+        /**
+         * Gets the number of steps in all played games.
+         * @return number of steps
+         */
+        public long getMoves() {
+            return moves;
+        }
+    }
+
+    /**
+     * Class constructor specifying played games.
+     * @param width number of columns in games' grid
+     * @param height number of rows in games' grid
+     * @param seed master seed of the games
+     * @param maxMoves number of steps after which an unfinished game is stopped
+     * @param policy policy choosing the moves
+     */
+    public Simulator(int width, int height, long seed, int maxMoves, PlacementPolicy policy) {
+        this(width, height, seed, maxMoves, policy, ItemGenerator.ALIAS);
+    }
+
+    /**
+     * Class constructor specifying played games and the generator of their items.
+     * @param width number of columns in games' grid
+     * @param height number of rows in games' grid
+     * @param seed master seed of the games
+     * @param maxMoves number of steps after which an unfinished game is stopped
+     * @param policy policy choosing the moves
+     * @param items item generator of every game
+     */
+    public Simulator(int width, int height, long seed, int maxMoves, PlacementPolicy policy, ItemGenerator items) {
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+        this.maxMoves = maxMoves;
+        this.policy = policy;
+        this.items = items;
+    }
+
+    /**
+     * Plays games with indexes from <code>0</code> to <code>games - 1</code>.
+     * @param games number of games
+     * @param threads parallelism of the pool playing the games
+     * @param progress counter incremented after every finished game, may be null
+     * @return merged statistics of all games
+     */
+    public Stats run(long games, int threads, LongAdder progress) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new Batch(0, games, progress));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private class Batch extends RecursiveTask<Stats> {
+        private static final long serialVersionUID = 1L;
+
+        private final long from;
+        private final long to;
+        private final LongAdder progress;
+
+        private Batch(long from, long to, LongAdder progress) {
+            this.from = from;
+            this.to = to;
+            this.progress = progress;
+        }
+
+        @Override
+        protected Stats compute() {
+            if (to - from > GAMES_PER_TASK) {
+                long mid = (from + to) >>> 1;
+                Batch left = new Batch(from, mid, progress);
+                left.fork();
+                Stats stats = new Batch(mid, to, progress).compute();
+                stats.merge(left.join());
+                return stats;
+            }
+
+            Stats stats = new Stats();
+            for (long i = from; i < to; i++) {
+                play(i, stats);
+                if (progress != null) {
+                    progress.increment();
+                }
+            }
+            return stats;
+        }
+    }
+
+    private void play(long gameIndex, Stats stats) {
+        long start = System.nanoTime();
+        Game game = new Game(width, height, new GameRandom(Game.mix(seed + gameIndex)), items);
+        Random random = new Random(Game.mix(~(seed + gameIndex)));
+
+        int moves = 0;
+        while (!game.isOver() && moves < maxMoves) {
+            game.chooseSlot(policy.choose(game, random));
+            game.makeStep();
+            game.checkAdjacency();
+            stats.cascadeDepth.record(game.getCascadeDepth());
+            moves++;
+        }
+
+        stats.score.record(game.getScore());
+        stats.length.record(moves);
+        stats.gameNanos.record(System.nanoTime() - start);
+        stats.games++;
+        stats.moves += moves;
+    }
+
+    /**
+     * Runs the simulation once for every requested number of threads, prints a summary every second and writes one
+     * CSV row per run. Arguments have the form <code>--name=value</code>: width, height, games, threads (comma
+     * separated), seed, policy (random, neighbours, greedy or advisor), generator of items (alias or thresholds),
+     * max-moves and csv; <code>--metrics</code> records <code>Metrics</code> and prints them after every run.
+     */
+    public static void main(String[] args) throws IOException {
+        int width = 4;
+        int height = 4;
+        long games = 100_000;
+        int[] threads = {Runtime.getRuntime().availableProcessors()};
+        long seed = 1;
+        int maxMoves = 100_000;
+        PlacementPolicy policy = PlacementPolicy.RANDOM;
+        ItemGenerator items = ItemGenerator.ALIAS;
+        String csv = "simulation.csv";
+
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            String value = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "width" -> width = Integer.parseInt(value);
+                case "height" -> height = Integer.parseInt(value);
+                case "games" -> games = Long.parseLong(value);
+                case "threads" -> threads = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+                case "seed" -> seed = Long.parseLong(value);
+                case "max-moves" -> maxMoves = Integer.parseInt(value);
+                case "policy" -> policy = switch (value) {
+                    case "neighbours" -> PlacementPolicy.NEIGHBOURS;
+                    case "greedy" -> PlacementPolicy.GREEDY;
+                    case "advisor" -> new Advisor().asPolicy(5_000_000);
+                    default -> PlacementPolicy.RANDOM;
+                };
+                case "generator" -> items = ItemGenerator.forName(value);
+                case "csv" -> csv = value;
+                case "metrics" -> Metrics.setEnabled(true);
+                default -> throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+
+        Simulator simulator = new Simulator(width, height, seed, maxMoves, policy, items);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "simulator-progress");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(csv)))) {
+            out.println("width,height,threads,games,seconds,games_per_s,moves_per_s,"
+                    + "score_mean,score_p50,score_p90,score_p99,score_max,"
+                    + "length_mean,length_p50,length_p99,length_max,"
+                    + "cascade_mean,cascade_p99,cascade_max,game_us_p50,game_us_p99");
+
+            for (int t : threads) {
+                LongAdder progress = new LongAdder();
+                long start = System.nanoTime();
+                long total = games;
+                int threadCount = t;
+                ScheduledFuture<?> report = reporter.scheduleAtFixedRate(() -> {
+                    double s = (System.nanoTime() - start) / 1e9;
+                    long done = progress.sum();
+                    System.out.printf("threads=%d %d/%d games, %.0f games/s%n", threadCount, done, total, done / s);
+                }, 1, 1, TimeUnit.SECONDS);
+
+                Stats stats = simulator.run(games, t, progress);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                report.cancel(false);
+
+                System.out.printf("threads=%d games=%d %.2fs %.0f games/s %.0f moves/s score mean=%.1f p99=%d%n",
+                        t, stats.getGames(), seconds, stats.getGames() / seconds, stats.getMoves() / seconds,
+                        stats.getScore().getMean(), stats.getScore().getPercentile(0.99));
+                out.printf("%d,%d,%d,%d,%.3f,%.0f,%.0f,%.2f,%d,%d,%d,%d,%.2f,%d,%d,%d,%.4f,%d,%d,%d,%d%n",
+                        width, height, t, stats.getGames(), seconds, stats.getGames() / seconds,
+                        stats.getMoves() / seconds,
+                        stats.getScore().getMean(), stats.getScore().getPercentile(0.5),
+                        stats.getScore().getPercentile(0.9), stats.getScore().getPercentile(0.99),
+                        stats.getScore().getMax(),
+                        stats.getLength().getMean(), stats.getLength().getPercentile(0.5),
+                        stats.getLength().getPercentile(0.99), stats.getLength().getMax(),
+                        stats.getCascadeDepth().getMean(), stats.getCascadeDepth().getPercentile(0.99),
+                        stats.getCascadeDepth().getMax(),
+                        stats.getGameNanos().getPercentile(0.5) / 1000,
+                        stats.getGameNanos().getPercentile(0.99) / 1000);
+                out.flush();
+                if (Metrics.isEnabled()) {
+                    System.out.print(Metrics.dump());
+                    Metrics.reset();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,454 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable state of a game between moves. Cells are split into chunks of <code>1 << Board.CHUNK_BITS</code> cells
+ * kept in a persistent trie with 32 children per node. A snapshot taken after another one copies only the chunks the
+ * board marked as changed and the nodes on their paths, everything else is shared with the previous snapshot, so a
+ * move costs memory proportional to the cells it touched. Two snapshots of the same game are compared by walking only
+ * the nodes they don't share. Empty chunks and subtrees holding only empty chunks are left out of the trie, so a
+ * snapshot of a sparse board costs memory proportional to its occupied area.
+ */
+public final class Snapshot {
+    private static final int BRANCH_BITS = 5;
+    private static final int BRANCH = 1 << BRANCH_BITS;
+    private static final int CHUNK = 1 << Board.CHUNK_BITS;
+    private static final Game.Values[] values = Game.Values.values();
+
+    private static final long NODE_BYTES = 16 + 4 * BRANCH;
+    private static final long CHUNK_BYTES = 16 + CHUNK;
+    private static final long SNAPSHOT_BYTES = 64;
+    private static final Object[] EMPTY_NODE = new Object[BRANCH];
+    private static final byte EMPTY = (byte) Game.Values.EMPTY.ordinal();
+
+    private final int width;
+    private final int height;
+    private final long size;
+    private final int levels;
+    private final boolean sparse;
+    private final Object root;
+    private final long[] bees;
+    private final int score;
+    private final int elapsedTime;
+    private final int moves;
+    private final Game.Values currentItem;
+    private final Game.Values savedItem;
+    private final boolean pickedSaved;
+    private final ItemGenerator items;
+    private final long chosenIndex;
+    private final boolean over;
+    private final Placements placements;
+    private long bytes = SNAPSHOT_BYTES;
+
+    private Snapshot(Game game, Board.Changes changes, Snapshot previous, Placements placements) {
+        Board board = game.getBoard();
+        width = board.getWidth();
+        height = board.getHeight();
+        size = board.size();
+        levels = levelsOf(board.getChunkCount());
+        sparse = board.isSparse();
+
+        if (previous == null && board.isSparse()) {
+            int[] occupied = board.getOccupiedChunks();
+            root = occupied.length == 0 ? null : update(null, levels, occupied, 0, occupied.length, board);
+        }
+        else if (previous == null) {
+            root = build(board, levels, 0);
+        }
+        else {
+            int n = changes.size();
+            int[] changed = Arrays.copyOf(changes.getChunks(), n);
+            Arrays.sort(changed);
+            root = n == 0 ? previous.root : update(previous.root, levels, changed, 0, n, board);
+        }
+        changes.clear();
+
+        long[] current = game.getBees().toArray();
+        if (previous != null && Arrays.equals(current, previous.bees)) {
+            bees = previous.bees;
+        }
+        else {
+            bees = current;
+            bytes += 16 + 8L * current.length;
+        }
+        score = game.getScore();
+        elapsedTime = game.getElapsedTime();
+        moves = game.getMoves();
+        currentItem = game.getCurrentItem().getValue();
+        savedItem = game.getSavedItem().getValue();
+        pickedSaved = game.isSavedPicked();
+        items = game.getItemGenerator();
+        chosenIndex = game.getChosenIndex();
+        over = game.isOver();
+        this.placements = placements;
+    }
+
+    /**
+     * Takes a snapshot of a game. Snapshots sharing their chunks form a chain with its own changes tracked by the
+     * game's board, the board has to match the previous snapshot of the chain in every chunk which is not marked.
+     * @param game game in between moves
+     * @param changes chunks changed since the previous snapshot was taken or restored, they are cleared
+     * @param previous previous snapshot of the chain, null for the first one
+     * @return new snapshot
+     */
+    public static Snapshot of(Game game, Board.Changes changes, Snapshot previous) {
+        return new Snapshot(game, changes, previous, null);
+    }
+
+    /**
+     * Takes a snapshot of a game together with a preview of its next placement, see <code>of</code>.
+     * @param game game in between moves
+     * @param changes chunks changed since the previous snapshot was taken or restored, they are cleared
+     * @param previous previous snapshot of the chain, null for the first one
+     * @param placements preview of placing the picked item, it must not change afterwards
+     * @return new snapshot
+     */
+    public static Snapshot of(Game game, Board.Changes changes, Snapshot previous, Placements placements) {
+        return new Snapshot(game, changes, previous, placements);
+    }
+
+    private static int levelsOf(int chunks) {
+        int levels = 0;
+        for (long span = 1; span < chunks; span <<= BRANCH_BITS) {
+            levels++;
+        }
+        return levels;
+    }
+
+    /**
+     * Builds the subtree of a node from the board, null if all its chunks are empty.
+     */
+    private Object build(Board board, int level, int firstChunk) {
+        if (level == 0) {
+            byte[] chunk = new byte[CHUNK];
+            board.readChunk(firstChunk, chunk);
+            if (isEmpty(chunk)) {
+                return null;
+            }
+            bytes += CHUNK_BYTES;
+            return chunk;
+        }
+        Object[] node = new Object[BRANCH];
+        int span = 1 << (BRANCH_BITS * (level - 1));
+        for (int c = 0; c < BRANCH && firstChunk + c * span < board.getChunkCount(); c++) {
+            node[c] = build(board, level - 1, firstChunk + c * span);
+        }
+        if (isEmpty(node)) {
+            return null;
+        }
+        bytes += NODE_BYTES;
+        return node;
+    }
+
+    private static boolean isEmpty(byte[] chunk) {
+        for (byte code : chunk) {
+            if (code != EMPTY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isEmpty(Object[] node) {
+        for (Object child : node) {
+            if (child != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the path to every changed chunk below a node, chunks are sorted so each child is copied only once. A
+     * missing node stands for empty chunks, a node left with no chunks goes missing.
+     */
+    private Object update(Object node, int level, int[] changed, int from, int to, Board board) {
+        if (level == 0) {
+            byte[] chunk = new byte[CHUNK];
+            board.readChunk(changed[from], chunk);
+            if (node == null ? isEmpty(chunk) : Arrays.equals(chunk, (byte[]) node)) {
+                return node;
+            }
+            if (isEmpty(chunk)) {
+                return null;
+            }
+            bytes += CHUNK_BYTES;
+            return chunk;
+        }
+
+        Object[] children = node == null ? EMPTY_NODE : (Object[]) node;
+        Object[] copy = null;
+        int shift = BRANCH_BITS * (level - 1);
+        int i = from;
+        while (i < to) {
+            int child = (changed[i] >>> shift) & (BRANCH - 1);
+            int j = i + 1;
+            while (j < to && ((changed[j] >>> shift) & (BRANCH - 1)) == child) {
+                j++;
+            }
+            Object updated = update(children[child], level - 1, changed, i, j, board);
+            if (updated != children[child]) {
+                if (copy == null) {
+                    copy = children.clone();
+                    bytes += NODE_BYTES;
+                }
+                copy[child] = updated;
+            }
+            i = j;
+        }
+        if (copy == null) {
+            return node;
+        }
+        if (isEmpty(copy)) {
+            return null;
+        }
+        return copy;
+    }
+
+    /**
+     * Finds a chunk in the trie.
+     * @return codes of the chunk, null if it is empty
+     */
+    private byte[] chunk(int chunk) {
+        Object node = root;
+        for (int level = levels; level > 0 && node != null; level--) {
+            node = ((Object[]) node)[(chunk >>> (BRANCH_BITS * (level - 1))) & (BRANCH - 1)];
+        }
+        return (byte[]) node;
+    }
+
+    /**
+     * Makes a game the same as this snapshot, except for its elapsed time and random generator. Only chunks which
+     * differ from the current snapshot or changed since it was taken are written.
+     * @param game game the snapshots were taken from
+     * @param current snapshot of the same chain, the game's board matches it apart from the changed chunks
+     * @param changes chunks changed since the current snapshot was taken or restored, they are cleared
+     */
+    public void restore(Game game, Snapshot current, Board.Changes changes) {
+        Board board = game.getBoard();
+        int n = changes.size();
+        int[] changed = changes.getChunks();
+        for (int i = 0; i < n; i++) {
+            write(board, chunk(changed[i]), changed[i]);
+        }
+        diff(current.root, root, levels, 0, c -> write(board, chunk(c), c));
+        changes.clear();
+
+        game.getBees().setAll(bees);
+        game.setState(score, currentItem, savedItem, pickedSaved, chosenIndex);
+    }
+
+    /**
+     * Finds chunks in which this snapshot may differ from another one of the same chain.
+     * @param previous snapshot of the same chain, null to get all chunks
+     * @param action called with the number of every chunk not shared by the snapshots, in increasing order
+     */
+    public void forEachChangedChunk(Snapshot previous, IntConsumer action) {
+        diff(previous == null ? null : previous.root, root, levels, 0, action);
+    }
+
+    private void diff(Object from, Object to, int level, int firstChunk, IntConsumer action) {
+        if (from == to) {
+            return;
+        }
+        if (level == 0) {
+            action.accept(firstChunk);
+            return;
+        }
+        Object[] a = from == null ? EMPTY_NODE : (Object[]) from;
+        Object[] b = to == null ? EMPTY_NODE : (Object[]) to;
+        int span = 1 << (BRANCH_BITS * (level - 1));
+        for (int c = 0; c < BRANCH; c++) {
+            diff(a[c], b[c], level - 1, firstChunk + c * span, action);
+        }
+    }
+
+    private void write(Board board, byte[] chunk, int number) {
+        long first = (long) number << Board.CHUNK_BITS;
+        int n = (int) Math.min(CHUNK, size - first);
+        for (int k = 0; k < n; k++) {
+            byte code = chunk == null ? EMPTY : chunk[k];
+            if (board.code(first + k) != code) {
+                board.set(first + k, values[code]);
+            }
+        }
+    }
+
+    /**
+     * Checks if the game's state kept next to its board is the same as in this snapshot.
+     * @param game game the snapshot was taken from
+     * @return true if score, items and bees are the same
+     */
+    boolean sameState(Game game) {
+        return score == game.getScore() && currentItem == game.getCurrentItem().getValue()
+                && savedItem == game.getSavedItem().getValue() && pickedSaved == game.isSavedPicked()
+                && chosenIndex == game.getChosenIndex() && Arrays.equals(bees, game.getBees().toArray());
+    }
+
+    /**
+     * Gets the value of a cell.
+     * @param index linear index of the cell
+     * @return value of the cell
+     */
+    public Game.Values get(long index) {
+        byte[] chunk = chunk((int) (index >>> Board.CHUNK_BITS));
+        return values[chunk == null ? EMPTY : chunk[(int) index & (CHUNK - 1)]];
+    }
+
+    /**
+     * Copies codes of cells in a chunk like <code>Board.readChunk</code>.
+     * @param chunk number of the chunk
+     * @param out array of <code>1 << Board.CHUNK_BITS</code> codes
+     */
+    void readChunk(int chunk, byte[] out) {
+        byte[] codes = chunk(chunk);
+        if (codes == null) {
+            Arrays.fill(out, 0, CHUNK, EMPTY);
+        }
+        else {
+            System.arraycopy(codes, 0, out, 0, CHUNK);
+        }
+    }
+
+    /**
+     * Writes codes of all cells like <code>Board.writeCells</code>.
+     * @param out buffer with at least <code>size</code> bytes remaining
+     */
+    void writeCells(ByteBuffer out) {
+        byte[] empty = new byte[CHUNK];
+        Arrays.fill(empty, EMPTY);
+        for (int chunk = 0; (long) chunk << Board.CHUNK_BITS < size; chunk++) {
+            byte[] codes = chunk(chunk);
+            out.put(codes == null ? empty : codes, 0, (int) Math.min(CHUNK, size - ((long) chunk << Board.CHUNK_BITS)));
+        }
+    }
+
+    /**
+     * Finds chunks holding an occupied cell.
+     * @param action called with the number of every such chunk, in increasing order
+     */
+    void forEachOccupiedChunk(IntConsumer action) {
+        diff(null, root, levels, 0, action);
+    }
+
+    /**
+     * Checks if the snapshot was taken of a sparse board.
+     * @return true if the board was sparse
+     */
+    public boolean isSparse() {
+        return sparse;
+    }
+
+    /**
+     * Gets positions of bees in the order they move.
+     * @return shared array of linear indexes, it must not be changed
+     */
+    long[] getBees() {
+        return bees;
+    }
+
+    /**
+     * Gets the number of columns.
+     * @return number of columns
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the number of rows.
+     * @return number of rows
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of cells.
+     * @return number of cells
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Gets the score of the game.
+     * @return score
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Gets the elapsed time of the game when the snapshot was taken.
+     * @return elapsed time
+     */
+    public int getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Gets the number of moves made when the snapshot was taken.
+     * @return number of checked steps
+     */
+    public int getMoves() {
+        return moves;
+    }
+
+    /**
+     * Gets the value of the current item.
+     * @return current item's value
+     */
+    public Game.Values getCurrentItem() {
+        return currentItem;
+    }
+
+    /**
+     * Gets the value of the saved item.
+     * @return saved item's value
+     */
+    public Game.Values getSavedItem() {
+        return savedItem;
+    }
+
+    /**
+     * Checks if the saved item was picked for the next step.
+     * @return true if saved item is picked
+     */
+    public boolean isSavedPicked() {
+        return pickedSaved;
+    }
+
+    /**
+     * Gets the generator drawing the items of the game.
+     * @return item generator
+     */
+    public ItemGenerator getItemGenerator() {
+        return items;
+    }
+
+    /**
+     * Gets the preview of placing the picked item taken with the snapshot.
+     * @return results of all placements, null if no preview was taken
+     */
+    public Placements getPlacements() {
+        return placements;
+    }
+
+    /**
+     * Checks if the game had ended when the snapshot was taken.
+     * @return true if all slots were occupied
+     */
+    public boolean isOver() {
+        return over;
+    }
+
+    /**
+     * Gets an estimate of the memory this snapshot added to the one it was taken after.
+     * @return number of bytes, the whole trie for the first snapshot
+     */
+    public long getBytes() {
+        return bytes;
+    }
+}
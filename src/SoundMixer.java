@@ -0,0 +1,211 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays short sounds through a single line opened once. Every sound is decoded into 16-bit stereo samples when the
+ * mixer is created; a mixing thread adds the playing voices together block by block and writes them into the line.
+ * There is a fixed pool of <code>VOICES</code> voices, a sound triggered while all of them play takes the voice which
+ * has played the longest. Triggers are counted in an atomic array the mixing thread takes them from, so the thread
+ * calling <code>play</code> never waits for audio. Without an audio device the mixer is silent.
+ */
+public class SoundMixer implements Closeable {
+    private static final float RATE = 44100;
+    private static final int VOICES = 8;
+    private static final int BLOCK_FRAMES = 256;
+    private static final int LINE_BLOCKS = 4;
+    private static final AudioFormat format = new AudioFormat(RATE, 16, 2, true, false);
+
+    private final short[][] samples;
+    private final AtomicIntegerArray triggers;
+    private final SourceDataLine line;
+    private final Thread mixer;
+    private final short[][] voiceSamples = new short[VOICES][];
+    private final int[] voicePositions = new int[VOICES];
+    private volatile boolean closed = false;
+
+    /**
+     * Class constructor, it decodes all sounds of the game and opens the line. The mixer is silent if the line can't
+     * be opened, a sound which can't be decoded is silent.
+     */
+    public SoundMixer() {
+        Assets.Sound[] sounds = Assets.Sound.values();
+        samples = new short[sounds.length][];
+        triggers = new AtomicIntegerArray(sounds.length);
+        for (Assets.Sound sound : sounds) {
+            try {
+                samples[sound.ordinal()] = decode(new File(sound.getPath()));
+            }
+            catch (IOException | UnsupportedAudioFileException e) {
+                System.err.println("Sound " + sound.getPath() + " is not loaded: " + e);
+                samples[sound.ordinal()] = new short[0];
+            }
+        }
+
+        SourceDataLine opened = null;
+        try {
+            opened = AudioSystem.getSourceDataLine(format);
+            opened.open(format, BLOCK_FRAMES * LINE_BLOCKS * format.getFrameSize());
+            opened.start();
+        }
+        catch (LineUnavailableException | IllegalArgumentException | SecurityException e) {
+            System.err.println("Sounds are silent: " + e);
+            if (opened != null) {
+                opened.close();
+            }
+            opened = null;
+        }
+        line = opened;
+        if (line == null) {
+            mixer = null;
+            return;
+        }
+        mixer = new Thread(this::mix, "sound-mixer");
+        mixer.setDaemon(true);
+        mixer.setPriority(Thread.MAX_PRIORITY);
+        mixer.start();
+    }
+
+    /**
+     * Decodes a sound file into interleaved 16-bit stereo samples at the rate of the line.
+     */
+    private static short[] decode(File file) throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(file)) {
+            AudioFormat source = in.getFormat();
+            AudioFormat pcm = new AudioFormat(source.getSampleRate(), 16, source.getChannels(), true, false);
+            byte[] bytes;
+            try (AudioInputStream converted = AudioSystem.getAudioInputStream(pcm, in)) {
+                bytes = converted.readAllBytes();
+            }
+            int channels = pcm.getChannels();
+            int frames = bytes.length / (2 * channels);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            double step = pcm.getSampleRate() / RATE;
+            int length = (int) (frames / step);
+            short[] stereo = new short[2 * length];
+            for (int i = 0; i < length; i++) {
+                int frame = (int) (i * step);
+                short left = buffer.getShort(2 * channels * frame);
+                short right = channels > 1 ? buffer.getShort(2 * channels * frame + 2) : left;
+                stereo[2 * i] = left;
+                stereo[2 * i + 1] = right;
+            }
+            return stereo;
+        }
+    }
+
+    /**
+     * Triggers a sound, it starts playing in the next block mixed. It returns immediately.
+     * @param sound played sound
+     */
+    public void play(Assets.Sound sound) {
+        if (mixer == null) {
+            return;
+        }
+        triggers.getAndIncrement(sound.ordinal());
+        LockSupport.unpark(mixer);
+    }
+
+    private void mix() {
+        int[] sum = new int[2 * BLOCK_FRAMES];
+        byte[] out = new byte[4 * BLOCK_FRAMES];
+        while (!closed) {
+            boolean playing = startTriggered();
+            for (int v = 0; v < VOICES; v++) {
+                playing |= voiceSamples[v] != null;
+            }
+            if (!playing) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            Arrays.fill(sum, 0);
+            for (int v = 0; v < VOICES; v++) {
+                short[] voice = voiceSamples[v];
+                if (voice == null) {
+                    continue;
+                }
+                int position = voicePositions[v];
+                int n = Math.min(sum.length, voice.length - position);
+                for (int i = 0; i < n; i++) {
+                    sum[i] += voice[position + i];
+                }
+                voicePositions[v] = position + n;
+                if (position + n >= voice.length) {
+                    voiceSamples[v] = null;
+                }
+            }
+            for (int i = 0; i < sum.length; i++) {
+                int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sum[i]));
+                out[2 * i] = (byte) sample;
+                out[2 * i + 1] = (byte) (sample >> 8);
+            }
+            line.write(out, 0, out.length);
+        }
+    }
+
+    /**
+     * Gives a voice to every sound triggered since the last block.
+     * @return true if any sound was triggered
+     */
+    private boolean startTriggered() {
+        boolean started = false;
+        for (int s = 0; s < samples.length; s++) {
+            int count = Math.min(triggers.getAndSet(s, 0), VOICES);
+            for (int k = 0; k < count && samples[s].length > 0; k++) {
+                int voice = freeVoice();
+                voiceSamples[voice] = samples[s];
+                voicePositions[voice] = 0;
+                started = true;
+            }
+        }
+        return started;
+    }
+
+    /**
+     * Finds a voice for a new sound.
+     * @return an idle voice, or the one which has played the longest if all of them play
+     */
+    private int freeVoice() {
+        int oldest = 0;
+        for (int v = 0; v < VOICES; v++) {
+            if (voiceSamples[v] == null) {
+                return v;
+            }
+            if (voicePositions[v] > voicePositions[oldest]) {
+                oldest = v;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Stops the mixing thread and closes the line.
+     */
+    @Override
+    public void close() {
+        if (mixer == null) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(mixer);
+        try {
+            mixer.join(1000);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        line.close();
+    }
+}